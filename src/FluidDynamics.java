@@ -1,9 +1,17 @@
 import data.Wave;
 import parameters.FluidSimulationParameters;
 import data.VolumeState;
+import distributed.SlabCoordinator;
 import generation.FluidGeneration;
+import output.DensityTimeSeriesWriter;
+import output.VelocityCacheReader;
+import output.VelocityCacheWriter;
+import server.SliceMonitor;
 import simulation.FluidSimulation;
+import simulation.SimulationBackends;
+import simulation.SolverAutotuner;
 import util.ProgramUtils;
+import util.ProgressListener;
 
 import java.util.List;
 
@@ -20,9 +28,14 @@ import java.util.List;
  *  4) saves the resulting volume in an output file in a raw 8-bit format
  *
  * To run this program, simply run this class as a java program.
+ * Optionally, number of local worker processes can be given as the first argument, to split simulation between them,
+ * and simulation backend ("scalar", "parallel" or "auto") as the second, or "autotune" to choose backend and its
+ * settings by calibration on this machine.
  */
 public class FluidDynamics {
 
+    private static final String AUTOTUNE = "autotune";
+
     public static void main(String[] args) {
         // define parameters of the volume
         FluidSimulationParameters parameters = new FluidSimulationParameters()
@@ -38,6 +51,11 @@ public class FluidDynamics {
                 .withTimeStep(0.05)
                 .withGenerationSeed(-1L)
                 .withNumOfSteps(5)
+                .withNumOfWorkers(args.length > 0 ? Integer.parseInt(args[0]) : 1)
+                // giving workers accepts their slightly different numerics, see withSlabApproximation
+                .withSlabApproximation(args.length > 0 && Integer.parseInt(args[0]) > 1)
+                .withSimulationBackend(args.length > 1 && !args[1].equals(AUTOTUNE) ? args[1] : SimulationBackends.SCALAR)
+                .withAutotune(args.length > 1 && args[1].equals(AUTOTUNE))
                 .withFloorHeight(2.5)
                 .withFloorDensity(3000.0)
                 .withCubeSize(3.8)
@@ -49,20 +67,57 @@ public class FluidDynamics {
                         new Wave().withStartX(150).withStartY(390).withAmplitude(0.4).withFrequency(0.23)
                 ));
 
+        if (parameters.getNumOfWorkers() > 1) {
+            // generate, simulate and save the volume with worker processes
+            new SlabCoordinator(parameters).simulateAndSave();
+            return;
+        }
+
+        if (parameters.isAutotune())
+            new SolverAutotuner(parameters.getAutotuneCacheFileName()).tune(parameters);
+
         // create a volume alongside potential field
         ProgramUtils.displayMessageWithTimestamp("Creating volume");
-        VolumeState volumeState = new FluidGeneration(parameters).createVolume(parameters);
+        FluidGeneration fluidGeneration = new FluidGeneration(parameters);
+        fluidGeneration.setProgressListener(ProgressListener.CONSOLE);
+        VolumeState volumeState = fluidGeneration.createVolume(parameters);
         // simulate generated volume in user-defined number of steps
         ProgramUtils.displayMessageWithTimestamp("Simulating volume");
-        FluidSimulation fluidSimulation = new FluidSimulation(volumeState);
+        FluidSimulation fluidSimulation = new FluidSimulation(volumeState,
+                SimulationBackends.create(parameters.getSimulationBackend(), volumeState));
+        fluidSimulation.setProgressListener(ProgressListener.CONSOLE, parameters.getNumOfSteps());
+        fluidSimulation.setSurfaceAnimation(fluidGeneration.createSurfaceAnimation(parameters));
+        DensityTimeSeriesWriter timeSeriesWriter = ProgramUtils.openTimeSeries(parameters, volumeState);
+        VelocityCacheReader velocityReplay = ProgramUtils.openVelocityReplay(parameters, volumeState);
+        VelocityCacheWriter velocityRecord = ProgramUtils.openVelocityRecord(parameters, volumeState);
+        SliceMonitor monitor = ProgramUtils.openMonitor(parameters, volumeState);
         for (int i = 0; i < parameters.getNumOfSteps(); i++) {
             ProgramUtils.displayMessageWithTimestamp("Simulating step " + (i + 1) + " of " + parameters.getNumOfSteps());
-            fluidSimulation.simulateStep();
+            if (monitor != null)
+                monitor.beginStep();
+            if (velocityReplay != null) {
+                if (!ProgramUtils.readVelocitiesFromReplay(velocityReplay, i, volumeState))
+                    break;
+                fluidSimulation.simulateDensityStep();
+            } else {
+                fluidSimulation.simulateStep();
+            }
+            if (monitor != null)
+                monitor.endStep(i + 1);
+            ProgramUtils.writeVelocitiesToRecord(velocityRecord, volumeState);
+            ProgramUtils.writeDensitiesToTimeSeries(timeSeriesWriter, parameters, fluidSimulation.getVolumeState());
+            ProgramUtils.writePreview(parameters, fluidSimulation.getVolumeState(), i + 1);
         }
+        ProgramUtils.closeTimeSeries(timeSeriesWriter);
+        ProgramUtils.closeVelocityCache(velocityReplay);
+        ProgramUtils.closeVelocityCache(velocityRecord);
+        if (monitor != null)
+            monitor.close();
         VolumeState finalVolumeState = fluidSimulation.getVolumeState();
         // save volume to a new file
         ProgramUtils.displayMessageWithTimestamp("Saving volume to file");
         ProgramUtils.writeDensitiesToFileAddAirAround(parameters, finalVolumeState);
+        finalVolumeState.release();
         ProgramUtils.displayMessageWithTimestamp("Volume prepared");
     }
 
@@ -0,0 +1,323 @@
+package benchmark;
+
+import data.VolumeState;
+import data.Wave;
+import distributed.SlabCoordinator;
+import generation.FluidGeneration;
+import parameters.FluidSimulationParameters;
+import simulation.FluidSimulation;
+import simulation.SimulationBackends;
+import util.ProgramUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * End-to-end scaling benchmark: generation, simulation of a number of steps and output of the volume, over a matrix
+ * of volume sizes, worker processes, processor counts and solver settings. Every configuration runs in its own JVM, so
+ * heap, GC and JIT state of one run do not affect the next. Every configuration is repeated and saved as one CSV row
+ * with median and minimum of wall and simulation time over its runs, medians of other times and GC, and the largest
+ * memory peaks; voxel updates per second are computed from the median simulation time.
+ *
+ * Arguments (all optional):
+ *  --sizes 32,48,64,96         volume sizes
+ *  --workers 1,2,4             worker processes (1 simulates in the benchmarked JVM itself)
+ *  --threads 1,4               processors visible to the benchmarked JVM
+ *  --solvers default,tuned,blocked,parallel,parallel-blocked
+ *  --steps 5                   simulated steps
+ *  --repeat 3                  runs of every configuration
+ *  --out scaling.csv           result file
+ *  --baseline old.csv          compare median wall time with an earlier result file
+ *  --threshold 0.1             relative slowdown over baseline, which is reported as a regression
+ *
+ * With more than one worker, only the coordinating JVM is measured for memory and GC.
+ */
+public class ScalingBenchmark {
+
+    private static final String HEADER = "size,workers,threads,solver,steps,runs,wall_ms,wall_min_ms,generation_ms,"
+            + "simulation_ms,simulation_min_ms,output_ms,peak_heap_mb,peak_rss_mb,gc_ms,gc_count,voxel_updates_per_s";
+    private static final String WALL_TIME_COLUMN = "wall_ms";
+    private static final String RESULT_PREFIX = "RESULT,";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--run")) {
+            // single configuration, started by the benchmark in its own JVM
+            System.out.println(RESULT_PREFIX + runConfiguration(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), args[4], Integer.parseInt(args[5])));
+            return;
+        }
+        Map<String, String> options = parseOptions(args);
+        List<String> rows = new ArrayList<>();
+        for (String size : options.get("sizes").split(","))
+            for (String workers : options.get("workers").split(","))
+                for (String threads : options.get("threads").split(","))
+                    for (String solver : options.get("solvers").split(",")) {
+                        ProgramUtils.displayMessageWithTimestamp("Benchmarking size " + size + ", " + workers + " workers, "
+                                + threads + " threads, " + solver + " solver");
+                        List<String[]> runs = new ArrayList<>();
+                        for (int run = 0; run < Integer.parseInt(options.get("repeat")); run++) {
+                            String result = runInOwnJvm(size, workers, threads, solver, options.get("steps"));
+                            if (result != null)
+                                runs.add(result.split(","));
+                        }
+                        if (!runs.isEmpty())
+                            rows.add(summarize(runs));
+                    }
+        try (PrintWriter out = new PrintWriter(new FileWriter(options.get("out")))) {
+            out.println(HEADER);
+            rows.forEach(out::println);
+        }
+        ProgramUtils.displayMessageWithTimestamp("Results saved to " + options.get("out"));
+        if (options.containsKey("baseline")) {
+            int regressions = compareWithBaseline(rows, options.get("baseline"), Double.parseDouble(options.get("threshold")));
+            if (regressions > 0)
+                System.exit(1);
+        }
+    }
+
+    /**
+     * @return parameters for a volume of given size, with the same proportions as in FluidDynamics
+     */
+    public static FluidSimulationParameters parametersForSize(int size) {
+        double scale = size / 254.0;
+        return new FluidSimulationParameters()
+                .withSize(size)
+                .withHeightBase(15.2 * scale)
+                .withHeightSpan(5.1 * scale)
+                .withDensityRange(30.0)
+                .withDensityBase(1000.0)
+                .withDimensionDiscretizationStep(0.1)
+                .withDiffusionRate(0.001)
+                .withViscosityRate(0.01)
+                .withTimeStep(0.05)
+                .withGenerationSeed(-1L)
+                .withFloorHeight(2.5 * scale)
+                .withFloorDensity(3000.0)
+                .withCubeSize(3.8 * scale)
+                .withCubePositionX(10.8 * scale)
+                .withCubePositionY(10.8 * scale)
+                .withWaves(List.of(
+                        new Wave().withStartX((int) (200 * scale)).withStartY((int) (200 * scale)).withAmplitude(0.5).withFrequency(0.2 / scale),
+                        new Wave().withStartX((int) (300 * scale)).withStartY((int) (300 * scale)).withAmplitude(0.2).withFrequency(0.16 / scale),
+                        new Wave().withStartX((int) (150 * scale)).withStartY((int) (390 * scale)).withAmplitude(0.4).withFrequency(0.23 / scale)
+                ));
+    }
+
+    /**
+     * @param solver "default", "tuned" (normalized pressure stencil, tolerance, over-relaxation and warm start),
+     *               "blocked" (all sweeps of a solve in one block), "parallel" or "parallel-blocked" (the same on
+     *               parallel backend)
+     */
+    public static FluidSimulationParameters applySolver(FluidSimulationParameters parameters, String solver) {
+        switch (solver) {
+            case "default" -> {
+            }
+            case "tuned" -> parameters.withSolverTolerance(1e-4).withMaxSolverIterations(30)
+                    .withPressureOverRelaxation(1.5).withPressureWarmStart(true).withNormalizedPressureStencil(true);
+            case "blocked" -> parameters.withSolverSweepsPerBlock(parameters.getMaxSolverIterations() + 1);
+            case "parallel" -> parameters.withSimulationBackend(SimulationBackends.PARALLEL);
+            case "parallel-blocked" -> parameters.withSimulationBackend(SimulationBackends.PARALLEL)
+                    .withSolverSweepsPerBlock(parameters.getMaxSolverIterations() + 1);
+            default -> throw new IllegalArgumentException("Unknown solver settings " + solver);
+        }
+        return parameters;
+    }
+
+    /**
+     * @return CSV row of a configuration from the results of its runs
+     */
+    private static String summarize(List<String[]> runs) {
+        String[] first = runs.get(0);
+        int size = Integer.parseInt(first[0]);
+        int steps = Integer.parseInt(first[4]);
+        long simulationTime = median(runs, 7);
+        double updatesPerSecond = simulationTime > 0 ? (double) size * size * size * steps / (simulationTime / 1e3) : 0;
+        return String.join(",", first[0], first[1], first[2], first[3], first[4]) + "," + runs.size() + ","
+                + median(runs, 5) + "," + min(runs, 5) + "," + median(runs, 6) + "," + simulationTime + ","
+                + min(runs, 7) + "," + median(runs, 8) + "," + max(runs, 9) + "," + max(runs, 10) + ","
+                + median(runs, 11) + "," + median(runs, 12) + "," + String.format("%.0f", updatesPerSecond);
+    }
+
+    private static long median(List<String[]> runs, int column) {
+        long[] values = runs.stream().mapToLong(run -> Long.parseLong(run[column])).sorted().toArray();
+        return (values[(values.length - 1) / 2] + values[values.length / 2]) / 2;
+    }
+
+    private static long min(List<String[]> runs, int column) {
+        return runs.stream().mapToLong(run -> Long.parseLong(run[column])).min().orElse(0);
+    }
+
+    private static long max(List<String[]> runs, int column) {
+        return runs.stream().mapToLong(run -> Long.parseLong(run[column])).max().orElse(0);
+    }
+
+    /**
+     * @return size, workers, threads, solver, steps, wall, generation, simulation and output time in milliseconds,
+     * peak heap and resident set in megabytes, GC time and count of a single run
+     */
+    private static String runConfiguration(int size, int workers, int threads, String solver, int steps) throws IOException {
+        Path output = Files.createTempFile("scaling_" + size + "_", ".raw");
+        FluidSimulationParameters parameters = applySolver(parametersForSize(size), solver)
+                .withNumOfSteps(steps)
+                .withNumOfWorkers(workers)
+                .withSlabApproximation(workers > 1)
+                .withEndFileName(output.toString());
+        long start = System.nanoTime();
+        long generationTime;
+        long simulationTime;
+        long outputTime;
+        if (workers > 1) {
+            // workers generate their own slabs and the coordinator streams them to the output file
+            SlabCoordinator coordinator = new SlabCoordinator(parameters);
+            List<Process> processes = new ArrayList<>();
+            try {
+                coordinator.simulate(processes);
+            } finally {
+                processes.forEach(Process::destroy);
+            }
+            generationTime = coordinator.getGenerationNanos();
+            simulationTime = coordinator.getSimulationNanos();
+            outputTime = coordinator.getOutputNanos();
+        } else {
+            VolumeState volumeState = new FluidGeneration(parameters).createVolume(parameters);
+            generationTime = System.nanoTime() - start;
+            FluidSimulation fluidSimulation = new FluidSimulation(volumeState,
+                    SimulationBackends.create(parameters.getSimulationBackend(), volumeState));
+            for (int i = 0; i < steps; i++)
+                fluidSimulation.simulateStep();
+            simulationTime = System.nanoTime() - start - generationTime;
+            ProgramUtils.writeDensitiesToFileAddAirAround(parameters, volumeState);
+            outputTime = System.nanoTime() - start - generationTime - simulationTime;
+            volumeState.release();
+        }
+        long wallTime = System.nanoTime() - start;
+        Files.deleteIfExists(output);
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peakHeap += pool.getPeakUsage().getUsed();
+        long gcTime = 0;
+        long gcCount = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcTime += Math.max(0, collector.getCollectionTime());
+            gcCount += Math.max(0, collector.getCollectionCount());
+        }
+        return size + "," + workers + "," + threads + "," + solver + "," + steps + "," + wallTime / 1000000 + ","
+                + generationTime / 1000000 + "," + simulationTime / 1000000 + "," + outputTime / 1000000 + ","
+                + peakHeap / (1024 * 1024) + "," + peakResidentMegabytes() + "," + gcTime + "," + gcCount;
+    }
+
+    /**
+     * @return peak resident set size of this process, or -1 where /proc is not available
+     */
+    private static long peakResidentMegabytes() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmHWM:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024;
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private static String runInOwnJvm(String size, String workers, String threads, String solver, String steps) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-XX:ActiveProcessorCount=" + threads,
+                "-cp", System.getProperty("java.class.path"), ScalingBenchmark.class.getName(),
+                "--run", size, workers, threads, solver, steps);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX))
+                    result = line.substring(RESULT_PREFIX.length());
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            ProgramUtils.displayMessageWithTimestamp("Error during benchmark run, exit code " + process.exitValue());
+            return null;
+        }
+        ProgramUtils.displayMessageWithTimestamp(result);
+        return result;
+    }
+
+    /**
+     * Reports configurations whose median wall time grew over baseline by more than the threshold.
+     *
+     * @return number of regressions
+     */
+    private static int compareWithBaseline(List<String> rows, String baselineFile, double threshold) throws IOException {
+        Map<String, Long> baseline = new HashMap<>();
+        List<String> lines = Files.readAllLines(Path.of(baselineFile));
+        if (lines.isEmpty())
+            return 0;
+        // wall time column is looked up by name, so older result files can be compared too
+        int baselineWallColumn = List.of(lines.get(0).split(",")).indexOf(WALL_TIME_COLUMN);
+        if (baselineWallColumn < 0)
+            throw new IllegalArgumentException("Baseline " + baselineFile + " has no " + WALL_TIME_COLUMN + " column");
+        for (String line : lines.subList(1, lines.size())) {
+            String[] columns = line.split(",");
+            baseline.put(configurationKey(columns), Long.parseLong(columns[baselineWallColumn]));
+        }
+        int wallColumn = List.of(HEADER.split(",")).indexOf(WALL_TIME_COLUMN);
+        int regressions = 0;
+        for (String row : rows) {
+            String[] columns = row.split(",");
+            Long baselineTime = baseline.get(configurationKey(columns));
+            if (baselineTime == null || baselineTime == 0)
+                continue;
+            double change = (double) Long.parseLong(columns[wallColumn]) / baselineTime - 1;
+            if (change > threshold) {
+                regressions++;
+                ProgramUtils.displayMessageWithTimestamp(String.format("REGRESSION %s: %d ms -> %s ms (+%.1f%%)",
+                        configurationKey(columns), baselineTime, columns[wallColumn], change * 100));
+            }
+        }
+        ProgramUtils.displayMessageWithTimestamp(regressions + " regressions over " + Math.round(threshold * 100) + "% threshold");
+        return regressions;
+    }
+
+    // size, workers, threads, solver and steps identify a configuration
+    private static String configurationKey(String[] columns) {
+        return String.join(",", columns[0], columns[1], columns[2], columns[3], columns[4]);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        options.put("sizes", "32,48,64,96");
+        options.put("workers", "1");
+        options.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        options.put("solvers", "default");
+        options.put("steps", "5");
+        options.put("repeat", "3");
+        options.put("out", "scaling.csv");
+        options.put("threshold", "0.1");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
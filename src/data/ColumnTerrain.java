@@ -0,0 +1,201 @@
+package data;
+
+import util.VolumeUtils;
+
+import java.util.Arrays;
+
+/**
+ * Compact terrain representation, storing a few boundary heights for every (x, y) column instead of a type for every voxel.
+ * Every column has the same structure from bottom to top: floor, object (only in columns under the cube), fluid and air.
+ * Air overrides all other materials, since it is determined by the surface height.
+ *
+ * Additionally, fluid voxels of every row along x axis are kept as spans [start, end), so loops can visit them directly.
+ */
+public class ColumnTerrain {
+
+    private final int size;
+    // first voxel above the floor
+    private final int floorEnd;
+    // first fluid voxel of every column (above floor and object)
+    private final int[] fluidStart;
+    // first air voxel of every column
+    private final int[] airStart;
+    // fluid spans of row (y, z) are spans[rowSpanOffsets[row]] to spans[rowSpanOffsets[row + 1]]
+    private int[] rowSpanOffsets;
+    private int[] spanStarts;
+    private int[] spanEnds;
+
+    public ColumnTerrain(int size, int floorEnd, int[] fluidStart, int[] airStart) {
+        this.size = size;
+        this.floorEnd = floorEnd;
+        this.fluidStart = fluidStart;
+        this.airStart = airStart;
+        buildSpans(null, null);
+    }
+
+    private ColumnTerrain(ColumnTerrain previous, int[] airStart, boolean[] changedRows) {
+        this.size = previous.size;
+        this.floorEnd = previous.floorEnd;
+        this.fluidStart = previous.fluidStart;
+        this.airStart = airStart;
+        buildSpans(previous, changedRows);
+    }
+
+    /**
+     * Creates terrain with surface moved in listed columns, this terrain stays as it is. Fluid spans are searched
+     * anew only in rows crossing a moved column between its old and new air start, other rows keep their spans.
+     *
+     * @param columns     indices of columns (VolumeUtils.indexIn2D) to move
+     * @param newAirStart first air voxel of every listed column
+     */
+    public ColumnTerrain withAirStarts(int[] columns, int[] newAirStart) {
+        int[] movedAirStart = this.airStart.clone();
+        boolean[] changedRows = new boolean[this.size * this.size];
+        for (int c = 0; c < columns.length; c++) {
+            int column = columns[c];
+            int y = column / this.size;
+            for (int z = Math.min(this.airStart[column], newAirStart[c]); z < Math.max(this.airStart[column], newAirStart[c]) && z < this.size; z++)
+                changedRows[VolumeUtils.indexIn2D(this.size, y, z)] = true;
+            movedAirStart[column] = newAirStart[c];
+        }
+        return new ColumnTerrain(this, movedAirStart, changedRows);
+    }
+
+    /**
+     * @return material of voxel on specified position
+     */
+    public VoxelType getType(int x, int y, int z) {
+        int column = VolumeUtils.indexIn2D(this.size, x, y);
+        if (z >= this.airStart[column])
+            return VoxelType.AIR;
+        if (z < this.floorEnd)
+            return VoxelType.FLOOR;
+        if (z < this.fluidStart[column])
+            return VoxelType.OBJECT;
+        return VoxelType.FLUID;
+    }
+
+    /**
+     * @return material of voxel on specified index of the volume (same indexing as VolumeUtils.indexIn3D)
+     */
+    public VoxelType getType(int index) {
+        int x = index % this.size;
+        int y = (index / this.size) % this.size;
+        int z = index / (this.size * this.size);
+        return getType(x, y, z);
+    }
+
+    /**
+     * @return true if voxel is inside the volume and is fluid
+     */
+    public boolean isFluid(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= this.size || y >= this.size || z >= this.size)
+            return false;
+        int column = VolumeUtils.indexIn2D(this.size, x, y);
+        return z >= this.fluidStart[column] && z < this.airStart[column];
+    }
+
+    /**
+     * @return full voxel type array, same as one created by TerrainGeneration
+     */
+    public VoxelType[] toArray() {
+        VoxelType[] terrain = new VoxelType[this.size * this.size * this.size];
+        for (int k = 0; k < this.size; k++)
+            for (int j = 0; j < this.size; j++)
+                for (int i = 0; i < this.size; i++)
+                    terrain[VolumeUtils.indexIn3D(this.size, i, j, k)] = getType(i, j, k);
+        return terrain;
+    }
+
+    // SPAN methods
+    /**
+     * @return index of first fluid span of row (y, z)
+     */
+    public int firstSpan(int y, int z) {
+        return this.rowSpanOffsets[VolumeUtils.indexIn2D(this.size, y, z)];
+    }
+
+    /**
+     * @return index after the last fluid span of row (y, z)
+     */
+    public int lastSpan(int y, int z) {
+        return this.rowSpanOffsets[VolumeUtils.indexIn2D(this.size, y, z) + 1];
+    }
+
+    public int spanStart(int span) {
+        return this.spanStarts[span];
+    }
+
+    public int spanEnd(int span) {
+        return this.spanEnds[span];
+    }
+
+    // GETTER methods
+    public int getSize() {
+        return size;
+    }
+
+    public int getFloorEnd() {
+        return floorEnd;
+    }
+
+    public int getFluidStart(int x, int y) {
+        return fluidStart[VolumeUtils.indexIn2D(this.size, x, y)];
+    }
+
+    public int getAirStart(int x, int y) {
+        return airStart[VolumeUtils.indexIn2D(this.size, x, y)];
+    }
+
+    // PRIVATE methods
+
+    /**
+     * @param previous    if not null, spans of rows which are not marked changed are copied from it
+     * @param changedRows rows (y, z), that need to be searched for spans, when there is previous terrain
+     */
+    private void buildSpans(ColumnTerrain previous, boolean[] changedRows) {
+        this.rowSpanOffsets = new int[this.size * this.size + 1];
+        int numOfSpans = 0;
+        int[] starts = new int[previous != null ? previous.spanStarts.length + this.size : this.size];
+        int[] ends = new int[starts.length];
+        for (int z = 0; z < this.size; z++) {
+            for (int y = 0; y < this.size; y++) {
+                int row = VolumeUtils.indexIn2D(this.size, y, z);
+                this.rowSpanOffsets[row] = numOfSpans;
+                if (previous != null && !changedRows[row]) {
+                    int from = previous.rowSpanOffsets[row];
+                    int count = previous.rowSpanOffsets[row + 1] - from;
+                    if (numOfSpans + count > starts.length) {
+                        starts = Arrays.copyOf(starts, Math.max(starts.length * 2, numOfSpans + count));
+                        ends = Arrays.copyOf(ends, starts.length);
+                    }
+                    System.arraycopy(previous.spanStarts, from, starts, numOfSpans, count);
+                    System.arraycopy(previous.spanEnds, from, ends, numOfSpans, count);
+                    numOfSpans += count;
+                    continue;
+                }
+                int x = 0;
+                while (x < this.size) {
+                    if (!isFluid(x, y, z)) {
+                        x++;
+                        continue;
+                    }
+                    int start = x;
+                    while (x < this.size && isFluid(x, y, z))
+                        x++;
+                    if (numOfSpans == starts.length) {
+                        starts = Arrays.copyOf(starts, starts.length * 2);
+                        ends = Arrays.copyOf(ends, ends.length * 2);
+                    }
+                    starts[numOfSpans] = start;
+                    ends[numOfSpans] = x;
+                    numOfSpans++;
+                }
+            }
+        }
+        this.rowSpanOffsets[this.size * this.size] = numOfSpans;
+        this.spanStarts = Arrays.copyOf(starts, numOfSpans);
+        this.spanEnds = Arrays.copyOf(ends, numOfSpans);
+    }
+
+}
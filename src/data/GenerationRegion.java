@@ -0,0 +1,74 @@
+package data;
+
+/**
+ * Box of voxels within the generated world, given by its lowest corner and extent along every axis in voxels. Voxels
+ * of the box are indexed as in VolumeUtils.indexIn3D, with x running fastest, but with separate extents per axis.
+ */
+public class GenerationRegion {
+
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+
+    public GenerationRegion(int originX, int originY, int originZ, int sizeX, int sizeY, int sizeZ) {
+        if (originX < 0 || originY < 0 || originZ < 0 || sizeX <= 0 || sizeY <= 0 || sizeZ <= 0)
+            throw new IllegalArgumentException("Region needs non-negative origin and positive extents");
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+    }
+
+    /**
+     * @return true if the whole region lies inside a world of size x size x size voxels
+     */
+    public boolean fitsInto(int size) {
+        return originX + sizeX <= size && originY + sizeY <= size && originZ + sizeZ <= size;
+    }
+
+    /**
+     * @return index of voxel on position relative to the origin
+     */
+    public int index(int x, int y, int z) {
+        return x + y * sizeX + z * sizeX * sizeY;
+    }
+
+    public int getNumOfVoxels() {
+        return sizeX * sizeY * sizeZ;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + originX + ", " + originY + ", " + originZ + "] + [" + sizeX + ", " + sizeY + ", " + sizeZ + "]";
+    }
+
+    // GETTER methods
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginY() {
+        return originY;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+}
@@ -1,6 +1,7 @@
 package data;
 
 import parameters.FluidSimulationParameters;
+import util.BufferPool;
 import util.VolumeUtils;
 
 public class VolumeState {
@@ -9,10 +10,16 @@ public class VolumeState {
     private final int n;
     // resulting size of volume for air around (size + 2)
     private final int N;
+    // number of slices along z axis held by this state (n, unless volume is split between processes) and
+    // index of the first of them in the whole volume; arrays hold one more slice below and above
+    private final int depth;
+    private final int zOffset;
     // timeStep
     private final double dt;
     private final double diffusionRate;
     private final double viscosityRate;
+    // density of fluid, which is not taken from neighbouring voxels
+    private final double densityBase;
     // density values (old - in previous step, new - in current step)
     private double[] newDensities;
     private double[] oldDensities;
@@ -24,26 +31,59 @@ public class VolumeState {
     private double[] oldVelocityX;
     private double[] oldVelocityY;
     private double[] oldVelocityZ;
-    // number of iterations for method resolution
-    private final int iter = 6;
-    // array containing, which material voxels possesses
-    private VoxelType[] terrain;
+    // maximum number of iterations for method resolution
+    private final int iter;
+    // largest change of voxel value in an iteration, below which resolution stops (0 to never stop early)
+    private final double tolerance;
+    // over-relaxation factor of pressure resolution
+    private final double overRelaxation;
+    // pressure sweeps divide by 6 instead of the original 4, see FluidSimulationParameters.withNormalizedPressureStencil
+    private final boolean normalizedPressureStencil;
+    // number of solver sweeps run together as a wavefront over z slices (1 to run them one by one)
+    private final int sweepsPerBlock;
+    // threads of a parallel solver backend (0 to use all processors)
+    private final int threads;
+    // pressure from previous projection, used as a starting point of the next one (null if not warm-starting)
+    private double[] pressure;
+    // min and max density of fluid voxels in oldDensities, gathered during the last step (null if not known)
+    private double[] densityMinMax;
+    // materials of voxels, stored per column
+    private ColumnTerrain terrain;
 
     public VolumeState(FluidSimulationParameters parameters) {
+        this(parameters, 0, parameters.getSize());
+    }
+
+    /**
+     * Creates state of only a part of the volume, slices from zOffset to zOffset + depth along z axis.
+     */
+    public VolumeState(FluidSimulationParameters parameters, int zOffset, int depth) {
         this.n = parameters.getSize();
         this.N = this.n + 2;
+        this.zOffset = zOffset;
+        this.depth = depth;
         this.dt = parameters.getTimeStep();
         this.diffusionRate = parameters.getDiffusionRate();
         this.viscosityRate = parameters.getViscosityRate();
+        this.densityBase = parameters.getDensityBase();
+        this.iter = parameters.getMaxSolverIterations();
+        this.tolerance = parameters.getSolverTolerance();
+        this.overRelaxation = parameters.getPressureOverRelaxation();
+        this.normalizedPressureStencil = parameters.isNormalizedPressureStencil();
+        this.sweepsPerBlock = Math.max(1, parameters.getSolverSweepsPerBlock());
+        this.threads = Math.max(0, parameters.getSimulationThreads());
 
-        this.newDensities = VolumeUtils.initializeArray3D(this.N);
-        this.oldDensities = VolumeUtils.initializeArray3D(this.N);
-        this.velocityX = VolumeUtils.initializeArray3D(this.N);
-        this.velocityY = VolumeUtils.initializeArray3D(this.N);
-        this.velocityZ = VolumeUtils.initializeArray3D(this.N);
-        this.oldVelocityX = VolumeUtils.initializeArray3D(this.N);
-        this.oldVelocityY = VolumeUtils.initializeArray3D(this.N);
-        this.oldVelocityZ = VolumeUtils.initializeArray3D(this.N);
+        // arrays hold size x size x (depth + 2) values and are borrowed from the pool, see release()
+        int length = this.N * this.N * (this.depth + 2);
+        this.newDensities = BufferPool.borrow(length);
+        this.oldDensities = BufferPool.borrow(length);
+        this.velocityX = BufferPool.borrow(length);
+        this.velocityY = BufferPool.borrow(length);
+        this.velocityZ = BufferPool.borrow(length);
+        this.oldVelocityX = BufferPool.borrow(length);
+        this.oldVelocityY = BufferPool.borrow(length);
+        this.oldVelocityZ = BufferPool.borrow(length);
+        this.pressure = parameters.isPressureWarmStart() ? BufferPool.borrow(length) : null;
     }
 
     public void setOldDensities(double[] densities) {
@@ -54,9 +94,14 @@ public class VolumeState {
                 }
             }
         }
+        this.densityMinMax = null;
+    }
+
+    public void setDensityMinMax(double[] densityMinMax) {
+        this.densityMinMax = densityMinMax;
     }
 
-    public void setTerrain(VoxelType[] terrain) {
+    public void setTerrain(ColumnTerrain terrain) {
         this.terrain = terrain;
     }
 
@@ -98,6 +143,26 @@ public class VolumeState {
         this.oldDensities = temp;
     }
 
+    /**
+     * Returns all field arrays to the buffer pool, to be reused by the next run. State must not be used afterwards.
+     */
+    public void release() {
+        BufferPool.release(this.newDensities);
+        BufferPool.release(this.oldDensities);
+        BufferPool.release(this.velocityX);
+        BufferPool.release(this.velocityY);
+        BufferPool.release(this.velocityZ);
+        BufferPool.release(this.oldVelocityX);
+        BufferPool.release(this.oldVelocityY);
+        BufferPool.release(this.oldVelocityZ);
+        BufferPool.release(this.pressure);
+        this.newDensities = this.oldDensities = null;
+        this.velocityX = this.velocityY = this.velocityZ = null;
+        this.oldVelocityX = this.oldVelocityY = this.oldVelocityZ = null;
+        this.pressure = null;
+        this.densityMinMax = null;
+    }
+
     // GETTER methods
     public int getN() {
         return n;
@@ -107,6 +172,33 @@ public class VolumeState {
         return N;
     }
 
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getZOffset() {
+        return zOffset;
+    }
+
+    /**
+     * @return true if state holds only a part of the volume
+     */
+    public boolean isSplit() {
+        return depth != n;
+    }
+
+    public boolean containsBottom() {
+        return zOffset == 0;
+    }
+
+    public boolean containsTop() {
+        return zOffset + depth == n;
+    }
+
+    public double getDensityBase() {
+        return densityBase;
+    }
+
     public double getDt() {
         return dt;
     }
@@ -155,7 +247,35 @@ public class VolumeState {
         return iter;
     }
 
-    public VoxelType[] getTerrain() {
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public double getOverRelaxation() {
+        return overRelaxation;
+    }
+
+    public boolean isNormalizedPressureStencil() {
+        return normalizedPressureStencil;
+    }
+
+    public int getSweepsPerBlock() {
+        return sweepsPerBlock;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public double[] getPressure() {
+        return pressure;
+    }
+
+    public double[] getDensityMinMax() {
+        return densityMinMax;
+    }
+
+    public ColumnTerrain getTerrain() {
         return terrain;
     }
 }
@@ -1,6 +1,6 @@
 package data;
 
-import noise.PerlinNoiseGeneration;
+import noise.PerlinCellEvaluator;
 
 public class Voxel {
 
@@ -15,23 +15,29 @@ public class Voxel {
         this.density = density;
     }
 
-    public void calculateVelocity(double displacement, PerlinNoiseGeneration p) {
-        Vector potential1 = p.perlin(this.x, this.y, this.z);
-        Vector potential2 = p.perlin(this.x + 36000, this.y + 36000, this.z + 36000);
-        Vector potential3 = p.perlin(this.x + 12497, this.y + 12497, this.z + 12497);
+    /**
+     * Calculates velocity as curl of a potential field of Perlin noise. Every one of 9 noise samples is taken with its
+     * own evaluator, so each of them keeps cached lattice cell between neighbouring voxels.
+     *
+     * @param evaluators 9 cell evaluators, created from the same PerlinNoiseGeneration
+     */
+    public void calculateVelocity(double displacement, PerlinCellEvaluator[] evaluators) {
+        Vector potential1 = evaluators[0].perlin(this.x, this.y, this.z);
+        Vector potential2 = evaluators[1].perlin(this.x + 36000, this.y + 36000, this.z + 36000);
+        Vector potential3 = evaluators[2].perlin(this.x + 12497, this.y + 12497, this.z + 12497);
 
         // calculate partial derivative
-        Vector potential3Offset2 = p.perlin(this.x + 12497, this.y + 12497 + displacement, this.z + 12497);
+        Vector potential3Offset2 = evaluators[3].perlin(this.x + 12497, this.y + 12497 + displacement, this.z + 12497);
         double p32 = (potential3Offset2.getY() - potential3.getY()) / displacement;
-        Vector potential2Offset3 = p.perlin(this.x + 36000, this.y + 36000, this.z + 36000 + displacement);
+        Vector potential2Offset3 = evaluators[4].perlin(this.x + 36000, this.y + 36000, this.z + 36000 + displacement);
         double p23 = (potential2Offset3.getZ() - potential2.getZ()) / displacement;
-        Vector potential1Offset3 = p.perlin(this.x, this.y, this.z + displacement);
+        Vector potential1Offset3 = evaluators[5].perlin(this.x, this.y, this.z + displacement);
         double p13 = (potential1Offset3.getZ() - potential1.getZ()) / displacement;
-        Vector potential3Offset1 = p.perlin(this.x + 12497 + displacement, this.y + 12497, this.z + 12497);
+        Vector potential3Offset1 = evaluators[6].perlin(this.x + 12497 + displacement, this.y + 12497, this.z + 12497);
         double p31 = (potential3Offset1.getX() - potential3.getX()) / displacement;
-        Vector potential2Offset1 = p.perlin(this.x + 36000 + displacement, this.y + 36000, this.z + 36000);
+        Vector potential2Offset1 = evaluators[7].perlin(this.x + 36000 + displacement, this.y + 36000, this.z + 36000);
         double p21 = (potential2Offset1.getX() - potential2.getX()) / displacement;
-        Vector potential1Offset2 = p.perlin(this.x, this.y + displacement, this.z);
+        Vector potential1Offset2 = evaluators[8].perlin(this.x, this.y + displacement, this.z);
         double p12 = (potential1Offset2.getY() - potential1.getY()) / displacement;
 
         // calculate final velocity field
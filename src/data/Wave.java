@@ -6,6 +6,12 @@ public class Wave {
     private int startY;
     private double amplitude;
     private double frequency;
+    // speed of wave crests away from the start, in voxels per unit of simulation time
+    private double phaseVelocity;
+    // distance from the start over which amplitude decreases e times (infinite for a wave which does not decay)
+    private double decayLength = Double.POSITIVE_INFINITY;
+    // decayed amplitude below which the wave is not added to columns (0 to add it everywhere)
+    private double cutoffAmplitude = 0;
 
     public Wave() {
     }
@@ -30,6 +36,29 @@ public class Wave {
         return this;
     }
 
+    public Wave withPhaseVelocity(double phaseVelocity) {
+        this.phaseVelocity = phaseVelocity;
+        return this;
+    }
+
+    /**
+     * @param decayLength distance in voxels over which amplitude decreases e times, so the wave adds
+     *                    amplitude * exp(-distance / decayLength) * sin(...) to a column
+     */
+    public Wave withDecayLength(double decayLength) {
+        this.decayLength = decayLength;
+        return this;
+    }
+
+    /**
+     * @param cutoffAmplitude columns where decayed amplitude is below this are skipped, which leaves a step of at most
+     *                        this height at the cutoff radius; a wave without decay is never cut off
+     */
+    public Wave withCutoffAmplitude(double cutoffAmplitude) {
+        this.cutoffAmplitude = cutoffAmplitude;
+        return this;
+    }
+
     public int getStartX() {
         return startX;
     }
@@ -46,4 +75,26 @@ public class Wave {
         return frequency;
     }
 
+    public double getPhaseVelocity() {
+        return phaseVelocity;
+    }
+
+    public double getDecayLength() {
+        return decayLength;
+    }
+
+    public double getCutoffAmplitude() {
+        return cutoffAmplitude;
+    }
+
+    /**
+     * @return distance from the start, at which decayed amplitude falls to the cutoff amplitude,
+     * decayLength * ln(|amplitude| / cutoffAmplitude), or infinity if the wave is not cut off
+     */
+    public double getCutoffRadius() {
+        if (decayLength == Double.POSITIVE_INFINITY || cutoffAmplitude <= 0)
+            return Double.POSITIVE_INFINITY;
+        return Math.max(0, decayLength * Math.log(Math.abs(amplitude) / cutoffAmplitude));
+    }
+
 }
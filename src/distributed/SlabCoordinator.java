@@ -0,0 +1,194 @@
+package distributed;
+
+import generation.SurfaceAnimation;
+import output.LodPyramidWriter;
+import parameters.FluidSimulationParameters;
+import util.ProgramUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Distributed simulation: volume is split into slabs along z axis, each slab is generated and simulated by its own
+ * worker process (SlabWorker) on the local machine. Neighbouring workers exchange one slice thick halo after every
+ * solver sweep, and before advection every worker gathers from all others the columns its back-traced positions reach,
+ * so advection writes the same values as in a single process. Coordinator hands out slabs, reports progress and
+ * streams final slabs, quantized by the workers to the density range of the whole volume, into the output file; it
+ * holds no more than one slab of output at a time.
+ *
+ * Because each worker sweeps its own slab, Gauss-Seidel solves use values of neighbouring slabs from the previous
+ * sweep, so results differ slightly from a single process simulation (see SolverVerification --workers). Parameters
+ * must accept that with withSlabApproximation.
+ */
+public class SlabCoordinator {
+
+    // how long to wait for workers to connect
+    private static final int CONNECT_TIMEOUT_MILLIS = 60000;
+
+    private final FluidSimulationParameters parameters;
+    // duration of stages of the last simulation
+    private long generationNanos;
+    private long simulationNanos;
+    private long outputNanos;
+
+    public SlabCoordinator(FluidSimulationParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Generates, simulates and saves the volume with worker processes, same as FluidDynamics does.
+     */
+    public void simulateAndSave() {
+        List<Process> workers = new ArrayList<>();
+        try {
+            if (SurfaceAnimation.isAnimated(parameters.getWaves()))
+                ProgramUtils.displayMessageWithTimestamp("Moving waves are not supported with workers, surface stays still");
+            simulate(workers);
+            ProgramUtils.displayMessageWithTimestamp("Volume prepared");
+        } catch (IOException e) {
+            ProgramUtils.displayMessageWithTimestamp("Error during distributed simulation: " + e.getMessage());
+        } finally {
+            workers.forEach(Process::destroy);
+        }
+    }
+
+    /**
+     * Generates and simulates all steps on worker processes and saves final densities to the output file.
+     */
+    public void simulate(List<Process> workers) throws IOException {
+        if (!parameters.isSlabApproximation())
+            throw new IllegalArgumentException("Simulation with workers differs from a single process, it needs withSlabApproximation");
+        long start = System.nanoTime();
+        int numOfWorkers = Math.min(parameters.getNumOfWorkers(), parameters.getSize());
+        try (ServerSocket server = new ServerSocket(0, numOfWorkers, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            ProgramUtils.displayMessageWithTimestamp("Starting " + numOfWorkers + " workers");
+            for (int rank = 0; rank < numOfWorkers; rank++)
+                workers.add(startWorker(server.getLocalPort()));
+            Socket[] sockets = new Socket[numOfWorkers];
+            DataInputStream[] in = new DataInputStream[numOfWorkers];
+            DataOutputStream[] out = new DataOutputStream[numOfWorkers];
+            for (int rank = 0; rank < numOfWorkers; rank++) {
+                sockets[rank] = server.accept();
+                in[rank] = new DataInputStream(new BufferedInputStream(sockets[rank].getInputStream()));
+                out[rank] = new DataOutputStream(new BufferedOutputStream(sockets[rank].getOutputStream()));
+            }
+            try {
+                // hand out slabs
+                int[] depths = new int[numOfWorkers];
+                int zOffset = 0;
+                for (int rank = 0; rank < numOfWorkers; rank++) {
+                    depths[rank] = parameters.getSize() / numOfWorkers + (rank < parameters.getSize() % numOfWorkers ? 1 : 0);
+                    out[rank].writeInt(rank);
+                    out[rank].writeInt(numOfWorkers);
+                    out[rank].writeInt(zOffset);
+                    out[rank].writeInt(depths[rank]);
+                    SlabProtocol.writeParameters(out[rank], parameters);
+                    out[rank].flush();
+                    zOffset += depths[rank];
+                }
+                // workers report where they listen once their slab is generated, then every worker is told, where
+                // the workers below it listen
+                ProgramUtils.displayMessageWithTimestamp("Creating volume");
+                int[] ports = new int[numOfWorkers];
+                for (int rank = 0; rank < numOfWorkers; rank++)
+                    ports[rank] = in[rank].readInt();
+                for (int rank = 0; rank < numOfWorkers; rank++) {
+                    SlabProtocol.writeInts(out[rank], ports);
+                    out[rank].flush();
+                }
+                generationNanos = System.nanoTime() - start;
+                // follow progress
+                for (int step = 0; step < parameters.getNumOfSteps(); step++) {
+                    for (int rank = 0; rank < numOfWorkers; rank++)
+                        in[rank].readInt();
+                    ProgramUtils.displayMessageWithTimestamp("Simulated step " + (step + 1) + " of " + parameters.getNumOfSteps());
+                }
+                simulationNanos = System.nanoTime() - start - generationNanos;
+                // density range of the whole volume, to which all slabs are quantized
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int rank = 0; rank < numOfWorkers; rank++) {
+                    min = Math.min(min, in[rank].readDouble());
+                    max = Math.max(max, in[rank].readDouble());
+                }
+                for (int rank = 0; rank < numOfWorkers; rank++) {
+                    out[rank].writeDouble(min);
+                    out[rank].writeDouble(max);
+                    out[rank].flush();
+                }
+                ProgramUtils.displayMessageWithTimestamp("Saving volume to file");
+                saveSlabs(in, depths);
+                outputNanos = System.nanoTime() - start - generationNanos - simulationNanos;
+            } finally {
+                for (Socket socket : sockets)
+                    socket.close();
+            }
+        }
+    }
+
+    // PRIVATE methods
+
+    private Process startWorker(int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), SlabWorker.class.getName(),
+                InetAddress.getLoopbackAddress().getHostAddress(), String.valueOf(port))
+                .inheritIO()
+                .start();
+    }
+
+    /**
+     * Writes quantized slabs in order of workers into the output file, with a slice of air below and above them, and
+     * hands them over to the pyramid as they come, so the volume is never kept in memory.
+     */
+    private void saveSlabs(DataInputStream[] in, int[] depths) throws IOException {
+        int sliceSize = (parameters.getSize() + 2) * (parameters.getSize() + 2);
+        byte[] air = new byte[sliceSize];
+        byte[] slab = new byte[sliceSize * depths[0]];
+        LodPyramidWriter pyramid = ProgramUtils.openLodPyramid(parameters, parameters.getSize() + 2);
+        try (OutputStream file = new BufferedOutputStream(new FileOutputStream(parameters.getEndFileName()))) {
+            file.write(air);
+            if (pyramid != null)
+                pyramid.writeSlices(air, 1);
+            for (int rank = 0; rank < in.length; rank++) {
+                in[rank].readFully(slab, 0, sliceSize * depths[rank]);
+                file.write(slab, 0, sliceSize * depths[rank]);
+                if (pyramid != null)
+                    pyramid.writeSlices(slab, depths[rank]);
+            }
+            file.write(air);
+            if (pyramid != null) {
+                pyramid.writeSlices(air, 1);
+                pyramid.finish();
+            }
+        } finally {
+            if (pyramid != null)
+                pyramid.close();
+        }
+    }
+
+    // GETTER methods
+    public long getGenerationNanos() {
+        return generationNanos;
+    }
+
+    public long getSimulationNanos() {
+        return simulationNanos;
+    }
+
+    public long getOutputNanos() {
+        return outputNanos;
+    }
+
+}
@@ -0,0 +1,136 @@
+package distributed;
+
+import data.Wave;
+import parameters.FluidSimulationParameters;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for sending parameters and arrays between coordinator and workers. Arrays are sent in blocks through a byte
+ * buffer, which is much faster than writing them one by one.
+ */
+final class SlabProtocol {
+
+    private static final int BLOCK_LENGTH = 8192;
+
+    private SlabProtocol() {
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values, int from, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, BLOCK_LENGTH) * Double.BYTES);
+        for (int start = from; start < from + length; start += BLOCK_LENGTH) {
+            int blockLength = Math.min(BLOCK_LENGTH, from + length - start);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(values, start, blockLength);
+            out.write(buffer.array(), 0, blockLength * Double.BYTES);
+        }
+    }
+
+    static void readDoubles(DataInputStream in, double[] values, int from, int length) throws IOException {
+        byte[] bytes = new byte[Math.min(length, BLOCK_LENGTH) * Double.BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int start = from; start < from + length; start += BLOCK_LENGTH) {
+            int blockLength = Math.min(BLOCK_LENGTH, from + length - start);
+            in.readFully(bytes, 0, blockLength * Double.BYTES);
+            buffer.clear();
+            buffer.asDoubleBuffer().get(values, start, blockLength);
+        }
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+    static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readInt();
+        return values;
+    }
+
+    /**
+     * Sends parameters, which a worker needs to generate and simulate its slab.
+     */
+    static void writeParameters(DataOutputStream out, FluidSimulationParameters parameters) throws IOException {
+        out.writeInt(parameters.getSize());
+        out.writeDouble(parameters.getHeightBase());
+        out.writeDouble(parameters.getHeightSpan());
+        out.writeDouble(parameters.getDensityBase());
+        out.writeDouble(parameters.getDensityRange());
+        out.writeDouble(parameters.getDimensionDiscretizationStep());
+        out.writeLong(parameters.getGenerationSeed());
+        out.writeDouble(parameters.getDensityFloor());
+        out.writeDouble(parameters.getHeightFloor());
+        out.writeDouble(parameters.getCubeSize());
+        out.writeDouble(parameters.getCubePositionX());
+        out.writeDouble(parameters.getCubePositionY());
+        out.writeInt(parameters.getWaves().size());
+        for (Wave wave : parameters.getWaves()) {
+            out.writeInt(wave.getStartX());
+            out.writeInt(wave.getStartY());
+            out.writeDouble(wave.getAmplitude());
+            out.writeDouble(wave.getFrequency());
+            out.writeDouble(wave.getPhaseVelocity());
+            out.writeDouble(wave.getDecayLength());
+            out.writeDouble(wave.getCutoffAmplitude());
+        }
+        out.writeDouble(parameters.getTimeStep());
+        out.writeDouble(parameters.getDiffusionRate());
+        out.writeDouble(parameters.getViscosityRate());
+        out.writeInt(parameters.getMaxSolverIterations());
+        out.writeDouble(parameters.getPressureOverRelaxation());
+        out.writeBoolean(parameters.isPressureWarmStart());
+        out.writeBoolean(parameters.isNormalizedPressureStencil());
+        out.writeUTF(parameters.getSimulationBackend());
+        out.writeInt(parameters.getSimulationThreads());
+        out.writeInt(parameters.getNumOfSteps());
+    }
+
+    static FluidSimulationParameters readParameters(DataInputStream in) throws IOException {
+        FluidSimulationParameters parameters = new FluidSimulationParameters()
+                .withSize(in.readInt())
+                .withHeightBase(in.readDouble())
+                .withHeightSpan(in.readDouble())
+                .withDensityBase(in.readDouble())
+                .withDensityRange(in.readDouble())
+                .withDimensionDiscretizationStep(in.readDouble())
+                .withGenerationSeed(in.readLong())
+                .withFloorDensity(in.readDouble())
+                .withFloorHeight(in.readDouble())
+                .withCubeSize(in.readDouble())
+                .withCubePositionX(in.readDouble())
+                .withCubePositionY(in.readDouble());
+        int numOfWaves = in.readInt();
+        List<Wave> waves = new ArrayList<>();
+        for (int i = 0; i < numOfWaves; i++) {
+            waves.add(new Wave()
+                    .withStartX(in.readInt())
+                    .withStartY(in.readInt())
+                    .withAmplitude(in.readDouble())
+                    .withFrequency(in.readDouble())
+                    .withPhaseVelocity(in.readDouble())
+                    .withDecayLength(in.readDouble())
+                    .withCutoffAmplitude(in.readDouble()));
+        }
+        return parameters
+                .withWaves(waves)
+                .withTimeStep(in.readDouble())
+                .withDiffusionRate(in.readDouble())
+                .withViscosityRate(in.readDouble())
+                .withMaxSolverIterations(in.readInt())
+                .withPressureOverRelaxation(in.readDouble())
+                .withPressureWarmStart(in.readBoolean())
+                .withNormalizedPressureStencil(in.readBoolean())
+                .withSimulationBackend(in.readUTF())
+                .withSimulationThreads(in.readInt())
+                .withNumOfSteps(in.readInt());
+    }
+
+}
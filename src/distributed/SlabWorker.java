@@ -0,0 +1,139 @@
+package distributed;
+
+import data.GenerationRegion;
+import data.Vector;
+import data.VolumeState;
+import generation.FluidGeneration;
+import generation.GeneratedRegion;
+import parameters.FluidSimulationParameters;
+import simulation.FluidSimulation;
+import simulation.SimulationBackends;
+import util.ProgramUtils;
+import util.VolumeUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Worker process of distributed simulation. Receives parameters and one z slab of the volume from SlabCoordinator,
+ * generates and simulates the slab while exchanging halo slices and columns read by advection with other workers, and
+ * sends its final densities back, quantized the same way as the output file.
+ *
+ * Run as: java distributed.SlabWorker [coordinator host] [coordinator port]
+ */
+public class SlabWorker {
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public SlabWorker(Socket coordinator) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+    }
+
+    public static void main(String[] args) {
+        try (Socket coordinator = new Socket(args[0], Integer.parseInt(args[1]))) {
+            new SlabWorker(coordinator).run();
+        } catch (IOException e) {
+            ProgramUtils.displayMessageWithTimestamp("Error in slab worker: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public void run() throws IOException {
+        // slab and simulation parameters
+        int rank = in.readInt();
+        int numOfWorkers = in.readInt();
+        int zOffset = in.readInt();
+        int depth = in.readInt();
+        FluidSimulationParameters parameters = SlabProtocol.readParameters(in)
+                // all workers must do the same number of iterations, so solves never stop early
+                .withSolverTolerance(0.0);
+
+        VolumeState volumeState = generateSlab(parameters, zOffset, depth);
+
+        // connect to every other worker - listen for the workers above, connect to the ones below, which are told
+        // the rank of the connecting worker
+        ServerSocket peerServer = rank < numOfWorkers - 1
+                ? new ServerSocket(0, numOfWorkers, InetAddress.getLoopbackAddress()) : null;
+        out.writeInt(peerServer == null ? -1 : peerServer.getLocalPort());
+        out.flush();
+        int[] ports = SlabProtocol.readInts(in);
+        Socket[] peers = new Socket[numOfWorkers];
+        for (int peer = 0; peer < rank; peer++) {
+            peers[peer] = new Socket(InetAddress.getLoopbackAddress(), ports[peer]);
+            new DataOutputStream(peers[peer].getOutputStream()).writeInt(rank);
+        }
+        if (peerServer != null) {
+            for (int accepted = rank + 1; accepted < numOfWorkers; accepted++) {
+                Socket peer = peerServer.accept();
+                peers[new DataInputStream(peer.getInputStream()).readInt()] = peer;
+            }
+            peerServer.close();
+        }
+
+        try (SocketHaloExchange haloExchange = new SocketHaloExchange(volumeState.getSize(), depth, zOffset, rank, peers)) {
+            FluidSimulation fluidSimulation = new FluidSimulation(volumeState,
+                    SimulationBackends.create(parameters.getSimulationBackend(), volumeState));
+            fluidSimulation.setHaloExchange(haloExchange);
+            for (int step = 0; step < parameters.getNumOfSteps(); step++) {
+                fluidSimulation.simulateStep();
+                out.writeInt(step);
+                out.flush();
+            }
+        }
+
+        // send range of final densities of the slab, then quantize its slices to the range of the whole volume
+        double[] minMax = ProgramUtils.densityRange(volumeState, parameters.getDensityFloor());
+        out.writeDouble(minMax[0]);
+        out.writeDouble(minMax[1]);
+        out.flush();
+        double[] volumeMinMax = {in.readDouble(), in.readDouble()};
+        int sliceSize = volumeState.getSize() * volumeState.getSize();
+        byte[] slab = new byte[sliceSize * depth];
+        for (int z = 1; z <= depth; z++)
+            ProgramUtils.quantizeSliceAddAirAround(volumeState, volumeMinMax, z, slab, sliceSize * (z - 1));
+        out.write(slab);
+        out.flush();
+        volumeState.release();
+    }
+
+    // PRIVATE methods
+
+    /**
+     * Generates terrain, densities and velocities of the slab and of the slices below and above it, the same as the
+     * same voxels of the whole generated volume.
+     */
+    private static VolumeState generateSlab(FluidSimulationParameters parameters, int zOffset, int depth) {
+        int size = parameters.getSize();
+        int fromZ = Math.max(0, zOffset - 1);
+        int toZ = Math.min(size, zOffset + depth + 1);
+        GeneratedRegion region = new FluidGeneration(parameters)
+                .generateRegion(new GenerationRegion(0, 0, fromZ, size, size, toZ - fromZ), parameters);
+        VolumeState volumeState = new VolumeState(parameters, zOffset, depth);
+        volumeState.setTerrain(region.toColumnTerrain(size));
+        double[] densities = region.getDensities();
+        Vector[] potentials = region.getPotentials();
+        for (int z = fromZ; z < toZ; z++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int source = region.getRegion().index(x, y, z - fromZ);
+                    // slice z of the volume is slice z - zOffset + 1 of the slab arrays
+                    int target = VolumeUtils.indexIn3D(volumeState.getSize(), x + 1, y + 1, z - zOffset + 1);
+                    volumeState.getOldDensities()[target] = densities[source];
+                    volumeState.getVelocityX()[target] = potentials[source].getX();
+                    volumeState.getVelocityY()[target] = potentials[source].getY();
+                    volumeState.getVelocityZ()[target] = potentials[source].getZ();
+                }
+            }
+        }
+        return volumeState;
+    }
+
+}
@@ -0,0 +1,190 @@
+package distributed;
+
+import simulation.HaloExchange;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exchanges boundary slices with the workers holding slabs directly below and above, and gathers columns of the whole
+ * field from all workers, over TCP sockets. Every worker is connected to every other one. Values are sent on
+ * a separate thread while the other workers' values are received, so no ordering between workers is needed.
+ */
+public class SocketHaloExchange implements HaloExchange, Closeable {
+
+    private final int sliceSize;
+    private final int depth;
+    private final int rank;
+    // slices of the whole field held by this worker, the bottom or top wall included if it is next to the slab
+    private final int firstZ;
+    private final int lastZ;
+    private final int zOffset;
+    private final Socket[] peers;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "halo-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param size    number of values in every slice along x and y axis (including boundary)
+     * @param depth   number of slices of the slab, without halo slices
+     * @param zOffset index of the first slice of the slab in the whole volume, without boundary
+     * @param peers   connection to every other worker, by rank (null at the rank of this worker)
+     */
+    public SocketHaloExchange(int size, int depth, int zOffset, int rank, Socket[] peers) throws IOException {
+        this.sliceSize = size * size;
+        this.depth = depth;
+        this.rank = rank;
+        this.zOffset = zOffset;
+        this.firstZ = rank == 0 ? 0 : zOffset + 1;
+        this.lastZ = rank == peers.length - 1 ? zOffset + depth + 1 : zOffset + depth;
+        this.peers = peers;
+        this.in = new DataInputStream[peers.length];
+        this.out = new DataOutputStream[peers.length];
+        for (int peer = 0; peer < peers.length; peer++) {
+            if (peers[peer] == null)
+                continue;
+            this.in[peer] = new DataInputStream(new BufferedInputStream(peers[peer].getInputStream()));
+            this.out[peer] = new DataOutputStream(new BufferedOutputStream(peers[peer].getOutputStream()));
+        }
+    }
+
+    @Override
+    public void exchange(double[] values) {
+        DataOutputStream lowerOut = rank > 0 ? out[rank - 1] : null;
+        DataOutputStream upperOut = rank < peers.length - 1 ? out[rank + 1] : null;
+        Future<?> sent = send(() -> {
+            if (lowerOut != null) {
+                SlabProtocol.writeDoubles(lowerOut, values, sliceSize, sliceSize);
+                lowerOut.flush();
+            }
+            if (upperOut != null) {
+                SlabProtocol.writeDoubles(upperOut, values, depth * sliceSize, sliceSize);
+                upperOut.flush();
+            }
+            return null;
+        });
+        receive(sent, () -> {
+            if (lowerOut != null)
+                SlabProtocol.readDoubles(in[rank - 1], values, 0, sliceSize);
+            if (upperOut != null)
+                SlabProtocol.readDoubles(in[rank + 1], values, (depth + 1) * sliceSize, sliceSize);
+            return null;
+        });
+    }
+
+    /**
+     * Workers first tell each other which columns they need, then send their own slices of columns the others need.
+     */
+    @Override
+    public void gatherColumns(double[] values, int size, int fromX, int toX, double[] columns) {
+        Future<?> sentRange = send(() -> {
+            for (DataOutputStream peerOut : out) {
+                if (peerOut == null)
+                    continue;
+                peerOut.writeInt(fromX);
+                peerOut.writeInt(toX);
+                peerOut.flush();
+            }
+            return null;
+        });
+        int[][] ranges = receive(sentRange, () -> {
+            int[][] peerRanges = new int[peers.length][];
+            for (int peer = 0; peer < peers.length; peer++)
+                if (in[peer] != null)
+                    peerRanges[peer] = new int[]{in[peer].readInt(), in[peer].readInt()};
+            return peerRanges;
+        });
+        Future<?> sentColumns = send(() -> {
+            for (int peer = 0; peer < peers.length; peer++) {
+                if (out[peer] == null)
+                    continue;
+                int width = ranges[peer][1] - ranges[peer][0] + 1;
+                double[] ownColumns = new double[(lastZ - firstZ + 1) * size * width];
+                copyColumns(values, size, ranges[peer][0], width, ownColumns, 0);
+                out[peer].writeInt(firstZ);
+                out[peer].writeInt(lastZ);
+                SlabProtocol.writeDoubles(out[peer], ownColumns, 0, ownColumns.length);
+                out[peer].flush();
+            }
+            return null;
+        });
+        int width = toX - fromX + 1;
+        copyColumns(values, size, fromX, width, columns, firstZ * size * width);
+        receive(sentColumns, () -> {
+            for (DataInputStream peerIn : in) {
+                if (peerIn == null)
+                    continue;
+                int peerFirstZ = peerIn.readInt();
+                int peerLastZ = peerIn.readInt();
+                // columns of whole slices are contiguous
+                SlabProtocol.readDoubles(peerIn, columns, peerFirstZ * size * width, (peerLastZ - peerFirstZ + 1) * size * width);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.sender.shutdownNow();
+        for (Socket peer : peers)
+            if (peer != null)
+                peer.close();
+    }
+
+    // PRIVATE methods
+
+    /**
+     * Copies columns of slices held by this worker, in the layout of gatherColumns, starting at the given index.
+     */
+    private void copyColumns(double[] values, int size, int fromX, int width, double[] columns, int from) {
+        int target = from;
+        for (int z = firstZ; z <= lastZ; z++) {
+            int slice = (z - zOffset) * sliceSize;
+            for (int y = 0; y < size; y++) {
+                System.arraycopy(values, slice + y * size + fromX, columns, target, width);
+                target += width;
+            }
+        }
+    }
+
+    private Future<?> send(Transfer<Void> sending) {
+        return this.sender.submit(sending::run);
+    }
+
+    /**
+     * Receives values while they are being sent, then waits until the sending is done.
+     */
+    private <T> T receive(Future<?> sent, Transfer<T> receiving) {
+        try {
+            T received = receiving.run();
+            sent.get();
+            return received;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Halo exchange failed", e);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException("Halo exchange failed", new IOException(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Halo exchange interrupted", e);
+        }
+    }
+
+    private interface Transfer<T> {
+        T run() throws IOException;
+    }
+
+}
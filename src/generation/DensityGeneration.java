@@ -1,11 +1,19 @@
 package generation;
 
+import data.ColumnTerrain;
+import data.GenerationRegion;
 import data.Voxel;
 import data.VoxelType;
+import noise.PerlinCellEvaluator;
 import noise.PerlinNoiseGeneration;
 import parameters.DensityGenerationParameters;
+import util.BufferPool;
+import util.ProgressEvent;
+import util.ProgressTracker;
 import util.VolumeUtils;
 
+import java.util.concurrent.CancellationException;
+
 public class DensityGeneration {
 
     private final DensityGenerationParameters parameters;
@@ -16,29 +24,97 @@ public class DensityGeneration {
 
     public double[] generateDensities() {
         int size = parameters.getSize();
-        PerlinNoiseGeneration png = new PerlinNoiseGeneration(parameters.getDensitySeed());
-        double[] densities = VolumeUtils.initializeArray3D(size);
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                for (int k = 0; k < size; k++) {
-                    VoxelType voxelType = parameters.getTerrain()[VolumeUtils.indexIn3D(size, k, j, i)];
-                    Voxel v = parameters.getData()[VolumeUtils.indexIn3D(size, k, j, i)];
-                    if (voxelType.equals(VoxelType.AIR))
-                        v.setDensity(1.0);
-                    else if (voxelType.equals(VoxelType.OBJECT) || voxelType.equals(VoxelType.FLOOR))
-                        v.setDensity(parameters.getFloorDensity());
-                    else {
-                        double perlinNoise = png.perlin(v.getX(), v.getY(), v.getZ(), false);
-                        double density = v.getDensity() + (perlinNoise * parameters.getDensityRange());
-                        density = VolumeUtils.round(density, 6);
-                        v.setDensity(density);
+        PerlinCellEvaluator evaluator = new PerlinNoiseGeneration(parameters.getDensitySeed()).cellEvaluator();
+        // borrowed from the pool, caller should release it when done
+        double[] densities = BufferPool.borrow(size * size * size);
+        // traverse volume lattice cell by lattice cell, so noise hashes are reused inside every cell
+        int[] runs = PerlinCellEvaluator.cellRuns(size, parameters.getDimensionStep());
+        ProgressTracker progress = new ProgressTracker(parameters.getProgressListener(), ProgressEvent.Stage.DENSITIES, runs.length - 1);
+        try {
+            for (int zRun = 0; zRun < runs.length - 1; zRun++) {
+                for (int yRun = 0; yRun < runs.length - 1; yRun++) {
+                    for (int xRun = 0; xRun < runs.length - 1; xRun++) {
+                        parameters.getCancellationToken().throwIfCancelled();
+                        for (int i = runs[zRun]; i < runs[zRun + 1]; i++) {
+                            for (int j = runs[yRun]; j < runs[yRun + 1]; j++) {
+                                for (int k = runs[xRun]; k < runs[xRun + 1]; k++) {
+                                    int index = VolumeUtils.indexIn3D(size, k, j, i);
+                                    densities[index] = calculateDensity(index, evaluator);
+                                }
+                            }
+                        }
                     }
-                    densities[VolumeUtils.indexIn3D(size, k, j, i)] = v.getDensity();
                 }
+                progress.done(zRun + 1);
             }
+        } catch (CancellationException e) {
+            BufferPool.release(densities);
+            throw e;
         }
         return densities;
     }
 
-}
+    /**
+     * Recalculates densities of listed voxels only, other densities are kept. Voxel data and terrain from parameters
+     * are not used.
+     *
+     * @param indices indices of voxels to recalculate
+     */
+    public void updateDensities(double[] densities, int[] indices, ColumnTerrain terrain) {
+        int size = parameters.getSize();
+        double step = parameters.getDimensionStep();
+        PerlinCellEvaluator evaluator = new PerlinNoiseGeneration(parameters.getDensitySeed()).cellEvaluator();
+        for (int index : indices) {
+            Voxel v = new Voxel((index % size) * step, ((index / size) % size) * step, (index / (size * size)) * step,
+                    parameters.getDensityBase());
+            densities[index] = calculateDensity(terrain.getType(index), v, evaluator);
+        }
+    }
+
+    /**
+     * Calculates densities of voxels of a region only, the same as they are in the whole volume. Voxel data and
+     * terrain from parameters are not used.
+     *
+     * @param terrain materials of region voxels, indexed as in the region
+     */
+    public double[] generateDensities(GenerationRegion region, VoxelType[] terrain) {
+        PerlinCellEvaluator evaluator = new PerlinNoiseGeneration(parameters.getDensitySeed()).cellEvaluator();
+        double[] densities = new double[region.getNumOfVoxels()];
+        double step = parameters.getDimensionStep();
+        ProgressTracker progress = new ProgressTracker(parameters.getProgressListener(), ProgressEvent.Stage.DENSITIES, region.getSizeZ());
+        for (int z = 0; z < region.getSizeZ(); z++) {
+            parameters.getCancellationToken().throwIfCancelled();
+            for (int y = 0; y < region.getSizeY(); y++) {
+                for (int x = 0; x < region.getSizeX(); x++) {
+                    Voxel v = new Voxel((region.getOriginX() + x) * step, (region.getOriginY() + y) * step,
+                            (region.getOriginZ() + z) * step, parameters.getDensityBase());
+                    int index = region.index(x, y, z);
+                    densities[index] = calculateDensity(terrain[index], v, evaluator);
+                }
+            }
+            progress.done(z + 1);
+        }
+        return densities;
+    }
+
+    // PRIVATE methods
+
+    private double calculateDensity(int index, PerlinCellEvaluator evaluator) {
+        return calculateDensity(parameters.getTerrain()[index], parameters.getData()[index], evaluator);
+    }
 
+    private double calculateDensity(VoxelType voxelType, Voxel v, PerlinCellEvaluator evaluator) {
+        if (voxelType.equals(VoxelType.AIR))
+            v.setDensity(1.0);
+        else if (voxelType.equals(VoxelType.OBJECT) || voxelType.equals(VoxelType.FLOOR))
+            v.setDensity(parameters.getFloorDensity());
+        else {
+            double perlinNoise = evaluator.perlin(v.getX(), v.getY(), v.getZ(), false);
+            double density = v.getDensity() + (perlinNoise * parameters.getDensityRange());
+            density = VolumeUtils.round(density, 6);
+            v.setDensity(density);
+        }
+        return v.getDensity();
+    }
+
+}
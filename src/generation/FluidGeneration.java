@@ -3,10 +3,19 @@ package generation;
 import data.*;
 import noise.CurlNoiseGeneration;
 import parameters.*;
+import util.BufferPool;
+import util.CancellationToken;
 import util.ProgramUtils;
+import util.ProgressEvent;
+import util.ProgressListener;
+import util.ProgressTracker;
 import util.VolumeUtils;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongFunction;
+import java.util.stream.IntStream;
 
 /**
  * Fluid generation algorithm with Perlin noise algorithm
@@ -26,6 +35,9 @@ public class FluidGeneration {
     private final double densitySpan;
     private final long generationSeed;
     private final double floorDensity;
+    // follows generation, and can stop it between z slabs
+    private ProgressListener progressListener = ProgressListener.NONE;
+    private CancellationToken cancellationToken = new CancellationToken();
 
     public FluidGeneration(FluidSimulationParameters parameters) {
         this.size = parameters.getSize();
@@ -43,32 +55,185 @@ public class FluidGeneration {
     }
 
     public VolumeState createVolume(FluidSimulationParameters parameters) {
-        VolumeState volumeState = new VolumeState(parameters);
+        GeneratedVolume generatedVolume = generate(parameters);
+        VolumeState volumeState = generatedVolume.toVolumeState(parameters);
+        generatedVolume.release();
+        return volumeState;
+    }
+
+    /**
+     * Generates surface, terrain, densities and potentials of the whole volume.
+     */
+    public GeneratedVolume generate(FluidSimulationParameters parameters) {
         // create voxels
         Voxel[] data = createVoxels();
         // create terrain
         ProgramUtils.displayMessageWithTimestamp("Calculating base terrain data");
-        TerrainParameters terrainParameters = new TerrainParameters()
+        TerrainGeneration terrainGeneration = new TerrainGeneration(createTerrainParameters());
+        // create surface and terrain with air above it
+        ProgramUtils.displayMessageWithTimestamp("Calculating surface");
+        double[] heights = calculateHeights(parameters.getWaves());
+        ColumnTerrain columnTerrain = terrainGeneration.createColumnTerrain(heights);
+        new ProgressTracker(this.progressListener, ProgressEvent.Stage.SURFACE, 1).done(1);
+        // full voxel type array is only needed during generation
+        VoxelType[] terrain = columnTerrain.toArray();
+        // create densities
+        ProgramUtils.displayMessageWithTimestamp("Calculating densities");
+        double[] densities = new DensityGeneration(createDensityParameters(terrain, data)).generateDensities();
+        // create potentials
+        ProgramUtils.displayMessageWithTimestamp("Calculating potentials");
+        Vector[] potentials;
+        try {
+            potentials = new CurlNoiseGeneration(createPotentialParameters(terrain, data, heights)).calculatePotentialField();
+        } catch (CancellationException e) {
+            BufferPool.release(densities);
+            throw e;
+        }
+        // done with volume creation, return accumulated volume
+        ProgramUtils.displayMessageWithTimestamp("Done with volume generation");
+        return new GeneratedVolume(heights, columnTerrain, densities, potentials);
+    }
+
+    /**
+     * Updates previously generated volume to the surface given by current waves. Only voxels which changed material get
+     * new densities, and only fluid voxels close enough to them for the distance search to reach them get new
+     * potentials, the rest of the previous volume is reused. All other parameters must be the same as in generation of
+     * the previous volume, and the result is the same as generate would give. Cancellation is possible only before
+     * previous volume starts to change.
+     *
+     * @return previous volume, updated in place
+     */
+    public GeneratedVolume regenerate(GeneratedVolume previous, FluidSimulationParameters parameters) {
+        ProgramUtils.displayMessageWithTimestamp("Calculating surface");
+        double[] heights = calculateHeights(parameters.getWaves());
+        ColumnTerrain columnTerrain = new TerrainGeneration(createTerrainParameters()).createColumnTerrain(heights);
+        new ProgressTracker(this.progressListener, ProgressEvent.Stage.SURFACE, 1).done(1);
+        ColumnTerrain previousTerrain = previous.getTerrain();
+        int[] changed = changedVoxels(previousTerrain, columnTerrain);
+        int[] nearChanged = voxelsNearChanged(previousTerrain, columnTerrain);
+        ProgramUtils.displayMessageWithTimestamp("Surface changed " + changed.length + " voxels, " + nearChanged.length + " potentials to update");
+        // previous volume is updated in place from here on, so it is the last point to stop
+        this.cancellationToken.throwIfCancelled();
+        ProgramUtils.displayMessageWithTimestamp("Calculating densities");
+        new DensityGeneration(createDensityParameters(null, null)).updateDensities(previous.getDensities(), changed, columnTerrain);
+        ProgramUtils.displayMessageWithTimestamp("Calculating potentials");
+        new CurlNoiseGeneration(createPotentialParameters(null, null, heights)).updatePotentialField(previous.getPotentials(), nearChanged, columnTerrain);
+        previous.setSurface(heights, columnTerrain);
+        ProgramUtils.displayMessageWithTimestamp("Done with volume regeneration");
+        return previous;
+    }
+
+    /**
+     * Generates a box of the world only, with terrain, heights, densities and potentials equal to the same voxels of
+     * the whole volume generated by generate. Regions of the same world line up exactly, and can be generated in any
+     * order or in parallel, as long as every thread uses its own listener or one that is thread-safe.
+     *
+     * Potentials depend on terrain up to max recursion distance around a voxel, so surface is calculated for columns
+     * around the region as well; columns further away are only visited by the distance search through the edge of
+     * the world, where the volume index wraps around to the next row, and are calculated one by one.
+     */
+    public GeneratedRegion generateRegion(GenerationRegion region, FluidSimulationParameters parameters) {
+        if (!region.fitsInto(this.size))
+            throw new IllegalArgumentException("Region " + region + " does not fit into volume of size " + this.size);
+        int reach = (int) new PotentialGenerationParameters().getMaxRecursionDistance();
+        if (this.size <= 2 * reach)
+            throw new IllegalArgumentException("Regions need volume of size over " + 2 * reach);
+        ProgramUtils.displayMessageWithTimestamp("Calculating surface of region " + region);
+        HeightCalculation heightCalculation = new HeightCalculation(createHeightParameters());
+        TerrainGeneration terrainGeneration = new TerrainGeneration(createTerrainParameters());
+        int floorEnd = terrainGeneration.floorEnd();
+        // columns of the region and up to reach around it
+        int fromX = Math.max(0, region.getOriginX() - reach);
+        int fromY = Math.max(0, region.getOriginY() - reach);
+        int toX = Math.min(this.size, region.getOriginX() + region.getSizeX() + reach);
+        int toY = Math.min(this.size, region.getOriginY() + region.getSizeY() + reach);
+        int width = toX - fromX;
+        double[] heightsAround = heightCalculation.calculateHeights(parameters.getWaves(), fromX, fromY, width, toY - fromY);
+        int[] fluidStartAround = new int[heightsAround.length];
+        int[] airStartAround = new int[heightsAround.length];
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                int column = (x - fromX) + (y - fromY) * width;
+                fluidStartAround[column] = terrainGeneration.fluidStart(x, y);
+                airStartAround[column] = terrainGeneration.firstAirVoxel(heightsAround[column]);
+            }
+        }
+        LongFunction<VoxelType> worldTerrain = index -> {
+            int x = (int) (index % this.size);
+            int y = (int) (index / this.size % this.size);
+            int z = (int) (index / ((long) this.size * this.size));
+            if (x >= fromX && x < toX && y >= fromY && y < toY) {
+                int column = (x - fromX) + (y - fromY) * width;
+                return GeneratedRegion.type(floorEnd, fluidStartAround[column], airStartAround[column], z);
+            }
+            return GeneratedRegion.type(floorEnd, terrainGeneration.fluidStart(x, y),
+                    terrainGeneration.firstAirVoxel(heightCalculation.calculateHeight(parameters.getWaves(), x, y)), z);
+        };
+        // columns of the region itself
+        double[] heights = new double[region.getSizeX() * region.getSizeY()];
+        int[] fluidStart = new int[heights.length];
+        int[] airStart = new int[heights.length];
+        for (int y = 0; y < region.getSizeY(); y++) {
+            for (int x = 0; x < region.getSizeX(); x++) {
+                int column = (region.getOriginX() + x - fromX) + (region.getOriginY() + y - fromY) * width;
+                heights[x + y * region.getSizeX()] = heightsAround[column];
+                fluidStart[x + y * region.getSizeX()] = fluidStartAround[column];
+                airStart[x + y * region.getSizeX()] = airStartAround[column];
+            }
+        }
+        new ProgressTracker(this.progressListener, ProgressEvent.Stage.SURFACE, 1).done(1);
+        GeneratedRegion surface = new GeneratedRegion(region, heights, floorEnd, fluidStart, airStart, null, null);
+        VoxelType[] terrain = surface.toArray();
+        ProgramUtils.displayMessageWithTimestamp("Calculating densities of region " + region);
+        double[] densities = new DensityGeneration(createDensityParameters(null, null)).generateDensities(region, terrain);
+        ProgramUtils.displayMessageWithTimestamp("Calculating potentials of region " + region);
+        Vector[] potentials = new CurlNoiseGeneration(createPotentialParameters(null, null, null)).calculatePotentialField(region, terrain, worldTerrain);
+        return new GeneratedRegion(region, heights, floorEnd, fluidStart, airStart, densities, potentials);
+    }
+
+    /**
+     * @return surface that moves generated terrain with waves during simulation, or null if all waves stand still
+     */
+    public SurfaceAnimation createSurfaceAnimation(FluidSimulationParameters parameters) {
+        if (!SurfaceAnimation.isAnimated(parameters.getWaves()))
+            return null;
+        return new SurfaceAnimation(parameters.getWaves(), new HeightCalculation(createHeightParameters()),
+                new TerrainGeneration(createTerrainParameters()), this.size);
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    // PRIVATE methods
+
+    private TerrainParameters createTerrainParameters() {
+        return new TerrainParameters()
                 .withSize(this.size)
                 .withDimensionStep(this.dimensionStep)
                 .withFloorHeight(this.floorHeight)
                 .withCubePositionX(this.cubePositionX)
                 .withCubePositionY(this.cubePositionY)
                 .withCubeSize(this.floorCubeSize);
-        TerrainGeneration terrainGeneration = new TerrainGeneration(terrainParameters);
-        VoxelType[] terrain = terrainGeneration.createBaseTerrainData();
-        // create surface and update terrain with air
-        ProgramUtils.displayMessageWithTimestamp("Calculating surface");
-        HeightGenerationParameters heightParameters = new HeightGenerationParameters()
+    }
+
+    private HeightGenerationParameters createHeightParameters() {
+        return new HeightGenerationParameters()
                 .withSize(this.size)
                 .withHeightBase(this.heightBase)
                 .withHeightDiff(this.heightDiff);
-        double[] heights = new HeightCalculation(heightParameters).addWavesAndCalculateHeights(parameters.getWaves());
-        terrain = terrainGeneration.updateVoxelTypesWithAir(terrain, heights);
-        volumeState.setTerrain(terrain);
-        // create densities
-        ProgramUtils.displayMessageWithTimestamp("Calculating densities");
-        DensityGenerationParameters densityGenerationParameters = new DensityGenerationParameters()
+    }
+
+    private double[] calculateHeights(List<Wave> waves) {
+        return new HeightCalculation(createHeightParameters()).addWavesAndCalculateHeights(waves);
+    }
+
+    private DensityGenerationParameters createDensityParameters(VoxelType[] terrain, Voxel[] data) {
+        return new DensityGenerationParameters()
                 .withSize(this.size)
                 .withDensityRange(this.densitySpan)
                 .withDensityBase(this.densityBase)
@@ -76,28 +241,87 @@ public class FluidGeneration {
                 .withDimensionStep(this.dimensionStep)
                 .withTerrain(terrain)
                 .withFloorDensity(this.floorDensity)
-                .withData(data);
-        double[] densities = new DensityGeneration(densityGenerationParameters).generateDensities();
-        volumeState.setOldDensities(densities);
-        // create potentials
-        ProgramUtils.displayMessageWithTimestamp("Calculating potentials");
-        PotentialGenerationParameters potentialGenerationParameters = new PotentialGenerationParameters()
+                .withData(data)
+                .withProgressListener(this.progressListener)
+                .withCancellationToken(this.cancellationToken);
+    }
+
+    private PotentialGenerationParameters createPotentialParameters(VoxelType[] terrain, Voxel[] data, double[] heights) {
+        return new PotentialGenerationParameters()
                 .withSize(this.size)
                 .withCurlSeed(this.generationSeed)
                 .withDimensionStep(this.dimensionStep)
                 .withTerrain(terrain)
                 .withData(data)
-                .withHeights(heights);
-        Vector[] potentials = new CurlNoiseGeneration(potentialGenerationParameters).calculatePotentialField();
-        volumeState.setPotentials(potentials);
-        // done with volume creation, return accumulated volume state
-        ProgramUtils.displayMessageWithTimestamp("Done with volume generation");
-        return volumeState;
+                .withHeights(heights)
+                .withProgressListener(this.progressListener)
+                .withCancellationToken(this.cancellationToken);
+    }
+
+    /**
+     * @return indices of voxels with different material in old and new terrain; only heights between old and new air
+     * start of every column are visited
+     */
+    private int[] changedVoxels(ColumnTerrain oldTerrain, ColumnTerrain newTerrain) {
+        IntStream.Builder changed = IntStream.builder();
+        for (int y = 0; y < this.size; y++) {
+            for (int x = 0; x < this.size; x++) {
+                int oldAirStart = oldTerrain.getAirStart(x, y);
+                int newAirStart = newTerrain.getAirStart(x, y);
+                for (int z = Math.min(oldAirStart, newAirStart); z < Math.max(oldAirStart, newAirStart); z++) {
+                    if (oldTerrain.getType(x, y, z) != newTerrain.getType(x, y, z))
+                        changed.add(VolumeUtils.indexIn3D(this.size, x, y, z));
+                }
+            }
+        }
+        return changed.build().toArray();
+    }
+
+    /**
+     * Distance to the nearest non-fluid voxel (VolumeUtils.calculateDistance) searches up to max recursion distance
+     * steps away, where a step changes volume index by 1, size or size * size, and crosses into the next row or slice at
+     * the edge of the volume. Every column gets the range of heights, which such steps reach from changed heights of
+     * any column, and voxels of the range which are fluid or changed material are returned.
+     */
+    private int[] voxelsNearChanged(ColumnTerrain oldTerrain, ColumnTerrain newTerrain) {
+        int reach = (int) new PotentialGenerationParameters().getMaxRecursionDistance();
+        int columns = this.size * this.size;
+        int[] nearFrom = new int[columns];
+        int[] nearTo = new int[columns];
+        Arrays.fill(nearFrom, this.size);
+        for (int column = 0; column < columns; column++) {
+            int oldAirStart = oldTerrain.getAirStart(column % this.size, column / this.size);
+            int newAirStart = newTerrain.getAirStart(column % this.size, column / this.size);
+            if (oldAirStart == newAirStart)
+                continue;
+            for (int dy = -reach; dy <= reach; dy++) {
+                for (int dx = -reach + Math.abs(dy); dx <= reach - Math.abs(dy); dx++) {
+                    int remaining = reach - Math.abs(dx) - Math.abs(dy);
+                    int offset = column + dx + dy * this.size;
+                    int shiftZ = Math.floorDiv(offset, columns);
+                    int near = Math.floorMod(offset, columns);
+                    nearFrom[near] = Math.max(0, Math.min(nearFrom[near], Math.min(oldAirStart, newAirStart) - remaining + shiftZ));
+                    nearTo[near] = Math.min(this.size, Math.max(nearTo[near], Math.max(oldAirStart, newAirStart) + remaining + shiftZ));
+                }
+            }
+        }
+        IntStream.Builder near = IntStream.builder();
+        for (int column = 0; column < columns; column++) {
+            int x = column % this.size;
+            int y = column / this.size;
+            for (int z = nearFrom[column]; z < nearTo[column]; z++) {
+                VoxelType type = newTerrain.getType(x, y, z);
+                if (type == VoxelType.FLUID || type != oldTerrain.getType(x, y, z))
+                    near.add(VolumeUtils.indexIn3D(this.size, x, y, z));
+            }
+        }
+        return near.build().toArray();
     }
 
     private Voxel[] createVoxels() {
         Voxel[] voxels = new Voxel[this.size * this.size * this.size];
         for (int i = 0; i < this.size; i++) {
+            this.cancellationToken.throwIfCancelled();
             for (int j = 0; j < this.size; j++) {
                 for (int k = 0; k < this.size; k++) {
                     voxels[VolumeUtils.indexIn3D(this.size, k, j, i)] = new Voxel(k * this.dimensionStep, j * this.dimensionStep, i * this.dimensionStep, this.densityBase);
@@ -0,0 +1,88 @@
+package generation;
+
+import data.ColumnTerrain;
+import data.GenerationRegion;
+import data.Vector;
+import data.VoxelType;
+
+/**
+ * Surface heights, terrain, densities and potentials of a region of the world, equal to the same voxels of the whole
+ * generated world. Heights are indexed by columns of the region, voxel arrays as in GenerationRegion.index; terrain is
+ * kept in column representation with column boundaries in world coordinates.
+ */
+public class GeneratedRegion {
+
+    private final GenerationRegion region;
+    private final double[] heights;
+    private final int floorEnd;
+    private final int[] fluidStart;
+    private final int[] airStart;
+    private final double[] densities;
+    private final Vector[] potentials;
+
+    GeneratedRegion(GenerationRegion region, double[] heights, int floorEnd, int[] fluidStart, int[] airStart, double[] densities, Vector[] potentials) {
+        this.region = region;
+        this.heights = heights;
+        this.floorEnd = floorEnd;
+        this.fluidStart = fluidStart;
+        this.airStart = airStart;
+        this.densities = densities;
+        this.potentials = potentials;
+    }
+
+    /**
+     * @return material of voxel on position relative to the origin of the region, same order of materials as in
+     * ColumnTerrain
+     */
+    public VoxelType getType(int x, int y, int z) {
+        return type(floorEnd, fluidStart[x + y * region.getSizeX()], airStart[x + y * region.getSizeX()], region.getOriginZ() + z);
+    }
+
+    /**
+     * @return materials of all voxels of the region, indexed as in the region
+     */
+    public VoxelType[] toArray() {
+        VoxelType[] terrain = new VoxelType[region.getNumOfVoxels()];
+        for (int z = 0; z < region.getSizeZ(); z++)
+            for (int y = 0; y < region.getSizeY(); y++)
+                for (int x = 0; x < region.getSizeX(); x++)
+                    terrain[region.index(x, y, z)] = getType(x, y, z);
+        return terrain;
+    }
+
+    /**
+     * @return terrain of all columns of the world, region must span whole world along x and y axis
+     */
+    public ColumnTerrain toColumnTerrain(int size) {
+        if (region.getSizeX() != size || region.getSizeY() != size)
+            throw new IllegalArgumentException("Region " + region + " does not span all columns of volume of size " + size);
+        return new ColumnTerrain(size, floorEnd, fluidStart, airStart);
+    }
+
+    static VoxelType type(int floorEnd, int fluidStart, int airStart, int z) {
+        if (z >= airStart)
+            return VoxelType.AIR;
+        if (z < floorEnd)
+            return VoxelType.FLOOR;
+        if (z < fluidStart)
+            return VoxelType.OBJECT;
+        return VoxelType.FLUID;
+    }
+
+    // GETTER methods
+    public GenerationRegion getRegion() {
+        return region;
+    }
+
+    public double[] getHeights() {
+        return heights;
+    }
+
+    public double[] getDensities() {
+        return densities;
+    }
+
+    public Vector[] getPotentials() {
+        return potentials;
+    }
+}
@@ -0,0 +1,68 @@
+package generation;
+
+import data.ColumnTerrain;
+import data.Vector;
+import data.VolumeState;
+import parameters.FluidSimulationParameters;
+import util.BufferPool;
+
+/**
+ * Result of volume generation before it is copied into a VolumeState: surface heights, terrain, densities and
+ * potentials of size x size x size voxels. Kept between runs so FluidGeneration.regenerate can update only the
+ * voxels affected by changed surface.
+ */
+public class GeneratedVolume {
+
+    private double[] heights;
+    private ColumnTerrain terrain;
+    private double[] densities;
+    private final Vector[] potentials;
+
+    GeneratedVolume(double[] heights, ColumnTerrain terrain, double[] densities, Vector[] potentials) {
+        this.heights = heights;
+        this.terrain = terrain;
+        this.densities = densities;
+        this.potentials = potentials;
+    }
+
+    /**
+     * @return new volume state, ready for simulation
+     */
+    public VolumeState toVolumeState(FluidSimulationParameters parameters) {
+        VolumeState volumeState = new VolumeState(parameters);
+        volumeState.setTerrain(this.terrain);
+        volumeState.setOldDensities(this.densities);
+        volumeState.setPotentials(this.potentials);
+        return volumeState;
+    }
+
+    /**
+     * Returns densities array to the buffer pool. Generated volume must not be used afterwards.
+     */
+    public void release() {
+        BufferPool.release(this.densities);
+        this.densities = null;
+    }
+
+    void setSurface(double[] heights, ColumnTerrain terrain) {
+        this.heights = heights;
+        this.terrain = terrain;
+    }
+
+    // GETTER methods
+    public double[] getHeights() {
+        return heights;
+    }
+
+    public ColumnTerrain getTerrain() {
+        return terrain;
+    }
+
+    public double[] getDensities() {
+        return densities;
+    }
+
+    public Vector[] getPotentials() {
+        return potentials;
+    }
+}
@@ -4,42 +4,180 @@ import parameters.HeightGenerationParameters;
 import data.Wave;
 import util.VolumeUtils;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
+/**
+ * Surface heights as a sum of circular waves. All waves are summed row by row, rows are split into tiles which are
+ * calculated in parallel. Every wave adds its contribution to a whole row at once, so values which are the same for
+ * the row are calculated once. A wave may decay with distance from its start; a decaying wave with cutoff amplitude
+ * visits only the part of a row within its cutoff radius, where its decayed amplitude is at least the cutoff one.
+ */
 public class HeightCalculation {
 
-    private HeightGenerationParameters parameters;
-    private double[] waves;
+    // rows of one parallel task
+    private static final int ROWS_PER_TILE = 16;
+
+    private final HeightGenerationParameters parameters;
 
     public HeightCalculation(HeightGenerationParameters parameters) {
         this.parameters = parameters;
-        this.waves = VolumeUtils.initializeArray2D(parameters.getSize());
     }
 
     public double[] addWavesAndCalculateHeights(List<Wave> waves) {
-        waves.forEach(this::addWave);
-        return generateHeight();
+        return calculateHeights(waves, 0, 0, parameters.getSize(), parameters.getSize(), 0);
+    }
+
+    /**
+     * Calculates heights of columns [originX, originX + sizeX) x [originY, originY + sizeY) only, the same as they are
+     * in the whole surface.
+     *
+     * @return sizeX x sizeY heights
+     */
+    public double[] calculateHeights(List<Wave> waves, int originX, int originY, int sizeX, int sizeY) {
+        return calculateHeights(waves, originX, originY, sizeX, sizeY, 0);
+    }
+
+    /**
+     * @return heights of the whole surface at given simulation time, with every wave moved by its phase velocity
+     */
+    public double[] calculateHeights(List<Wave> waves, double time) {
+        return calculateHeights(waves, 0, 0, parameters.getSize(), parameters.getSize(), time);
+    }
+
+    /**
+     * @return height of a single column, same as in the whole surface
+     */
+    public double calculateHeight(List<Wave> waves, int x, int y) {
+        return calculateHeight(waves, x, y, 0);
+    }
+
+    /**
+     * @return height of a single column at given simulation time, with every wave moved by its phase velocity
+     */
+    public double calculateHeight(List<Wave> waves, int x, int y, double time) {
+        double[] sum = new double[1];
+        for (Wave wave : waves)
+            addWaveToRow(wave, sum, 0, 1, x, y, time);
+        return toHeight(sum[0]);
     }
 
-    private void addWave(Wave wave) {
+    /**
+     * Recalculates heights of columns [fromX[y], toX[y]) of every row y of the whole surface at given simulation time,
+     * the same as calculateHeights does, in place; other columns of heights are left as they are.
+     */
+    public void updateHeights(List<Wave> waves, double time, int[] fromX, int[] toX, double[] heights) {
         int size = parameters.getSize();
-        double phaseShift = 0;
-        if (wave.getStartX() != 0)
-            phaseShift = (double) wave.getStartY() / wave.getStartX();
-        for (int i = 0; i < size; i++)
-            for (int j = 0; j < size; j++)
-                waves[VolumeUtils.indexIn2D(size, j, i)] += wave.getAmplitude() * Math.sin(wave.getFrequency() * Math.sqrt(Math.pow((double) j - wave.getStartX(), 2) + Math.pow((double) i - wave.getStartY(), 2)) + phaseShift);
+        int tiles = (size + ROWS_PER_TILE - 1) / ROWS_PER_TILE;
+        IntStream.range(0, tiles).parallel().forEach(tile -> {
+            for (int y = tile * ROWS_PER_TILE; y < Math.min(size, (tile + 1) * ROWS_PER_TILE); y++) {
+                if (fromX[y] >= toX[y])
+                    continue;
+                int rowStart = fromX[y] + y * size;
+                int length = toX[y] - fromX[y];
+                Arrays.fill(heights, rowStart, rowStart + length, 0);
+                for (Wave wave : waves)
+                    addWaveToRow(wave, heights, rowStart, length, fromX[y], y, time);
+                for (int i = rowStart; i < rowStart + length; i++)
+                    heights[i] = toHeight(heights[i]);
+            }
+        });
     }
 
-    private double[] generateHeight() {
+    /**
+     * Widens [fromX[y], toX[y]) of every row y of the whole surface to all columns, to which the wave adds anything.
+     */
+    public void addColumnsOfWave(Wave wave, int[] fromX, int[] toX) {
         int size = parameters.getSize();
-        double[] heights = VolumeUtils.initializeArray2D(size);
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                heights[VolumeUtils.indexIn2D(size, j, i)] = parameters.getHeightBase() + (VolumeUtils.boundValue(waves[VolumeUtils.indexIn2D(size, j, i)]) * parameters.getHeightDiff());
+        double cutoff = wave.getCutoffRadius();
+        for (int y = 0; y < size; y++) {
+            double dy = (double) y - wave.getStartY();
+            if (Math.abs(dy) >= cutoff)
+                continue;
+            int from = 0;
+            int to = size;
+            if (cutoff != Double.POSITIVE_INFINITY) {
+                double halfChord = Math.sqrt(cutoff * cutoff - dy * dy);
+                from = Math.max(0, chordStart(wave.getStartX(), halfChord));
+                to = Math.min(size, chordEnd(wave.getStartX(), halfChord));
             }
+            fromX[y] = Math.min(fromX[y], from);
+            toX[y] = Math.max(toX[y], to);
         }
+    }
+
+    // PRIVATE methods
+
+    private double[] calculateHeights(List<Wave> waves, int originX, int originY, int sizeX, int sizeY, double time) {
+        double[] heights = new double[sizeX * sizeY];
+        int tiles = (sizeY + ROWS_PER_TILE - 1) / ROWS_PER_TILE;
+        IntStream.range(0, tiles).parallel().forEach(tile -> {
+            double[] row = new double[sizeX];
+            for (int y = tile * ROWS_PER_TILE; y < Math.min(sizeY, (tile + 1) * ROWS_PER_TILE); y++) {
+                // waves are summed in the same order for every column
+                Arrays.fill(row, 0);
+                for (Wave wave : waves)
+                    addWaveToRow(wave, row, 0, sizeX, originX, originY + y, time);
+                for (int x = 0; x < sizeX; x++)
+                    heights[x + y * sizeX] = toHeight(row[x]);
+            }
+        });
         return heights;
     }
 
+    /**
+     * Adds wave to columns originX, originX + 1, ... originX + length - 1 of row y, kept in row from offset on.
+     * At time 0 crests are where they have always been.
+     */
+    private static void addWaveToRow(Wave wave, double[] row, int offset, int length, int originX, int y, double time) {
+        double phaseShift = 0;
+        if (wave.getStartX() != 0)
+            phaseShift = (double) wave.getStartY() / wave.getStartX();
+        double dy = (double) y - wave.getStartY();
+        double dy2 = dy * dy;
+        double shift = wave.getPhaseVelocity() * time;
+        double amplitude = wave.getAmplitude();
+        double frequency = wave.getFrequency();
+        double startX = wave.getStartX();
+        double decayLength = wave.getDecayLength();
+        if (decayLength == Double.POSITIVE_INFINITY) {
+            for (int x = 0; x < length; x++) {
+                double dx = (double) (originX + x) - startX;
+                row[offset + x] += amplitude * Math.sin(frequency * (Math.sqrt(dx * dx + dy2) - shift) + phaseShift);
+            }
+            return;
+        }
+        int fromX = 0;
+        int toX = length;
+        double cutoff = wave.getCutoffRadius();
+        if (cutoff != Double.POSITIVE_INFINITY) {
+            if (Math.abs(dy) >= cutoff)
+                return;
+            // part of the row within the cutoff radius, widened by a column against rounding
+            double halfChord = Math.sqrt(cutoff * cutoff - dy2);
+            fromX = Math.max(0, chordStart(startX, halfChord) - originX);
+            toX = Math.min(length, chordEnd(startX, halfChord) - originX);
+        }
+        for (int x = fromX; x < toX; x++) {
+            double dx = (double) (originX + x) - startX;
+            double distance = Math.sqrt(dx * dx + dy2);
+            if (distance < cutoff)
+                row[offset + x] += amplitude * Math.exp(-distance / decayLength) * Math.sin(frequency * (distance - shift) + phaseShift);
+        }
+    }
+
+    // first and past the last column of a chord of the cutoff circle, widened by a column against rounding
+    private static int chordStart(double startX, double halfChord) {
+        return (int) Math.floor(startX - halfChord) - 1;
+    }
+
+    private static int chordEnd(double startX, double halfChord) {
+        return (int) Math.ceil(startX + halfChord) + 2;
+    }
+
+    private double toHeight(double waves) {
+        return parameters.getHeightBase() + (VolumeUtils.boundValue(waves) * parameters.getHeightDiff());
+    }
+
 }
@@ -0,0 +1,86 @@
+package generation;
+
+import data.ColumnTerrain;
+import data.Wave;
+import util.VolumeUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Surface of waves travelling with their phase velocity. Every step recalculates heights only of columns, to which
+ * a moving wave adds anything (all of them, unless moving waves are cut off), in one parallel pass into a reused buffer;
+ * other columns keep their heights. Terrain changes only in columns whose surface crossed a voxel boundary.
+ */
+public class SurfaceAnimation {
+
+    private final List<Wave> waves;
+    private final HeightCalculation heightCalculation;
+    private final TerrainGeneration terrainGeneration;
+    private final int size;
+    // columns [fromX[y], toX[y]) of every row y, whose heights moving waves change
+    private final int[] fromX;
+    private final int[] toX;
+    // heights of those columns at the current time, and columns whose first air voxel moved in the last step
+    private final double[] heights;
+    private final int[] changedColumns;
+    private final int[] changedAirStarts;
+    private double time;
+
+    SurfaceAnimation(List<Wave> waves, HeightCalculation heightCalculation, TerrainGeneration terrainGeneration, int size) {
+        this.waves = waves;
+        this.heightCalculation = heightCalculation;
+        this.terrainGeneration = terrainGeneration;
+        this.size = size;
+        this.fromX = new int[size];
+        this.toX = new int[size];
+        Arrays.fill(this.fromX, size);
+        for (Wave wave : waves) {
+            if (wave.getPhaseVelocity() != 0)
+                heightCalculation.addColumnsOfWave(wave, this.fromX, this.toX);
+        }
+        int numOfColumns = 0;
+        for (int y = 0; y < size; y++)
+            numOfColumns += Math.max(0, this.toX[y] - this.fromX[y]);
+        this.heights = new double[size * size];
+        this.changedColumns = new int[numOfColumns];
+        this.changedAirStarts = new int[numOfColumns];
+    }
+
+    /**
+     * @return true if any of the waves moves
+     */
+    public static boolean isAnimated(List<Wave> waves) {
+        return waves.stream().anyMatch(wave -> wave.getPhaseVelocity() != 0);
+    }
+
+    /**
+     * Moves time forward by dt.
+     *
+     * @return terrain with surface at the new time, or given terrain if no column changed its first air voxel
+     */
+    public ColumnTerrain advance(ColumnTerrain terrain, double dt) {
+        this.time += dt;
+        heightCalculation.updateHeights(waves, this.time, this.fromX, this.toX, this.heights);
+        int changed = 0;
+        for (int y = 0; y < this.size; y++) {
+            for (int x = this.fromX[y]; x < this.toX[y]; x++) {
+                int column = VolumeUtils.indexIn2D(this.size, x, y);
+                int airStart = terrainGeneration.firstAirVoxel(this.heights[column]);
+                if (airStart != terrain.getAirStart(x, y)) {
+                    changedColumns[changed] = column;
+                    changedAirStarts[changed] = airStart;
+                    changed++;
+                }
+            }
+        }
+        if (changed == 0)
+            return terrain;
+        return terrain.withAirStarts(Arrays.copyOf(changedColumns, changed), Arrays.copyOf(changedAirStarts, changed));
+    }
+
+    // GETTER methods
+    public double getTime() {
+        return time;
+    }
+}
@@ -1,5 +1,6 @@
 package generation;
 
+import data.ColumnTerrain;
 import data.VoxelType;
 import parameters.TerrainParameters;
 import util.VolumeUtils;
@@ -45,6 +46,57 @@ public class TerrainGeneration {
         return voxelTypes;
     }
 
+    /**
+     * Creates terrain in column representation. Materials are the same as in createBaseTerrainData followed by
+     * updateVoxelTypesWithAir, but only boundary heights of every column are stored.
+     */
+    public ColumnTerrain createColumnTerrain(double[] heights) {
+        int size = parameters.getSize();
+        int[] fluidStart = new int[size * size];
+        int[] airStart = new int[size * size];
+        for (int j = 0; j < size; j++) {
+            for (int i = 0; i < size; i++) {
+                fluidStart[VolumeUtils.indexIn2D(size, i, j)] = fluidStart(i, j);
+                airStart[VolumeUtils.indexIn2D(size, i, j)] = firstAirVoxel(heights[VolumeUtils.indexIn2D(size, i, j)]);
+            }
+        }
+        return new ColumnTerrain(size, floorEnd(), fluidStart, airStart);
+    }
+
+    /**
+     * @return first voxel above the floor, same in every column
+     */
+    public int floorEnd() {
+        int size = parameters.getSize();
+        int floorEnd = 0;
+        while (floorEnd < size && floorEnd < parameters.getFloorHeight() / parameters.getDimensionStep())
+            floorEnd++;
+        return floorEnd;
+    }
+
+    /**
+     * @return first fluid voxel of column (x, y), above floor and object
+     */
+    public int fluidStart(int x, int y) {
+        int floorEnd = floorEnd();
+        if (!cube(x, y, floorEnd))
+            return floorEnd;
+        return Math.max(floorEnd, Math.min(parameters.getSize(), transform(parameters.getFloorCubeSize() + parameters.getFloorHeight(), parameters.getDimensionStep())));
+    }
+
+    /**
+     * @return lowest voxel in column, which lies above specified surface height (size if there is none)
+     */
+    public int firstAirVoxel(double height) {
+        int size = parameters.getSize();
+        int k = Math.max(0, Math.min(size, (int) (height / parameters.getDimensionStep())));
+        while (k > 0 && (k - 1) * parameters.getDimensionStep() > height)
+            k--;
+        while (k < size && !(k * parameters.getDimensionStep() > height))
+            k++;
+        return k;
+    }
+
     // PRIVATE methods
 
     private boolean cube(int positionX, int positionY, int positionZ) {
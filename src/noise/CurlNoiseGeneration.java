@@ -1,11 +1,17 @@
 package noise;
 
+import data.ColumnTerrain;
+import data.GenerationRegion;
 import data.Vector;
 import data.Voxel;
 import data.VoxelType;
 import parameters.PotentialGenerationParameters;
+import util.ProgressEvent;
+import util.ProgressTracker;
 import util.VolumeUtils;
 
+import java.util.function.LongFunction;
+
 public class CurlNoiseGeneration {
 
     private final PotentialGenerationParameters parameters;
@@ -17,26 +23,121 @@ public class CurlNoiseGeneration {
     public Vector[] calculatePotentialField() {
         int size = parameters.getSize();
         Vector[] vectors = new Vector[size * size * size];
-        PerlinNoiseGeneration png = new PerlinNoiseGeneration(parameters.getCurlSeed());
-        for (int i = 0; i < size; i++) {
-            System.out.println(i);
-            for (int j = 0; j < size; j++) {
-                for (int k = 0; k < size; k++) {
-                    Voxel v = parameters.getData()[VolumeUtils.indexIn3D(size, k, j, i)];
-                    if (!parameters.getTerrain()[VolumeUtils.indexIn3D(size, k, j, i)].equals(VoxelType.FLUID)) {
-                        v.setVelocity(new Vector(0, 0, 0));
-                    } else {
-                        v.calculateVelocity(parameters.getDisplacement(), png);
-                        double distanceToNearestNonFluidVoxelWeighted = VolumeUtils.calculateDistance(0, parameters.getTerrain(), new boolean[size * size * size], size, k, j, i, parameters.getMaxRecursionDistance()) / parameters.getMaxRecursionDistance();
-                        v.setVelocity(v.getVelocity().setToSpecificLengthBasedOnSmoothFactor(distanceToNearestNonFluidVoxelWeighted));
+        PerlinCellEvaluator[] evaluators = createEvaluators();
+        // traverse volume lattice cell by lattice cell
+        int[] runs = PerlinCellEvaluator.cellRuns(size, parameters.getDimensionStep());
+        ProgressTracker progress = new ProgressTracker(parameters.getProgressListener(), ProgressEvent.Stage.POTENTIALS, runs.length - 1);
+        for (int zRun = 0; zRun < runs.length - 1; zRun++) {
+            for (int yRun = 0; yRun < runs.length - 1; yRun++) {
+                for (int xRun = 0; xRun < runs.length - 1; xRun++) {
+                    parameters.getCancellationToken().throwIfCancelled();
+                    for (int i = runs[zRun]; i < runs[zRun + 1]; i++) {
+                        for (int j = runs[yRun]; j < runs[yRun + 1]; j++) {
+                            for (int k = runs[xRun]; k < runs[xRun + 1]; k++) {
+                                vectors[VolumeUtils.indexIn3D(size, k, j, i)] = calculatePotential(k, j, i, evaluators);
+                            }
+                        }
                     }
-                    if (Double.isNaN(v.getVelocity().getX()) || Double.isNaN(v.getVelocity().getY()) || Double.isNaN(v.getVelocity().getZ()))
-                        System.out.println();
-                    vectors[VolumeUtils.indexIn3D(size, k, j, i)] = v.getVelocity();
                 }
             }
+            progress.done(zRun + 1);
         }
         return vectors;
     }
-}
 
+    /**
+     * Recalculates potentials of listed voxels only, other potentials are kept. Voxel data and terrain from parameters
+     * are not used.
+     *
+     * @param indices indices of voxels to recalculate
+     */
+    public void updatePotentialField(Vector[] vectors, int[] indices, ColumnTerrain terrain) {
+        int size = parameters.getSize();
+        double step = parameters.getDimensionStep();
+        PerlinCellEvaluator[] evaluators = createEvaluators();
+        for (int index : indices) {
+            int k = index % size;
+            int j = (index / size) % size;
+            int i = index / (size * size);
+            Voxel v = new Voxel(k * step, j * step, i * step, 0.0);
+            if (!terrain.getType(index).equals(VoxelType.FLUID))
+                v.setVelocity(new Vector(0, 0, 0));
+            else
+                setFluidPotential(v, VolumeUtils.calculateDistance(voxel -> terrain.getType((int) voxel), size, index,
+                        parameters.getMaxRecursionDistance()), evaluators);
+            vectors[index] = v.getVelocity();
+        }
+    }
+
+    /**
+     * Calculates potentials of voxels of a region only, the same as they are in the whole volume. Distance to the
+     * nearest non-fluid voxel is searched over terrain of the whole volume, which is looked up by index, so voxels
+     * around the region are visited as well. Voxel data and terrain from parameters are not used.
+     *
+     * @param terrain      materials of region voxels, indexed as in the region
+     * @param worldTerrain material of any voxel of the volume, by its index in the volume
+     */
+    public Vector[] calculatePotentialField(GenerationRegion region, VoxelType[] terrain, LongFunction<VoxelType> worldTerrain) {
+        int size = parameters.getSize();
+        double step = parameters.getDimensionStep();
+        Vector[] vectors = new Vector[region.getNumOfVoxels()];
+        PerlinCellEvaluator[] evaluators = createEvaluators();
+        ProgressTracker progress = new ProgressTracker(parameters.getProgressListener(), ProgressEvent.Stage.POTENTIALS, region.getSizeZ());
+        for (int z = 0; z < region.getSizeZ(); z++) {
+            parameters.getCancellationToken().throwIfCancelled();
+            int i = region.getOriginZ() + z;
+            for (int y = 0; y < region.getSizeY(); y++) {
+                int j = region.getOriginY() + y;
+                for (int x = 0; x < region.getSizeX(); x++) {
+                    int k = region.getOriginX() + x;
+                    int index = region.index(x, y, z);
+                    Voxel v = new Voxel(k * step, j * step, i * step, 0.0);
+                    if (!terrain[index].equals(VoxelType.FLUID))
+                        v.setVelocity(new Vector(0, 0, 0));
+                    else
+                        setFluidPotential(v, VolumeUtils.calculateDistance(worldTerrain, size, k + (long) j * size + (long) i * size * size,
+                                parameters.getMaxRecursionDistance()), evaluators);
+                    vectors[index] = v.getVelocity();
+                }
+            }
+            progress.done(z + 1);
+        }
+        return vectors;
+    }
+
+    // PRIVATE methods
+
+    private Vector calculatePotential(int k, int j, int i, PerlinCellEvaluator[] evaluators) {
+        return calculatePotential(parameters.getData()[VolumeUtils.indexIn3D(parameters.getSize(), k, j, i)], k, j, i, evaluators);
+    }
+
+    private Vector calculatePotential(Voxel v, int k, int j, int i, PerlinCellEvaluator[] evaluators) {
+        int size = parameters.getSize();
+        if (!parameters.getTerrain()[VolumeUtils.indexIn3D(size, k, j, i)].equals(VoxelType.FLUID)) {
+            v.setVelocity(new Vector(0, 0, 0));
+        } else {
+            VoxelType[] terrain = parameters.getTerrain();
+            setFluidPotential(v, VolumeUtils.calculateDistance(index -> terrain[(int) index], size,
+                    VolumeUtils.indexIn3D(size, k, j, i), parameters.getMaxRecursionDistance()), evaluators);
+        }
+        if (Double.isNaN(v.getVelocity().getX()) || Double.isNaN(v.getVelocity().getY()) || Double.isNaN(v.getVelocity().getZ()))
+            System.out.println();
+        return v.getVelocity();
+    }
+
+    // curl noise of a fluid voxel, shortened near non-fluid voxels
+    private void setFluidPotential(Voxel v, double distanceToNearestNonFluidVoxel, PerlinCellEvaluator[] evaluators) {
+        v.calculateVelocity(parameters.getDisplacement(), evaluators);
+        double distanceToNearestNonFluidVoxelWeighted = distanceToNearestNonFluidVoxel / parameters.getMaxRecursionDistance();
+        v.setVelocity(v.getVelocity().setToSpecificLengthBasedOnSmoothFactor(distanceToNearestNonFluidVoxelWeighted));
+    }
+
+    private PerlinCellEvaluator[] createEvaluators() {
+        PerlinNoiseGeneration png = new PerlinNoiseGeneration(parameters.getCurlSeed());
+        // every noise sample of curl gets its own evaluator, so each keeps its lattice cell between voxels
+        PerlinCellEvaluator[] evaluators = new PerlinCellEvaluator[9];
+        for (int e = 0; e < evaluators.length; e++)
+            evaluators[e] = png.cellEvaluator();
+        return evaluators;
+    }
+}
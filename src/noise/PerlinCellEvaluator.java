@@ -0,0 +1,133 @@
+package noise;
+
+import data.Vector;
+import util.VolumeUtils;
+
+/**
+ * Cell-coherent evaluation of Perlin noise.
+ * With small discretization step many consecutive samples fall into the same integer lattice cell, so corner hashes
+ * and their gradients are decoded only when the sample leaves the current cell. Gradients are sums of two signed
+ * coordinates, evaluated in the same order as the classic switch on the hash, so values are identical to it.
+ */
+public class PerlinCellEvaluator {
+
+    private final PerlinNoiseGeneration generation;
+    // corner hashes of current cell (aaa, aba, aab, abb, baa, bba, bab, bbb)
+    private final int[] hashes = new int[8];
+    // gradient of every corner as indexes of its two summed coordinates in local
+    private final int[] firstCoordinate = new int[8];
+    private final int[] secondCoordinate = new int[8];
+    // coordinates of the current point relative to the near (x, y, z) and the far (x - 1, y - 1, z - 1) corner,
+    // followed by the same six negated
+    private final double[] local = new double[12];
+    private int cellX = -1;
+    private int cellY = -1;
+    private int cellZ = -1;
+
+    PerlinCellEvaluator(PerlinNoiseGeneration generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * @param fromZeroToOne boolean value if returned value is in bounds [0, 1] or [-1, 1]
+     * @return perlin noise value in specified point
+     */
+    public double perlin(double x, double y, double z, boolean fromZeroToOne) {
+        moveToCell(x, y, z);
+        double u = VolumeUtils.fade(local[0]);
+        double v = VolumeUtils.fade(local[1]);
+        double w = VolumeUtils.fade(local[2]);
+        double y1 = generation.lerp(lerpX(0, 4, u), lerpX(1, 5, u), v);
+        double y2 = generation.lerp(lerpX(2, 6, u), lerpX(3, 7, u), v);
+        if (fromZeroToOne)
+            return (generation.lerp(y1, y2, w) + 1) / 2;
+        return generation.lerp(y1, y2, w);
+    }
+
+    /**
+     * @return perlin noise value in specified point, returns vector
+     */
+    public Vector perlin(double x, double y, double z) {
+        moveToCell(x, y, z);
+        double u = VolumeUtils.fade(local[0]);
+        double v = VolumeUtils.fade(local[1]);
+        double y1 = generation.lerp(lerpX(0, 4, u), lerpX(1, 5, u), v);
+        return new Vector(lerpX(2, 6, u), lerpX(3, 7, u), y1).normalize();
+    }
+
+    /**
+     * Splits voxels of one axis into runs, where all voxels of a run are in the same lattice cell.
+     * Run r spans voxels [runs[r], runs[r + 1]).
+     */
+    public static int[] cellRuns(int size, double dimensionStep) {
+        int[] runs = new int[size + 1];
+        int numOfRuns = 0;
+        int previousCell = -1;
+        for (int k = 0; k < size; k++) {
+            int cell = (int) (k * dimensionStep);
+            if (cell != previousCell) {
+                runs[numOfRuns++] = k;
+                previousCell = cell;
+            }
+        }
+        runs[numOfRuns++] = size;
+        int[] result = new int[numOfRuns];
+        System.arraycopy(runs, 0, result, 0, numOfRuns);
+        return result;
+    }
+
+    // PRIVATE methods
+
+    /**
+     * Moves to the cell of the point and sets its coordinates relative to the cell's corners.
+     */
+    private void moveToCell(double x, double y, double z) {
+        int xi = (int) x & 255;
+        int yi = (int) y & 255;
+        int zi = (int) z & 255;
+        if (xi != cellX || yi != cellY || zi != cellZ) {
+            generation.hashCell(xi, yi, zi, hashes);
+            for (int corner = 0; corner < 8; corner++) {
+                int[] gradient = PerlinNoiseGeneration.gradient(hashes[corner]);
+                firstCoordinate[corner] = coordinate(corner, gradient[0], gradient[1]);
+                secondCoordinate[corner] = coordinate(corner, gradient[2], gradient[3]);
+            }
+            cellX = xi;
+            cellY = yi;
+            cellZ = zi;
+        }
+        local[0] = x - (int) x;
+        local[1] = y - (int) y;
+        local[2] = z - (int) z;
+        local[3] = local[0] - 1;
+        local[4] = local[1] - 1;
+        local[5] = local[2] - 1;
+        for (int i = 0; i < 6; i++)
+            local[i + 6] = -local[i];
+    }
+
+    /**
+     * @return index in local of the coordinate along axis relative to the corner (ordered as hashes), negated if sign
+     * is negative
+     */
+    private static int coordinate(int corner, int axis, int sign) {
+        int farSide = switch (axis) {
+            case 0 -> (corner >> 2) & 1;
+            case 1 -> corner & 1;
+            default -> (corner >> 1) & 1;
+        };
+        return axis + 3 * farSide + (sign < 0 ? 6 : 0);
+    }
+
+    /**
+     * @return gradient of the corner at the current point, same as a grad switch on its hash
+     */
+    private double grad(int corner) {
+        return local[firstCoordinate[corner]] + local[secondCoordinate[corner]];
+    }
+
+    private double lerpX(int corner, int farCorner, double u) {
+        return generation.lerp(grad(corner), grad(farCorner), u);
+    }
+
+}
@@ -1,7 +1,6 @@
 package noise;
 
 import data.Vector;
-import util.VolumeUtils;
 
 import java.util.Random;
 
@@ -11,6 +10,8 @@ import java.util.Random;
 
 public class PerlinNoiseGeneration {
     private int[] permutation;
+    // evaluator of single point samples, one per thread, so they reuse their cell and allocate nothing
+    private final ThreadLocal<PerlinCellEvaluator> pointEvaluator = ThreadLocal.withInitial(this::cellEvaluator);
 
     private static final int p[] = {151, 160, 137, 91, 90, 15,
             131, 13, 201, 95, 96, 53, 194, 233, 7, 225, 140, 36, 103, 30, 69, 142, 8, 99, 37, 240, 21, 10, 23,
@@ -27,6 +28,14 @@ public class PerlinNoiseGeneration {
             138, 236, 205, 93, 222, 114, 67, 29, 24, 72, 243, 141, 128, 195, 78, 66, 215, 61, 156, 180
     };
 
+    // gradients of hashes, e.g. {0, -1, 1, 1} is -x + y
+    private static final int[][] GRADIENTS = {
+            {0, 1, 1, 1}, {0, -1, 1, 1}, {0, 1, 1, -1}, {0, -1, 1, -1},
+            {0, 1, 2, 1}, {0, -1, 2, 1}, {0, 1, 2, -1}, {0, -1, 2, -1},
+            {1, 1, 2, 1}, {1, -1, 2, 1}, {1, 1, 2, -1}, {1, -1, 2, -1},
+            {1, 1, 0, 1}, {1, -1, 2, 1}, {1, 1, 0, -1}, {1, -1, 2, -1}
+    };
+
     /**
      * @param seed seed if desired to generate pseudo-random permutations. -1 means no specified seed
      */
@@ -54,117 +63,46 @@ public class PerlinNoiseGeneration {
      * @return perlin noise value in specified point
      */
     public double perlin(double x, double y, double z, boolean fromZeroToOne) {
-        int xi = (int) x & 255;
-        int yi = (int) y & 255;
-        int zi = (int) z & 255;
-
-        double xf = x - (int) x;
-        double yf = y - (int) y;
-        double zf = z - (int) z;
-
-        double u = VolumeUtils.fade(xf);
-        double v = VolumeUtils.fade(yf);
-        double w = VolumeUtils.fade(zf);
-
-        int aaa = permutation[permutation[permutation[xi] + yi] + zi];
-        int aba = permutation[permutation[permutation[xi] + inc(yi)] + zi];
-        int aab = permutation[permutation[permutation[xi] + yi] + inc(zi)];
-        int abb = permutation[permutation[permutation[xi] + inc(yi)] + inc(zi)];
-        int baa = permutation[permutation[permutation[inc(xi)] + yi] + zi];
-        int bba = permutation[permutation[permutation[inc(xi)] + inc(yi)] + zi];
-        int bab = permutation[permutation[permutation[inc(xi)] + yi] + inc(zi)];
-        int bbb = permutation[permutation[permutation[inc(xi)] + inc(yi)] + inc(zi)];
-
-        double x1 = lerp(grad(aaa, xf, yf, zf), grad(baa, xf - 1, yf, zf), u);
-        double x2 = lerp(grad(aba, xf, yf - 1, zf), grad(bba, xf - 1, yf - 1, zf), u);
-        double y1 = lerp(x1, x2, v);
-
-        x1 = lerp(grad(aab, xf, yf, zf - 1), grad(bab, xf - 1, yf, zf - 1), u);
-        x2 = lerp(grad(abb, xf, yf - 1, zf - 1), grad(bbb, xf - 1, yf - 1, zf - 1), u);
-
-        double y2 = lerp(x1, x2, v);
-
-        if (fromZeroToOne)
-            return (lerp(y1, y2, w) + 1) / 2;
-        return lerp(y1, y2, w);
+        return pointEvaluator.get().perlin(x, y, z, fromZeroToOne);
     }
 
     /**
      * @return perlin noise value in specified point, returns vector
      */
     public Vector perlin(double x, double y, double z) {
-        int xi = (int) x & 255;
-        int yi = (int) y & 255;
-        int zi = (int) z & 255;
-
-        double xf = x - (int) x;
-        double yf = y - (int) y;
-        double zf = z - (int) z;
-
-        double u = VolumeUtils.fade(xf);
-        double v = VolumeUtils.fade(yf);
-        double w = VolumeUtils.fade(zf);
-
-        int aaa = permutation[permutation[permutation[xi] + yi] + zi];
-        int aba = permutation[permutation[permutation[xi] + inc(yi)] + zi];
-        int aab = permutation[permutation[permutation[xi] + yi] + inc(zi)];
-        int abb = permutation[permutation[permutation[xi] + inc(yi)] + inc(zi)];
-        int baa = permutation[permutation[permutation[inc(xi)] + yi] + zi];
-        int bba = permutation[permutation[permutation[inc(xi)] + inc(yi)] + zi];
-        int bab = permutation[permutation[permutation[inc(xi)] + yi] + inc(zi)];
-        int bbb = permutation[permutation[permutation[inc(xi)] + inc(yi)] + inc(zi)];
-
-        double x1 = lerp(grad(aaa, xf, yf, zf), grad(baa, xf - 1, yf, zf), u);
-        double x2 = lerp(grad(aba, xf, yf - 1, zf), grad(bba, xf - 1, yf - 1, zf), u);
-        double y1 = lerp(x1, x2, v);
-
-        x1 = lerp(grad(aab, xf, yf, zf - 1), grad(bab, xf - 1, yf, zf - 1), u);
-        x2 = lerp(grad(abb, xf, yf - 1, zf - 1), grad(bbb, xf - 1, yf - 1, zf - 1), u);
-
-        return new Vector(x1, x2, y1).normalize();
+        return pointEvaluator.get().perlin(x, y, z);
+    }
+
+    /**
+     * @return evaluator, which computes corner hashes once per lattice cell and reuses them for all samples inside it
+     */
+    public PerlinCellEvaluator cellEvaluator() {
+        return new PerlinCellEvaluator(this);
+    }
+
+    /**
+     * Calculates hashes of all 8 corners of lattice cell, in order aaa, aba, aab, abb, baa, bba, bab, bbb.
+     */
+    void hashCell(int xi, int yi, int zi, int[] hashes) {
+        hashes[0] = permutation[permutation[permutation[xi] + yi] + zi];
+        hashes[1] = permutation[permutation[permutation[xi] + inc(yi)] + zi];
+        hashes[2] = permutation[permutation[permutation[xi] + yi] + inc(zi)];
+        hashes[3] = permutation[permutation[permutation[xi] + inc(yi)] + inc(zi)];
+        hashes[4] = permutation[permutation[permutation[inc(xi)] + yi] + zi];
+        hashes[5] = permutation[permutation[permutation[inc(xi)] + inc(yi)] + zi];
+        hashes[6] = permutation[permutation[permutation[inc(xi)] + yi] + inc(zi)];
+        hashes[7] = permutation[permutation[permutation[inc(xi)] + inc(yi)] + inc(zi)];
     }
 
     private int inc(int a) {
         return a + 1;
     }
 
-    private double grad(int hash, double x, double y, double z) {
-        switch (hash & 0xF) {
-            case 0x0:
-                return x + y;
-            case 0x1:
-                return -x + y;
-            case 0x2:
-                return x - y;
-            case 0x3:
-                return -x - y;
-            case 0x4:
-                return x + z;
-            case 0x5:
-                return -x + z;
-            case 0x6:
-                return x - z;
-            case 0x7:
-                return -x - z;
-            case 0x8:
-                return y + z;
-            case 0x9:
-                return -y + z;
-            case 0xA:
-                return y - z;
-            case 0xB:
-                return -y - z;
-            case 0xC:
-                return y + x;
-            case 0xD:
-                return -y + z;
-            case 0xE:
-                return y - x;
-            case 0xF:
-                return -y - z;
-            default:
-                return 0;
-        }
+    /**
+     * @return gradient of the hash as axis and sign of two coordinates, which are summed (axis 0 is x, 1 is y, 2 is z)
+     */
+    static int[] gradient(int hash) {
+        return GRADIENTS[hash & 0xF];
     }
 
 //    // fade function 6t^5-15t^4+10t^3
@@ -172,7 +110,7 @@ public class PerlinNoiseGeneration {
 //        return t * t * t * (t * (6 * t - 15) + 10);
 //    }
 
-    private double lerp(double a, double b, double x) {
+    double lerp(double a, double b, double x) {
         return a + x * (b - a);
     }
 
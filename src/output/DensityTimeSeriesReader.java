@@ -0,0 +1,139 @@
+package output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads frames from an archive written by DensityTimeSeriesWriter.
+ * A frame is reconstructed from the nearest preceding keyframe, or from the last read frame when reading forward.
+ * Voxel values are mapped back to densities with the range of that keyframe.
+ */
+public class DensityTimeSeriesReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final int size;
+    private final int keyframeInterval;
+    private final int chunkSize;
+    private final long[] frameOffsets;
+    private final byte[] frameTypes;
+    private final Inflater inflater = new Inflater();
+    // last reconstructed frame, reused when frames are read in increasing order
+    private byte[] currentFrame;
+    private int currentFrameIndex = -1;
+
+    public DensityTimeSeriesReader(String fileName) throws IOException {
+        this.file = new RandomAccessFile(fileName, "r");
+        if (this.file.readInt() != DensityTimeSeriesWriter.MAGIC)
+            throw new IOException("File " + fileName + " is not a density time series");
+        int version = this.file.readInt();
+        if (version != DensityTimeSeriesWriter.VERSION)
+            throw new IOException("Unsupported density time series version " + version);
+        this.size = this.file.readInt();
+        this.keyframeInterval = this.file.readInt();
+        this.chunkSize = this.file.readInt();
+        this.file.seek(this.file.length() - 8);
+        this.file.seek(this.file.readLong());
+        int numOfFrames = this.file.readInt();
+        this.frameOffsets = new long[numOfFrames];
+        this.frameTypes = new byte[numOfFrames];
+        for (int i = 0; i < numOfFrames; i++) {
+            this.frameOffsets[i] = this.file.readLong();
+            this.frameTypes[i] = this.file.readByte();
+        }
+    }
+
+    /**
+     * @return quantized volume of specified frame (size^3 voxels)
+     */
+    public byte[] readFrame(int frame) throws IOException {
+        int keyframe = keyframeOf(frame);
+        int from = keyframe;
+        if (this.currentFrame != null && this.currentFrameIndex >= keyframe && this.currentFrameIndex <= frame)
+            from = this.currentFrameIndex + 1;
+        else
+            this.currentFrame = new byte[this.size * this.size * this.size];
+        for (int f = from; f <= frame; f++)
+            applyFrame(f);
+        this.currentFrameIndex = frame;
+        return this.currentFrame.clone();
+    }
+
+    /**
+     * @return min and max density, which were mapped to fluid values 1 and 253 of specified frame
+     */
+    public double[] readFrameRange(int frame) throws IOException {
+        this.file.seek(this.frameOffsets[keyframeOf(frame)] + 1);
+        return new double[]{this.file.readDouble(), this.file.readDouble()};
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+        this.inflater.end();
+    }
+
+    // GETTER methods
+    public int getSize() {
+        return size;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    public int getNumOfFrames() {
+        return frameOffsets.length;
+    }
+
+    // PRIVATE methods
+
+    private int keyframeOf(int frame) {
+        if (frame < 0 || frame >= this.frameOffsets.length)
+            throw new IllegalArgumentException("Frame " + frame + " does not exist, archive has " + this.frameOffsets.length + " frames");
+        int keyframe = frame;
+        while (this.frameTypes[keyframe] != DensityTimeSeriesWriter.KEYFRAME)
+            keyframe--;
+        return keyframe;
+    }
+
+    private void applyFrame(int frame) throws IOException {
+        this.file.seek(this.frameOffsets[frame]);
+        boolean keyframe = this.file.readByte() == DensityTimeSeriesWriter.KEYFRAME;
+        if (keyframe)
+            this.file.skipBytes(16);
+        int numOfChunks = this.file.readInt();
+        byte[] chunk = new byte[this.chunkSize];
+        for (int i = 0; i < numOfChunks; i++) {
+            int chunkIndex = this.file.readInt();
+            byte[] compressed = new byte[this.file.readInt()];
+            this.file.readFully(compressed);
+            int from = chunkIndex * this.chunkSize;
+            int length = Math.min(this.chunkSize, this.currentFrame.length - from);
+            decompress(compressed, chunk, length);
+            for (int v = 0; v < length; v++)
+                this.currentFrame[from + v] = keyframe ? chunk[v] : (byte) (this.currentFrame[from + v] + chunk[v]);
+        }
+    }
+
+    private void decompress(byte[] compressed, byte[] chunk, int length) throws IOException {
+        this.inflater.reset();
+        this.inflater.setInput(compressed);
+        try {
+            int read = 0;
+            while (read < length && !this.inflater.finished()) {
+                int inflated = this.inflater.inflate(chunk, read, length - read);
+                if (inflated == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary()))
+                    break;
+                read += inflated;
+            }
+            if (read != length)
+                throw new IOException("Corrupted chunk in density time series");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted chunk in density time series", e);
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package output;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes quantized density volumes of consecutive simulation steps into a single archive.
+ * Every keyframeInterval-th frame is stored whole, frames in between store only the difference to the previous frame.
+ * Densities of a keyframe and of all delta frames after it are quantized to the same range, which is stored with the
+ * keyframe; a frame with densities outside of that range starts a new keyframe before the interval ends.
+ * Frames are split into chunks, every chunk is compressed on its own and chunks without any change are skipped.
+ *
+ * File layout (big endian):
+ *  header: magic, version, size, keyframeInterval, chunkSize (all int)
+ *  frames: type (byte), for keyframes min and max of the quantized range (double), number of stored chunks (int),
+ *          then for every chunk its index, compressed length and data
+ *  index: number of frames (int), offset (long) and type (byte) of every frame
+ *  offset of index (long)
+ */
+public class DensityTimeSeriesWriter implements Closeable {
+
+    static final int MAGIC = 0x46445453;
+    static final int VERSION = 2;
+    static final int HEADER_LENGTH = 20;
+    static final byte KEYFRAME = 0;
+    static final byte DELTA_FRAME = 1;
+    static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final int size;
+    private final int keyframeInterval;
+    private final int chunkSize;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final List<Long> frameOffsets = new ArrayList<>();
+    private final List<Byte> frameTypes = new ArrayList<>();
+    private byte[] previousFrame;
+    private double[] keyframeRange;
+    private int lastKeyframe;
+    private byte[] compressBuffer;
+    private long position;
+
+    /**
+     * @param size             number of voxels of the volume in every dimension
+     * @param keyframeInterval number of frames between two whole stored frames
+     */
+    public DensityTimeSeriesWriter(String fileName, int size, int keyframeInterval) throws IOException {
+        this(fileName, size, keyframeInterval, DEFAULT_CHUNK_SIZE);
+    }
+
+    public DensityTimeSeriesWriter(String fileName, int size, int keyframeInterval, int chunkSize) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        this.size = size;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        this.chunkSize = chunkSize;
+        this.compressBuffer = new byte[chunkSize + 64];
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeInt(size);
+        this.out.writeInt(this.keyframeInterval);
+        this.out.writeInt(chunkSize);
+        this.position = HEADER_LENGTH;
+    }
+
+    /**
+     * @param densityRange min and max density of the next frame
+     * @return range, to which the next frame should be quantized: the range of the last keyframe, if the next frame is
+     * a delta frame and its densities are inside of it, otherwise densityRange
+     */
+    public double[] quantizationRange(double[] densityRange) {
+        if (this.previousFrame == null || this.frameOffsets.size() - this.lastKeyframe >= this.keyframeInterval)
+            return densityRange;
+        if (densityRange[0] < this.keyframeRange[0] || densityRange[1] > this.keyframeRange[1])
+            return densityRange;
+        return this.keyframeRange;
+    }
+
+    /**
+     * Appends next frame to the archive.
+     *
+     * @param frame quantized volume, as returned by ProgramUtils.quantizeDensitiesAddAirAround
+     * @param range min and max density, which were mapped to the frame, as returned by quantizationRange
+     */
+    public void writeFrame(byte[] frame, double[] range) throws IOException {
+        if (frame.length != this.size * this.size * this.size)
+            throw new IllegalArgumentException("Frame has " + frame.length + " voxels, expected " + this.size + "^3");
+        boolean keyframe = this.previousFrame == null || this.frameOffsets.size() - this.lastKeyframe >= this.keyframeInterval
+                || !Arrays.equals(range, this.keyframeRange);
+        if (keyframe) {
+            this.lastKeyframe = this.frameOffsets.size();
+            this.keyframeRange = range.clone();
+        }
+        this.frameOffsets.add(this.position);
+        this.frameTypes.add(keyframe ? KEYFRAME : DELTA_FRAME);
+
+        int numOfChunks = (frame.length + this.chunkSize - 1) / this.chunkSize;
+        byte[] chunk = new byte[this.chunkSize];
+        List<Integer> chunkIndices = new ArrayList<>();
+        List<byte[]> chunkData = new ArrayList<>();
+        for (int c = 0; c < numOfChunks; c++) {
+            int from = c * this.chunkSize;
+            int length = Math.min(this.chunkSize, frame.length - from);
+            boolean changed = keyframe;
+            for (int i = 0; i < length; i++) {
+                // deltas wrap around, so reconstruction is exact
+                chunk[i] = keyframe ? frame[from + i] : (byte) (frame[from + i] - this.previousFrame[from + i]);
+                changed |= chunk[i] != 0;
+            }
+            if (!changed)
+                continue;
+            chunkIndices.add(c);
+            chunkData.add(compress(chunk, length));
+        }
+
+        this.out.writeByte(keyframe ? KEYFRAME : DELTA_FRAME);
+        this.position += 1;
+        if (keyframe) {
+            this.out.writeDouble(range[0]);
+            this.out.writeDouble(range[1]);
+            this.position += 16;
+        }
+        this.out.writeInt(chunkIndices.size());
+        this.position += 4;
+        for (int i = 0; i < chunkIndices.size(); i++) {
+            this.out.writeInt(chunkIndices.get(i));
+            this.out.writeInt(chunkData.get(i).length);
+            this.out.write(chunkData.get(i));
+            this.position += 8 + chunkData.get(i).length;
+        }
+        if (this.previousFrame == null)
+            this.previousFrame = new byte[frame.length];
+        System.arraycopy(frame, 0, this.previousFrame, 0, frame.length);
+    }
+
+    /**
+     * Writes index of frames and closes the archive.
+     */
+    @Override
+    public void close() throws IOException {
+        long indexOffset = this.position;
+        this.out.writeInt(this.frameOffsets.size());
+        for (int i = 0; i < this.frameOffsets.size(); i++) {
+            this.out.writeLong(this.frameOffsets.get(i));
+            this.out.writeByte(this.frameTypes.get(i));
+        }
+        this.out.writeLong(indexOffset);
+        this.out.close();
+        this.deflater.end();
+    }
+
+    public int getNumOfFrames() {
+        return frameOffsets.size();
+    }
+
+    // PRIVATE methods
+
+    private byte[] compress(byte[] data, int length) {
+        this.deflater.reset();
+        this.deflater.setInput(data, 0, length);
+        this.deflater.finish();
+        int compressedLength = 0;
+        while (!this.deflater.finished()) {
+            if (compressedLength == this.compressBuffer.length)
+                this.compressBuffer = Arrays.copyOf(this.compressBuffer, this.compressBuffer.length * 2);
+            compressedLength += this.deflater.deflate(this.compressBuffer, compressedLength, this.compressBuffer.length - compressedLength);
+        }
+        return Arrays.copyOf(this.compressBuffer, compressedLength);
+    }
+
+}
@@ -0,0 +1,73 @@
+package output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads single levels of a pyramid written by LodPyramidWriter, without reading the other ones.
+ */
+public class LodPyramidReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final LodPyramidWriter.Reduction reduction;
+    private final int size;
+    private final int[] levelSizes;
+    private final long[] offsets;
+    private final long[] lengths;
+
+    public LodPyramidReader(String fileName) throws IOException {
+        this.file = new RandomAccessFile(fileName, "r");
+        if (this.file.readInt() != LodPyramidWriter.MAGIC)
+            throw new IOException("File " + fileName + " is not a pyramid");
+        int version = this.file.readInt();
+        if (version != LodPyramidWriter.VERSION)
+            throw new IOException("Unsupported pyramid version " + version);
+        int numOfLevels = this.file.readInt();
+        this.reduction = LodPyramidWriter.Reduction.values()[this.file.readInt()];
+        this.size = this.file.readInt();
+        this.levelSizes = new int[numOfLevels];
+        this.offsets = new long[numOfLevels];
+        this.lengths = new long[numOfLevels];
+        for (int level = 0; level < numOfLevels; level++) {
+            this.levelSizes[level] = this.file.readInt();
+            this.offsets[level] = this.file.readLong();
+            this.lengths[level] = this.file.readLong();
+        }
+    }
+
+    /**
+     * @param level downsampled level, 1 is half of full resolution
+     * @return voxels of the level (getLevelSize(level)^3), ordered by z, y, x
+     */
+    public byte[] readLevel(int level) throws IOException {
+        if (level < 1 || level > levelSizes.length)
+            throw new IllegalArgumentException("Level " + level + " does not exist, pyramid has levels 1 to " + levelSizes.length);
+        byte[] voxels = new byte[(int) lengths[level - 1]];
+        file.seek(offsets[level - 1]);
+        file.readFully(voxels);
+        return voxels;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // GETTER methods
+    public int getNumOfLevels() {
+        return levelSizes.length;
+    }
+
+    public int getLevelSize(int level) {
+        return levelSizes[level - 1];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public LodPyramidWriter.Reduction getReduction() {
+        return reduction;
+    }
+}
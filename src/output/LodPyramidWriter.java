@@ -0,0 +1,257 @@
+package output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Writes a pyramid of levels of a quantized volume, each downsampled by 2 along every axis from the previous one, so
+ * viewers can show coarse levels first and refine with finer ones and at last with the full resolution volume.
+ * Odd sizes are rounded up, blocks on the far edges of such levels are smaller.
+ *
+ * Fluid values (1 to 253) of a block are reduced by their average or maximum; a block without fluid takes the largest
+ * of its other values, so floor (255) is kept over object (254) and object over air (0).
+ *
+ * All levels are computed in a single pass over z slices, which can be handed over as they are written: only one
+ * partial block row (a z layer of blocks) of every level is kept, rows are reduced in parallel by y and written to their
+ * place in the file once complete, and every row of a level is reduced from rows of the previous level.
+ *
+ * File layout (big endian):
+ *  header: magic, version, number of levels, reduction, size of the full resolution volume (all int)
+ *  index: for every level from the finest: size (int), offset and length of its voxels in the file (both long)
+ *  levels: voxels of every level ordered by z, y, x, from the coarsest one, so a file can be streamed progressively
+ */
+public class LodPyramidWriter implements Closeable {
+
+    static final int MAGIC = 0x464c4f44;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 20;
+    static final int INDEX_ENTRY_LENGTH = 20;
+    // sums of fluid values stay in int up to blocks of 2^7 voxels per axis
+    static final int MAX_LEVELS = 7;
+    // default number of levels makes the coarsest one at most this large
+    private static final int COARSEST_SIZE = 16;
+
+    public enum Reduction {
+        AVERAGE, MAX;
+
+        public static Reduction fromName(String name) {
+            return switch (name) {
+                case "average" -> AVERAGE;
+                case "max" -> MAX;
+                default -> throw new IllegalArgumentException("Unknown pyramid reduction " + name);
+            };
+        }
+    }
+
+    private final String fileName;
+    private final int levels;
+    private final Reduction reduction;
+    // state of a pyramid being written, set by begin
+    private RandomAccessFile file;
+    private int size;
+    private int numOfLevels;
+    private int numOfSlices;
+    private long[] offsets;
+    // partial block row of every level from the finest, its z and its reduced voxels
+    private BlockStats[] rows;
+    private int[] rowZ;
+    private byte[][] reducedRows;
+
+    /**
+     * @param levels number of downsampled levels, 0 to downsample until the coarsest level has at most 16 voxels per axis
+     */
+    public LodPyramidWriter(String fileName, int levels, Reduction reduction) {
+        if (levels < 0 || levels > MAX_LEVELS)
+            throw new IllegalArgumentException("Number of pyramid levels must be between 0 and " + MAX_LEVELS);
+        this.fileName = fileName;
+        this.levels = levels;
+        this.reduction = reduction;
+    }
+
+    /**
+     * Writes downsampled levels of a quantized volume (size^3 voxels, as saved to the output file).
+     */
+    public void write(byte[] volume, int size) throws IOException {
+        try {
+            begin(size);
+            writeSlices(volume, size);
+            finish();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Starts a pyramid of a volume of size^3 voxels, whose z slices are then handed over in order by writeSlices.
+     */
+    public void begin(int size) throws IOException {
+        this.size = size;
+        this.numOfLevels = levels > 0 ? levels : defaultLevels(size);
+        this.numOfSlices = 0;
+        this.offsets = new long[numOfLevels];
+        this.rows = new BlockStats[numOfLevels];
+        this.rowZ = new int[numOfLevels];
+        this.reducedRows = new byte[numOfLevels][];
+        long offset = HEADER_LENGTH + (long) numOfLevels * INDEX_ENTRY_LENGTH;
+        for (int level = numOfLevels - 1; level >= 0; level--) {
+            int levelSize = levelSize(size, level + 1);
+            offsets[level] = offset;
+            offset += (long) levelSize * levelSize * levelSize;
+            rows[level] = new BlockStats(levelSize * levelSize);
+            reducedRows[level] = new byte[levelSize * levelSize];
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(numOfLevels);
+        out.writeInt(reduction.ordinal());
+        out.writeInt(size);
+        for (int level = 0; level < numOfLevels; level++) {
+            int levelSize = levelSize(size, level + 1);
+            out.writeInt(levelSize);
+            out.writeLong(offsets[level]);
+            out.writeLong((long) levelSize * levelSize * levelSize);
+        }
+        file = new RandomAccessFile(fileName, "rw");
+        file.setLength(0);
+        file.write(header.toByteArray());
+    }
+
+    /**
+     * Adds the next count z slices of the volume (size^2 voxels each, from the start of slices) to the pyramid.
+     */
+    public void writeSlices(byte[] slices, int count) throws IOException {
+        if (numOfSlices + count > size)
+            throw new IllegalArgumentException("Pyramid gets more than " + size + " slices");
+        for (int slice = 0; slice < count; slice++) {
+            int sliceStart = slice * size * size;
+            if (numOfLevels > 0) {
+                int levelSize = levelSize(size, 1);
+                BlockStats row = rows[0];
+                IntStream.range(0, levelSize).parallel().forEach(y -> {
+                    for (int childY = 2 * y; childY < Math.min(2 * y + 2, size); childY++)
+                        for (int childX = 0; childX < size; childX++)
+                            row.addVoxel(y * levelSize + (childX >> 1), slices[sliceStart + childY * size + childX] & 0xff);
+                });
+            }
+            numOfSlices++;
+            if (numOfLevels > 0 && ((numOfSlices & 1) == 0 || numOfSlices == size))
+                completeRow(0);
+        }
+    }
+
+    /**
+     * Checks that all slices were handed over and closes the file.
+     */
+    public void finish() throws IOException {
+        if (numOfSlices != size)
+            throw new IllegalStateException("Pyramid got " + numOfSlices + " of " + size + " slices");
+        close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * @return number of voxels along every axis of a level, size of the full resolution volume is level 0
+     */
+    public static int levelSize(int size, int level) {
+        return (size + (1 << level) - 1) >> level;
+    }
+
+    // PRIVATE methods
+
+    private static int defaultLevels(int size) {
+        int numOfLevels = 0;
+        while (numOfLevels < MAX_LEVELS && levelSize(size, numOfLevels) > COARSEST_SIZE)
+            numOfLevels++;
+        return numOfLevels;
+    }
+
+    /**
+     * Reduces the complete block row of a level, writes it and adds it to the row of the next level, which is completed
+     * in turn once it got its last row.
+     */
+    private void completeRow(int level) throws IOException {
+        int levelSize = levelSize(size, level + 1);
+        BlockStats row = rows[level];
+        byte[] reduced = reducedRows[level];
+        IntStream.range(0, levelSize * levelSize).parallel().forEach(i -> reduced[i] = row.reduce(i, reduction));
+        file.seek(offsets[level] + (long) rowZ[level] * reduced.length);
+        file.write(reduced);
+        if (level + 1 < numOfLevels) {
+            int coarserSize = levelSize(size, level + 2);
+            BlockStats coarser = rows[level + 1];
+            IntStream.range(0, coarserSize).parallel().forEach(y -> {
+                for (int childY = 2 * y; childY < Math.min(2 * y + 2, levelSize); childY++)
+                    for (int childX = 0; childX < levelSize; childX++)
+                        coarser.addBlock(y * coarserSize + (childX >> 1), row, childY * levelSize + childX);
+            });
+        }
+        row.clear();
+        rowZ[level]++;
+        if (level + 1 < numOfLevels && ((rowZ[level] & 1) == 0 || rowZ[level] == levelSize))
+            completeRow(level + 1);
+    }
+
+    /**
+     * Statistics of a block row of one level: sum, count and maximum of fluid values and maximum of other values.
+     */
+    private static class BlockStats {
+
+        private final int[] fluidSum;
+        private final int[] fluidCount;
+        private final byte[] fluidMax;
+        private final byte[] otherMax;
+
+        BlockStats(int length) {
+            this.fluidSum = new int[length];
+            this.fluidCount = new int[length];
+            this.fluidMax = new byte[length];
+            this.otherMax = new byte[length];
+        }
+
+        void addVoxel(int i, int value) {
+            if (value >= 1 && value <= 253) {
+                fluidSum[i] += value;
+                fluidCount[i]++;
+                fluidMax[i] = (byte) Math.max(fluidMax[i] & 0xff, value);
+            } else {
+                otherMax[i] = (byte) Math.max(otherMax[i] & 0xff, value);
+            }
+        }
+
+        void addBlock(int i, BlockStats child, int j) {
+            fluidSum[i] += child.fluidSum[j];
+            fluidCount[i] += child.fluidCount[j];
+            fluidMax[i] = (byte) Math.max(fluidMax[i] & 0xff, child.fluidMax[j] & 0xff);
+            otherMax[i] = (byte) Math.max(otherMax[i] & 0xff, child.otherMax[j] & 0xff);
+        }
+
+        void clear() {
+            Arrays.fill(fluidSum, 0);
+            Arrays.fill(fluidCount, 0);
+            Arrays.fill(fluidMax, (byte) 0);
+            Arrays.fill(otherMax, (byte) 0);
+        }
+
+        byte reduce(int i, Reduction reduction) {
+            if (fluidCount[i] == 0)
+                return otherMax[i];
+            if (reduction == Reduction.MAX)
+                return fluidMax[i];
+            return (byte) Math.round((float) fluidSum[i] / fluidCount[i]);
+        }
+    }
+}
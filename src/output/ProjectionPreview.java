@@ -0,0 +1,197 @@
+package output;
+
+import data.ColumnTerrain;
+import data.VolumeState;
+import util.VolumeUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+/**
+ * Preview of fluid densities as 2D images: maximum and average density of fluid voxels projected along each axis.
+ * Projections are calculated in parallel over slabs of z slices. Every image is mapped to 8 bits on its own range,
+ * pixels without any fluid voxel are 0. Images along x and y axis have the top of the volume at the top.
+ */
+public class ProjectionPreview {
+
+    private static final String[] AXES = {"x", "y", "z"};
+
+    private final File directory;
+    // "pgm" or "png"
+    private final String format;
+
+    public ProjectionPreview(String directory, String format) {
+        if (!format.equals("pgm") && !format.equals("png"))
+            throw new IllegalArgumentException("Unknown preview format " + format);
+        this.directory = new File(directory);
+        this.format = format;
+    }
+
+    /**
+     * Writes max and average projections along every axis of old densities, named step_NNNN_{max,avg}_{x,y,z}.
+     */
+    public void write(VolumeState volumeState, int step) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create preview directory " + directory);
+        Projection[] projections = project(volumeState);
+        for (int axis = 0; axis < 3; axis++) {
+            Projection projection = projections[axis];
+            String prefix = String.format("step_%04d_", step);
+            writeImage(new File(directory, prefix + "max_" + AXES[axis] + "." + format), projection.width, projection.height, projection.maxImage());
+            writeImage(new File(directory, prefix + "avg_" + AXES[axis] + "." + format), projection.width, projection.height, projection.averageImage());
+        }
+    }
+
+    /**
+     * @return projections along x (y by z pixels), y (x by z) and z (x by y) axis
+     */
+    public static Projection[] project(VolumeState volumeState) {
+        int n = volumeState.getN();
+        int depth = volumeState.getDepth();
+        Projection alongX = new Projection(n, depth);
+        Projection alongY = new Projection(n, depth);
+        Projection alongZ = new Projection(n, n);
+        int slabs = Math.min(depth, Runtime.getRuntime().availableProcessors());
+        // rows of projections along x and y belong to a single slab, projection along z is merged from slab partials
+        Projection[] partials = IntStream.range(0, slabs).parallel()
+                .mapToObj(slab -> projectSlab(volumeState, 1 + slab * depth / slabs, (slab + 1) * depth / slabs, alongX, alongY))
+                .toArray(Projection[]::new);
+        for (Projection partial : partials)
+            alongZ.merge(partial);
+        return new Projection[]{alongX, alongY, alongZ};
+    }
+
+    private static Projection projectSlab(VolumeState volumeState, int fromZ, int toZ, Projection alongX, Projection alongY) {
+        int n = volumeState.getN();
+        int depth = volumeState.getDepth();
+        ColumnTerrain terrain = volumeState.getTerrain();
+        double[] densities = volumeState.getOldDensities();
+        Projection alongZ = new Projection(n, n);
+        for (int i = fromZ; i <= toZ; i++) {
+            int row = depth - i;
+            for (int j = 1; j <= n; j++) {
+                int z = volumeState.getZOffset() + i - 1;
+                // visit only fluid voxels of the row
+                for (int span = terrain.firstSpan(j - 1, z); span < terrain.lastSpan(j - 1, z); span++) {
+                    for (int k = terrain.spanStart(span) + 1; k <= terrain.spanEnd(span); k++) {
+                        double density = densities[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)];
+                        alongX.add(j - 1, row, density);
+                        alongY.add(k - 1, row, density);
+                        alongZ.add(k - 1, n - j, density);
+                    }
+                }
+            }
+        }
+        return alongZ;
+    }
+
+    private void writeImage(File file, int width, int height, byte[] pixels) throws IOException {
+        if (format.equals("png")) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            image.getRaster().setDataElements(0, 0, width, height, pixels);
+            ImageIO.write(image, "png", file);
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(("P5\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(pixels);
+        }
+    }
+
+    /**
+     * Max, sum and count of values projected onto every pixel of an image.
+     */
+    public static class Projection {
+
+        private final int width;
+        private final int height;
+        private final double[] max;
+        private final double[] sum;
+        private final int[] count;
+
+        Projection(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.max = new double[width * height];
+            this.sum = new double[width * height];
+            this.count = new int[width * height];
+        }
+
+        void add(int x, int y, double value) {
+            int index = VolumeUtils.indexIn2D(width, x, y);
+            if (count[index] == 0 || value > max[index])
+                max[index] = value;
+            sum[index] += value;
+            count[index]++;
+        }
+
+        void merge(Projection other) {
+            for (int index = 0; index < count.length; index++) {
+                if (other.count[index] == 0)
+                    continue;
+                if (count[index] == 0 || other.max[index] > max[index])
+                    max[index] = other.max[index];
+                sum[index] += other.sum[index];
+                count[index] += other.count[index];
+            }
+        }
+
+        public double getMax(int x, int y) {
+            return max[VolumeUtils.indexIn2D(width, x, y)];
+        }
+
+        public double getAverage(int x, int y) {
+            int index = VolumeUtils.indexIn2D(width, x, y);
+            return count[index] == 0 ? 0.0 : sum[index] / count[index];
+        }
+
+        public int getCount(int x, int y) {
+            return count[VolumeUtils.indexIn2D(width, x, y)];
+        }
+
+        byte[] maxImage() {
+            return toImage(max);
+        }
+
+        byte[] averageImage() {
+            double[] average = new double[count.length];
+            for (int index = 0; index < count.length; index++)
+                average[index] = count[index] == 0 ? 0.0 : sum[index] / count[index];
+            return toImage(average);
+        }
+
+        // maps values of pixels with fluid to 1 - 255
+        private byte[] toImage(double[] values) {
+            double min = Double.MAX_VALUE;
+            double maxValue = -Double.MAX_VALUE;
+            for (int index = 0; index < values.length; index++) {
+                if (count[index] == 0)
+                    continue;
+                min = Math.min(min, values[index]);
+                maxValue = Math.max(maxValue, values[index]);
+            }
+            double interval = maxValue > min ? maxValue - min : 1.0;
+            byte[] pixels = new byte[values.length];
+            for (int index = 0; index < values.length; index++) {
+                if (count[index] > 0)
+                    pixels[index] = (byte) (1 + (int) ((values[index] - min) / interval * 254));
+            }
+            return pixels;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to raw 8-bit volumes, as written by ProgramUtils.writeDensitiesToFileAddAirAround, without reading the
+ * whole file. The file is memory mapped in chunks of whole z slices, so only pages of accessed voxels are loaded, and
+ * files larger than a single mapping are supported. Voxels are ordered by z, y, x, as in VolumeUtils.indexIn3D.
+ *
+ * Reads may run on several threads at once.
+ */
+public class RawVolumeReader implements Closeable {
+
+    // upper bound of a single mapped chunk
+    private static final long MAX_CHUNK_BYTES = 1 << 30;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int slicesPerChunk;
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Opens a cubic volume, its size is taken from the file length.
+     */
+    public RawVolumeReader(String fileName) throws IOException {
+        this(fileName, cubeSize(fileName));
+    }
+
+    private RawVolumeReader(String fileName, int size) throws IOException {
+        this(fileName, size, size, size);
+    }
+
+    public RawVolumeReader(String fileName, int sizeX, int sizeY, int sizeZ) throws IOException {
+        long sliceBytes = (long) sizeX * sizeY;
+        if (sizeX <= 0 || sizeY <= 0 || sizeZ <= 0 || sliceBytes > MAX_CHUNK_BYTES)
+            throw new IllegalArgumentException("Unsupported volume dimensions " + sizeX + "x" + sizeY + "x" + sizeZ);
+        this.file = new RandomAccessFile(fileName, "r");
+        long length = this.file.length();
+        if (length != sliceBytes * sizeZ) {
+            this.file.close();
+            throw new IOException("File " + fileName + " has " + length + " bytes, which does not match volume "
+                    + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+        this.channel = this.file.getChannel();
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.slicesPerChunk = (int) Math.min(sizeZ, MAX_CHUNK_BYTES / sliceBytes);
+        this.chunks = new MappedByteBuffer[(sizeZ + slicesPerChunk - 1) / slicesPerChunk];
+        for (int chunk = 0; chunk < this.chunks.length; chunk++) {
+            int fromZ = chunk * slicesPerChunk;
+            int toZ = Math.min(sizeZ, fromZ + slicesPerChunk);
+            this.chunks[chunk] = this.channel.map(FileChannel.MapMode.READ_ONLY, fromZ * sliceBytes, (toZ - fromZ) * sliceBytes);
+        }
+    }
+
+    /**
+     * @return value of a single voxel, between 0 and 255
+     */
+    public int getVoxel(int x, int y, int z) {
+        checkBox(x, y, z, 1, 1, 1);
+        return chunk(z).get(offsetInChunk(x, y, z)) & 0xff;
+    }
+
+    /**
+     * @return voxels of a row along x axis
+     */
+    public byte[] readRow(int y, int z) {
+        return readBox(0, y, z, sizeX, 1, 1);
+    }
+
+    /**
+     * @return voxels of a z slice, ordered by y, x
+     */
+    public byte[] readSlice(int z) {
+        return readBox(0, 0, z, sizeX, sizeY, 1);
+    }
+
+    /**
+     * @return voxels of a sub-box starting at given corner, ordered by z, y, x
+     */
+    public byte[] readBox(int x, int y, int z, int boxX, int boxY, int boxZ) {
+        checkBox(x, y, z, boxX, boxY, boxZ);
+        byte[] box = new byte[boxX * boxY * boxZ];
+        int target = 0;
+        for (int k = z; k < z + boxZ; k++) {
+            MappedByteBuffer chunk = chunk(k);
+            for (int j = y; j < y + boxY; j++) {
+                chunk.get(offsetInChunk(x, j, k), box, target, boxX);
+                target += boxX;
+            }
+        }
+        return box;
+    }
+
+    /**
+     * Reads every stride-th voxel of a sub-box along every axis, so only pages holding sampled voxels are loaded.
+     *
+     * @return sampled voxels, ceil(box / stride) along every axis, ordered by z, y, x
+     */
+    public byte[] readBoxStrided(int x, int y, int z, int boxX, int boxY, int boxZ, int stride) {
+        if (stride < 1)
+            throw new IllegalArgumentException("Stride must be positive, was " + stride);
+        checkBox(x, y, z, boxX, boxY, boxZ);
+        int sampledX = (boxX + stride - 1) / stride;
+        int sampledY = (boxY + stride - 1) / stride;
+        int sampledZ = (boxZ + stride - 1) / stride;
+        byte[] sampled = new byte[sampledX * sampledY * sampledZ];
+        int target = 0;
+        for (int k = z; k < z + boxZ; k += stride) {
+            MappedByteBuffer chunk = chunk(k);
+            for (int j = y; j < y + boxY; j += stride) {
+                int offset = offsetInChunk(x, j, k);
+                for (int i = 0; i < boxX; i += stride)
+                    sampled[target++] = chunk.get(offset + i);
+            }
+        }
+        return sampled;
+    }
+
+    /**
+     * @return whole volume downsampled by taking every stride-th voxel along every axis
+     */
+    public byte[] readDownsampled(int stride) {
+        return readBoxStrided(0, 0, 0, sizeX, sizeY, sizeZ, stride);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    // PRIVATE methods
+
+    private MappedByteBuffer chunk(int z) {
+        return chunks[z / slicesPerChunk];
+    }
+
+    private int offsetInChunk(int x, int y, int z) {
+        return x + y * sizeX + (z % slicesPerChunk) * sizeX * sizeY;
+    }
+
+    private void checkBox(int x, int y, int z, int boxX, int boxY, int boxZ) {
+        if (x < 0 || y < 0 || z < 0 || boxX < 0 || boxY < 0 || boxZ < 0
+                || x + boxX > sizeX || y + boxY > sizeY || z + boxZ > sizeZ)
+            throw new IndexOutOfBoundsException("Box at " + x + "," + y + "," + z + " of size " + boxX + "x" + boxY + "x" + boxZ
+                    + " is not inside volume " + sizeX + "x" + sizeY + "x" + sizeZ);
+    }
+
+    private static int cubeSize(String fileName) throws IOException {
+        long length;
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            length = file.length();
+        }
+        int size = (int) Math.round(Math.cbrt(length));
+        if ((long) size * size * size != length)
+            throw new IOException("File " + fileName + " with " + length + " bytes is not a cubic volume");
+        return size;
+    }
+
+    // GETTER methods
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+}
@@ -0,0 +1,114 @@
+package output;
+
+import data.VolumeState;
+import util.VolumeUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays velocity fields recorded by VelocityCacheWriter into a volume state, step by step.
+ * Cache must be recorded from a volume of the same size, time step and viscosity.
+ */
+public class VelocityCacheReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int n;
+    private final VelocityCacheWriter.Precision precision;
+    private final int numOfSteps;
+
+    public VelocityCacheReader(String fileName, VolumeState volumeState) throws IOException {
+        this.file = new RandomAccessFile(fileName, "r");
+        this.channel = file.getChannel();
+        if (file.readInt() != VelocityCacheWriter.MAGIC)
+            throw new IOException("File " + fileName + " is not a velocity cache");
+        int version = file.readInt();
+        if (version != VelocityCacheWriter.VERSION)
+            throw new IOException("Unsupported velocity cache version " + version);
+        this.n = file.readInt();
+        this.precision = VelocityCacheWriter.Precision.values()[file.readInt()];
+        double dt = file.readDouble();
+        double viscosityRate = file.readDouble();
+        if (volumeState.isSplit() || n != volumeState.getN() || dt != volumeState.getDt() || viscosityRate != volumeState.getViscosityRate())
+            throw new IllegalArgumentException("Velocity cache " + fileName + " was recorded with size " + n + ", time step " + dt
+                    + " and viscosity " + viscosityRate + ", which do not match the volume");
+        this.numOfSteps = (int) ((file.length() - VelocityCacheWriter.HEADER_LENGTH) / (3 * VelocityCacheWriter.componentBytes(n, precision)));
+    }
+
+    /**
+     * Overwrites interior velocities of the volume state with the ones recorded at given step.
+     */
+    public void readStep(int step, VolumeState volumeState) throws IOException {
+        if (step < 0 || step >= numOfSteps)
+            throw new IllegalArgumentException("Step " + step + " does not exist, cache has " + numOfSteps + " steps");
+        long componentBytes = VelocityCacheWriter.componentBytes(n, precision);
+        long offset = VelocityCacheWriter.HEADER_LENGTH + step * 3 * componentBytes;
+        double[][] components = {volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ()};
+        for (double[] component : components) {
+            readComponent(component, volumeState.getSize(), offset);
+            offset += componentBytes;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    // PRIVATE methods
+
+    private void readComponent(double[] values, int size, long offset) throws IOException {
+        file.seek(offset);
+        int scale = file.readInt();
+        offset += VelocityCacheWriter.SCALE_BYTES;
+        long sliceBytes = (long) n * n * precision.getBytes();
+        int slicesPerSlab = (int) Math.max(1, VelocityCacheWriter.MAX_SLAB_BYTES / sliceBytes);
+        for (int fromZ = 0; fromZ < n; fromZ += slicesPerSlab) {
+            int toZ = Math.min(n, fromZ + slicesPerSlab);
+            MappedByteBuffer slab = channel.map(FileChannel.MapMode.READ_ONLY, offset + fromZ * sliceBytes, (toZ - fromZ) * sliceBytes);
+            for (int z = fromZ; z < toZ; z++) {
+                for (int y = 1; y <= n; y++) {
+                    int row = VolumeUtils.indexIn3D(size, 0, y, z + 1);
+                    for (int x = 1; x <= n; x++) {
+                        values[row + x] = switch (precision) {
+                            case DOUBLE -> slab.getDouble();
+                            case FLOAT -> slab.getFloat();
+                            case HALF -> Math.scalb((double) fromHalf(slab.getShort()), scale);
+                        };
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return value of IEEE 754 half precision bits
+     */
+    static float fromHalf(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0x1f)
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        if (exponent == 0) {
+            float subnormal = mantissa * 0x1p-24f;
+            return sign != 0 ? -subnormal : subnormal;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    // GETTER methods
+    public int getNumOfSteps() {
+        return numOfSteps;
+    }
+
+    public VelocityCacheWriter.Precision getPrecision() {
+        return precision;
+    }
+}
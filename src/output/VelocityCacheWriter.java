@@ -0,0 +1,201 @@
+package output;
+
+import data.VolumeState;
+import util.VolumeUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records velocity fields of consecutive simulation steps, so densities can later be re-simulated against them without
+ * solving velocities again (see VelocityCacheReader). Only interior voxels are stored, the file is written through
+ * memory mapped slabs of z slices.
+ *
+ * File layout (big endian):
+ *  header: magic, version, size, precision (all int), time step, viscosity rate (both double)
+ *  steps: x, y and z velocities of every step, each as scale exponent e (int) and size^3 values ordered by z, y, x,
+ *         stored divided by 2^e
+ *
+ * Half precision holds values up to 65504 only, so e of every component of every step is chosen from its largest
+ * magnitude to keep values in range with full precision; power of two scaling itself loses nothing. Double and float
+ * are stored with e = 0. Velocities which are not finite cannot be recorded.
+ */
+public class VelocityCacheWriter implements Closeable {
+
+    static final int MAGIC = 0x46445643;
+    static final int VERSION = 2;
+    static final int SCALE_BYTES = 4;
+    static final int HEADER_LENGTH = 32;
+    // upper bound of a single mapped slab
+    static final long MAX_SLAB_BYTES = 1 << 26;
+
+    /**
+     * Precision of stored values. DOUBLE replays bit-identical densities, FLOAT and HALF trade accuracy for file size;
+     * advection scales velocity errors by time step and size, so with HALF sharp density fronts can move visibly.
+     */
+    public enum Precision {
+        DOUBLE(8), FLOAT(4), HALF(2);
+
+        private final int bytes;
+
+        Precision(int bytes) {
+            this.bytes = bytes;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+
+        public static Precision fromName(String name) {
+            return switch (name) {
+                case "double" -> DOUBLE;
+                case "float" -> FLOAT;
+                case "half" -> HALF;
+                default -> throw new IllegalArgumentException("Unknown velocity cache precision " + name);
+            };
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int n;
+    private final Precision precision;
+    private int numOfSteps;
+
+    public VelocityCacheWriter(String fileName, VolumeState volumeState, Precision precision) throws IOException {
+        if (volumeState.isSplit())
+            throw new IllegalArgumentException("Velocities of a split volume cannot be recorded");
+        this.file = new RandomAccessFile(fileName, "rw");
+        this.channel = file.getChannel();
+        this.channel.truncate(0);
+        this.n = volumeState.getN();
+        this.precision = precision;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(precision.ordinal());
+        header.putDouble(volumeState.getDt()).putDouble(volumeState.getViscosityRate());
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    /**
+     * Appends current velocities of the volume state as the next step.
+     */
+    public void writeStep(VolumeState volumeState) throws IOException {
+        long componentBytes = componentBytes(n, precision);
+        long offset = HEADER_LENGTH + numOfSteps * 3 * componentBytes;
+        double[][] components = {volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ()};
+        // all components are checked before anything is written, so a failed step leaves the file as it was
+        int[] scales = new int[components.length];
+        for (int c = 0; c < components.length; c++)
+            scales[c] = scaleExponent(components[c], volumeState.getSize());
+        for (int c = 0; c < components.length; c++) {
+            writeComponent(components[c], volumeState.getSize(), scales[c], offset);
+            offset += componentBytes;
+        }
+        numOfSteps++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * @return bytes of one velocity component of a step, with its scale exponent
+     */
+    static long componentBytes(int n, Precision precision) {
+        return SCALE_BYTES + (long) n * n * n * precision.getBytes();
+    }
+
+    // PRIVATE methods
+
+    /**
+     * @return exponent of the power of two, by which interior values are divided before they are stored
+     */
+    private int scaleExponent(double[] values, int size) {
+        double largest = 0;
+        for (int z = 1; z <= n; z++) {
+            for (int y = 1; y <= n; y++) {
+                int row = VolumeUtils.indexIn3D(size, 0, y, z);
+                for (int x = 1; x <= n; x++) {
+                    if (!Double.isFinite(values[row + x]))
+                        throw new IllegalArgumentException("Velocity " + values[row + x] + " cannot be recorded");
+                    largest = Math.max(largest, Math.abs(values[row + x]));
+                }
+            }
+        }
+        if (precision != Precision.HALF || largest == 0)
+            return 0;
+        // largest value is stored between 2^14 and 2^15, below the largest half of 65504
+        return Math.getExponent(largest) - 14;
+    }
+
+    private void writeComponent(double[] values, int size, int scale, long offset) throws IOException {
+        ByteBuffer scaleBuffer = ByteBuffer.allocate(SCALE_BYTES).putInt(scale);
+        scaleBuffer.flip();
+        channel.write(scaleBuffer, offset);
+        offset += SCALE_BYTES;
+        long sliceBytes = (long) n * n * precision.getBytes();
+        int slicesPerSlab = (int) Math.max(1, MAX_SLAB_BYTES / sliceBytes);
+        for (int fromZ = 0; fromZ < n; fromZ += slicesPerSlab) {
+            int toZ = Math.min(n, fromZ + slicesPerSlab);
+            MappedByteBuffer slab = channel.map(FileChannel.MapMode.READ_WRITE, offset + fromZ * sliceBytes, (toZ - fromZ) * sliceBytes);
+            for (int z = fromZ; z < toZ; z++) {
+                for (int y = 1; y <= n; y++) {
+                    int row = VolumeUtils.indexIn3D(size, 0, y, z + 1);
+                    for (int x = 1; x <= n; x++) {
+                        switch (precision) {
+                            case DOUBLE -> slab.putDouble(values[row + x]);
+                            case FLOAT -> slab.putFloat((float) values[row + x]);
+                            case HALF -> slab.putShort(toHalf((float) Math.scalb(values[row + x], -scale)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return IEEE 754 half precision bits of the value, rounded to nearest even
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int floatExponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (floatExponent == 0xff)
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        int exponent = floatExponent - 127 + 15;
+        if (exponent >= 0x1f)
+            return (short) (sign | 0x7c00);
+        if (exponent <= 0) {
+            // subnormal half, or zero when too small
+            if (exponent < -10)
+                return (short) sign;
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            return (short) (sign | roundShifted(mantissa, shift));
+        }
+        // carry of rounding may move into exponent, which is still the correct result
+        return (short) (sign | ((exponent << 10) + roundShifted(mantissa, 13)));
+    }
+
+    private static int roundShifted(int value, int shift) {
+        int result = value >> shift;
+        int remainder = value & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (remainder > halfway || (remainder == halfway && (result & 1) != 0))
+            result++;
+        return result;
+    }
+
+    // GETTER methods
+    public int getNumOfSteps() {
+        return numOfSteps;
+    }
+}
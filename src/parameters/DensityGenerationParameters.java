@@ -2,6 +2,8 @@ package parameters;
 
 import data.Voxel;
 import data.VoxelType;
+import util.CancellationToken;
+import util.ProgressListener;
 
 public class DensityGenerationParameters {
 
@@ -13,6 +15,8 @@ public class DensityGenerationParameters {
     private long densitySeed;
     private double dimensionStep;
     private Voxel[] data;
+    private ProgressListener progressListener = ProgressListener.NONE;
+    private CancellationToken cancellationToken = new CancellationToken();
 
     public DensityGenerationParameters() {
     }
@@ -58,6 +62,16 @@ public class DensityGenerationParameters {
         return this;
     }
 
+    public DensityGenerationParameters withProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    public DensityGenerationParameters withCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        return this;
+    }
+
     // GETTER methods
     public int getSize() {
         return size;
@@ -90,4 +104,12 @@ public class DensityGenerationParameters {
     public Voxel[] getData() {
         return data;
     }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
 }
@@ -35,6 +35,29 @@ public class FluidSimulationParameters {
     private double cubePositionY = 4.0;
     private String endFileName = "volume.raw";
     private List<Wave> waves = new ArrayList<>();
+    private int maxSolverIterations = 6;
+    private double solverTolerance = 0.0;
+    private double pressureOverRelaxation = 1.0;
+    private boolean pressureWarmStart = false;
+    private boolean normalizedPressureStencil = false;
+    private int solverSweepsPerBlock = 1;
+    private String timeSeriesFileName = null;
+    private int keyframeInterval = 10;
+    private int numOfWorkers = 1;
+    private boolean slabApproximation = false;
+    private String previewDirectory = null;
+    private String previewFormat = "pgm";
+    private String velocityRecordFileName = null;
+    private String velocityReplayFileName = null;
+    private String velocityCachePrecision = "double";
+    private String simulationBackend = "scalar";
+    private int simulationThreads = 0;
+    private boolean autotune = false;
+    private String autotuneCacheFileName = System.getProperty("user.home") + java.io.File.separator + ".fluid_autotune.properties";
+    private int monitorPort = 0;
+    private String lodPyramidFileName = null;
+    private int lodLevels = 0;
+    private String lodReduction = "average";
 
     public FluidSimulationParameters() {
     }
@@ -185,6 +208,210 @@ public class FluidSimulationParameters {
         return this;
     }
 
+    /**
+     * @param maxSolverIterations maximum number of Gauss-Seidel iterations in every diffusion solve; pressure solves do
+     *                            one more, as they always have
+     */
+    public FluidSimulationParameters withMaxSolverIterations(int maxSolverIterations) {
+        this.maxSolverIterations = maxSolverIterations;
+        return this;
+    }
+
+    /**
+     * @param solverTolerance solve stops early, when largest change of any voxel in an iteration is below this value.
+     *                        Specify 0 to always do maxSolverIterations iterations
+     */
+    public FluidSimulationParameters withSolverTolerance(double solverTolerance) {
+        this.solverTolerance = solverTolerance;
+        return this;
+    }
+
+    /**
+     * @param pressureOverRelaxation successive over-relaxation factor of pressure solve (1 means plain Gauss-Seidel)
+     */
+    public FluidSimulationParameters withPressureOverRelaxation(double pressureOverRelaxation) {
+        this.pressureOverRelaxation = pressureOverRelaxation;
+        return this;
+    }
+
+    /**
+     * @param pressureWarmStart if true, pressure solve starts from the solution of previous projection instead of zero
+     */
+    public FluidSimulationParameters withPressureWarmStart(boolean pressureWarmStart) {
+        this.pressureWarmStart = pressureWarmStart;
+        return this;
+    }
+
+    /**
+     * @param normalizedPressureStencil if true, pressure sweeps divide the sum of six neighbours and divergence by 6, so
+     *                                  they converge; false keeps the original division by 4, whose sweeps diverge,
+     *                                  but whose results are those of all earlier versions. Tolerance, over-relaxation
+     *                                  and warm start only pay off with the normalized stencil
+     */
+    public FluidSimulationParameters withNormalizedPressureStencil(boolean normalizedPressureStencil) {
+        this.normalizedPressureStencil = normalizedPressureStencil;
+        return this;
+    }
+
+    /**
+     * @param solverSweepsPerBlock number of solver iterations run together as a wavefront over z slices, so that each
+     *                             slice is swept several times while it is in cache (1 to sweep whole volume once
+     *                             per iteration). Results are the same; blocks are only used without tolerance and
+     *                             in volumes which are not split between workers
+     */
+    public FluidSimulationParameters withSolverSweepsPerBlock(int solverSweepsPerBlock) {
+        this.solverSweepsPerBlock = solverSweepsPerBlock;
+        return this;
+    }
+
+    /**
+     * @param timeSeriesFileName file name of archive, in which densities after every step are saved
+     *                           (null if only the final volume should be saved)
+     */
+    public FluidSimulationParameters withTimeSeriesFileName(String timeSeriesFileName) {
+        this.timeSeriesFileName = timeSeriesFileName;
+        return this;
+    }
+
+    /**
+     * @param keyframeInterval largest number of steps between two steps saved whole in time series archive, steps in
+     *                         between are saved only as difference to the previous step; a step with densities outside
+     *                         of the range of the last whole step is saved whole sooner
+     */
+    public FluidSimulationParameters withKeyframeInterval(int keyframeInterval) {
+        this.keyframeInterval = keyframeInterval;
+        return this;
+    }
+
+    /**
+     * @param numOfWorkers number of local worker processes, between which the volume is split along z axis
+     *                     (1 to simulate whole volume in this process)
+     */
+    public FluidSimulationParameters withNumOfWorkers(int numOfWorkers) {
+        this.numOfWorkers = numOfWorkers;
+        return this;
+    }
+
+    /**
+     * @param slabApproximation accepts numerics of simulation split between workers, which are needed for more than one
+     *                          worker and give slightly different results than a single process: solver sweeps see
+     *                          values of neighbouring slabs from the previous sweep
+     */
+    public FluidSimulationParameters withSlabApproximation(boolean slabApproximation) {
+        this.slabApproximation = slabApproximation;
+        return this;
+    }
+
+    /**
+     * @param previewDirectory directory, in which projection images of densities are saved after every step
+     *                         (null for no previews)
+     */
+    public FluidSimulationParameters withPreviewDirectory(String previewDirectory) {
+        this.previewDirectory = previewDirectory;
+        return this;
+    }
+
+    /**
+     * @param previewFormat format of preview images, "pgm" or "png"
+     */
+    public FluidSimulationParameters withPreviewFormat(String previewFormat) {
+        this.previewFormat = previewFormat;
+        return this;
+    }
+
+    /**
+     * @param velocityRecordFileName file name of cache, in which velocities after every step are recorded
+     *                               (null for no recording)
+     */
+    public FluidSimulationParameters withVelocityRecordFileName(String velocityRecordFileName) {
+        this.velocityRecordFileName = velocityRecordFileName;
+        return this;
+    }
+
+    /**
+     * @param velocityReplayFileName file name of recorded velocity cache; when given, only densities are simulated,
+     *                               moved by recorded velocities (null to solve velocities)
+     */
+    public FluidSimulationParameters withVelocityReplayFileName(String velocityReplayFileName) {
+        this.velocityReplayFileName = velocityReplayFileName;
+        return this;
+    }
+
+    /**
+     * @param velocityCachePrecision precision of recorded velocities, "double", "float" or "half"
+     */
+    public FluidSimulationParameters withVelocityCachePrecision(String velocityCachePrecision) {
+        this.velocityCachePrecision = velocityCachePrecision;
+        return this;
+    }
+
+    /**
+     * @param simulationBackend name of the backend which runs solver phases, "scalar", "parallel", one added through
+     *                          ServiceLoader, or "auto" to choose by machine and volume
+     */
+    public FluidSimulationParameters withSimulationBackend(String simulationBackend) {
+        this.simulationBackend = simulationBackend;
+        return this;
+    }
+
+    /**
+     * @param simulationThreads number of threads of a parallel simulation backend (0 to use all processors)
+     */
+    public FluidSimulationParameters withSimulationThreads(int simulationThreads) {
+        this.simulationThreads = simulationThreads;
+        return this;
+    }
+
+    /**
+     * @param autotune true to choose simulation backend and threads by calibration on this machine, overriding the
+     *                 ones given
+     */
+    public FluidSimulationParameters withAutotune(boolean autotune) {
+        this.autotune = autotune;
+        return this;
+    }
+
+    /**
+     * @param autotuneCacheFileName file, in which settings chosen by calibration are kept for later runs
+     */
+    public FluidSimulationParameters withAutotuneCacheFileName(String autotuneCacheFileName) {
+        this.autotuneCacheFileName = autotuneCacheFileName;
+        return this;
+    }
+
+    /**
+     * @param monitorPort local port, on which slices of the running simulation are served between steps (0 for none);
+     *                    not read from job JSON, jobs of the job server are monitored at /jobs/{id}/slice
+     */
+    public FluidSimulationParameters withMonitorPort(int monitorPort) {
+        this.monitorPort = monitorPort;
+        return this;
+    }
+
+    /**
+     * @param lodPyramidFileName file name of downsampled levels of the output volume (null for none)
+     */
+    public FluidSimulationParameters withLodPyramidFileName(String lodPyramidFileName) {
+        this.lodPyramidFileName = lodPyramidFileName;
+        return this;
+    }
+
+    /**
+     * @param lodLevels number of downsampled levels (0 to downsample until the coarsest level is at most 16 voxels large)
+     */
+    public FluidSimulationParameters withLodLevels(int lodLevels) {
+        this.lodLevels = lodLevels;
+        return this;
+    }
+
+    /**
+     * @param lodReduction reduction of fluid values in downsampled levels, "average" or "max"
+     */
+    public FluidSimulationParameters withLodReduction(String lodReduction) {
+        this.lodReduction = lodReduction;
+        return this;
+    }
+
     // GETTER methods
     public int getSize() {
         return size;
@@ -257,4 +484,96 @@ public class FluidSimulationParameters {
     public List<Wave> getWaves() {
         return waves;
     }
+
+    public int getMaxSolverIterations() {
+        return maxSolverIterations;
+    }
+
+    public double getSolverTolerance() {
+        return solverTolerance;
+    }
+
+    public double getPressureOverRelaxation() {
+        return pressureOverRelaxation;
+    }
+
+    public boolean isPressureWarmStart() {
+        return pressureWarmStart;
+    }
+
+    public boolean isNormalizedPressureStencil() {
+        return normalizedPressureStencil;
+    }
+
+    public int getSolverSweepsPerBlock() {
+        return solverSweepsPerBlock;
+    }
+
+    public String getTimeSeriesFileName() {
+        return timeSeriesFileName;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    public int getNumOfWorkers() {
+        return numOfWorkers;
+    }
+
+    public boolean isSlabApproximation() {
+        return slabApproximation;
+    }
+
+    public String getPreviewDirectory() {
+        return previewDirectory;
+    }
+
+    public String getPreviewFormat() {
+        return previewFormat;
+    }
+
+    public String getVelocityRecordFileName() {
+        return velocityRecordFileName;
+    }
+
+    public String getVelocityReplayFileName() {
+        return velocityReplayFileName;
+    }
+
+    public String getVelocityCachePrecision() {
+        return velocityCachePrecision;
+    }
+
+    public String getSimulationBackend() {
+        return simulationBackend;
+    }
+
+    public int getSimulationThreads() {
+        return simulationThreads;
+    }
+
+    public boolean isAutotune() {
+        return autotune;
+    }
+
+    public String getAutotuneCacheFileName() {
+        return autotuneCacheFileName;
+    }
+
+    public int getMonitorPort() {
+        return monitorPort;
+    }
+
+    public String getLodPyramidFileName() {
+        return lodPyramidFileName;
+    }
+
+    public int getLodLevels() {
+        return lodLevels;
+    }
+
+    public String getLodReduction() {
+        return lodReduction;
+    }
 }
@@ -2,6 +2,8 @@ package parameters;
 
 import data.Voxel;
 import data.VoxelType;
+import util.CancellationToken;
+import util.ProgressListener;
 
 public class PotentialGenerationParameters {
 
@@ -12,6 +14,8 @@ public class PotentialGenerationParameters {
     private double[] heights;
     private final double displacement = 0.01;
     private Voxel[] data;
+    private ProgressListener progressListener = ProgressListener.NONE;
+    private CancellationToken cancellationToken = new CancellationToken();
     private final double maxRecursionDistance = 5;
 
     public PotentialGenerationParameters() {
@@ -48,6 +52,16 @@ public class PotentialGenerationParameters {
         return this;
     }
 
+    public PotentialGenerationParameters withProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    public PotentialGenerationParameters withCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        return this;
+    }
+
     //GETTER methods
 
 
@@ -82,4 +96,12 @@ public class PotentialGenerationParameters {
     public double getMaxRecursionDistance() {
         return maxRecursionDistance;
     }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
 }
@@ -0,0 +1,288 @@
+package server;
+
+import data.Wave;
+import parameters.FluidSimulationParameters;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads simulation parameters from a JSON object. Keys are named the same as fields of FluidSimulationParameters
+ * (e.g. "size", "numOfSteps", "waves": [{"startX": 20, "startY": 20, "amplitude": 0.5, "frequency": 0.2}]),
+ * missing keys keep their default values.
+ */
+public class ParametersJson {
+
+    private final String json;
+    private int position;
+
+    private ParametersJson(String json) {
+        this.json = json;
+    }
+
+    public static FluidSimulationParameters parse(String json) {
+        ParametersJson parser = new ParametersJson(json);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position != json.length())
+            throw parser.error("unexpected content after parameters object");
+        if (!(value instanceof Map))
+            throw new IllegalArgumentException("parameters must be a JSON object");
+        FluidSimulationParameters parameters = new FluidSimulationParameters();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            apply(parameters, (String) entry.getKey(), entry.getValue());
+        }
+        return parameters;
+    }
+
+    private static void apply(FluidSimulationParameters parameters, String key, Object value) {
+        switch (key) {
+            case "size" -> parameters.withSize(asInt(key, value));
+            case "heightBase" -> parameters.withHeightBase(asDouble(key, value));
+            case "heightSpan" -> parameters.withHeightSpan(asDouble(key, value));
+            case "densityBase" -> parameters.withDensityBase(asDouble(key, value));
+            case "densityRange" -> parameters.withDensityRange(asDouble(key, value));
+            case "dimensionDiscretizationStep" -> parameters.withDimensionDiscretizationStep(asDouble(key, value));
+            case "diffusionRate" -> parameters.withDiffusionRate(asDouble(key, value));
+            case "viscosityRate" -> parameters.withViscosityRate(asDouble(key, value));
+            case "timeStep" -> parameters.withTimeStep(asDouble(key, value));
+            case "generationSeed" -> parameters.withGenerationSeed(asLong(key, value));
+            case "numOfSteps" -> parameters.withNumOfSteps(asInt(key, value));
+            case "densityFloor" -> parameters.withFloorDensity(asDouble(key, value));
+            case "heightFloor" -> parameters.withFloorHeight(asDouble(key, value));
+            case "cubeSize" -> parameters.withCubeSize(asDouble(key, value));
+            case "cubePositionX" -> parameters.withCubePositionX(asDouble(key, value));
+            case "cubePositionY" -> parameters.withCubePositionY(asDouble(key, value));
+            case "maxSolverIterations" -> parameters.withMaxSolverIterations(asInt(key, value));
+            case "solverTolerance" -> parameters.withSolverTolerance(asDouble(key, value));
+            case "pressureOverRelaxation" -> parameters.withPressureOverRelaxation(asDouble(key, value));
+            case "pressureWarmStart" -> parameters.withPressureWarmStart(asBoolean(key, value));
+            case "normalizedPressureStencil" -> parameters.withNormalizedPressureStencil(asBoolean(key, value));
+            case "solverSweepsPerBlock" -> parameters.withSolverSweepsPerBlock(asInt(key, value));
+            case "simulationBackend" -> parameters.withSimulationBackend(asString(key, value));
+            case "simulationThreads" -> parameters.withSimulationThreads(asInt(key, value));
+            case "autotune" -> parameters.withAutotune(asBoolean(key, value));
+            case "velocityCachePrecision" -> parameters.withVelocityCachePrecision(asString(key, value));
+            case "waves" -> parameters.withWaves(asWaves(value));
+            default -> throw new IllegalArgumentException("unknown parameter: " + key);
+        }
+    }
+
+    private static List<Wave> asWaves(Object value) {
+        if (!(value instanceof List))
+            throw new IllegalArgumentException("waves must be an array");
+        List<Wave> waves = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            if (!(element instanceof Map))
+                throw new IllegalArgumentException("wave must be an object");
+            Wave wave = new Wave();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) element).entrySet()) {
+                String key = (String) entry.getKey();
+                switch (key) {
+                    case "startX" -> wave.withStartX(asInt(key, entry.getValue()));
+                    case "startY" -> wave.withStartY(asInt(key, entry.getValue()));
+                    case "amplitude" -> wave.withAmplitude(asDouble(key, entry.getValue()));
+                    case "frequency" -> wave.withFrequency(asDouble(key, entry.getValue()));
+                    case "phaseVelocity" -> wave.withPhaseVelocity(asDouble(key, entry.getValue()));
+                    case "decayLength" -> wave.withDecayLength(asPositiveDouble(key, entry.getValue()));
+                    case "cutoffAmplitude" -> wave.withCutoffAmplitude(asPositiveDouble(key, entry.getValue()));
+                    default -> throw new IllegalArgumentException("unknown wave parameter: " + key);
+                }
+            }
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    private static double asDouble(String key, Object value) {
+        if (!(value instanceof BigDecimal))
+            throw new IllegalArgumentException(key + " must be a number");
+        return ((BigDecimal) value).doubleValue();
+    }
+
+    private static double asPositiveDouble(String key, Object value) {
+        double number = asDouble(key, value);
+        if (!(number > 0))
+            throw new IllegalArgumentException(key + " must be positive");
+        return number;
+    }
+
+    private static int asInt(String key, Object value) {
+        return (int) asLong(key, value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private static long asLong(String key, Object value) {
+        return asLong(key, value, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Integers are taken from the exact number, so large ones do not lose digits through a double.
+     */
+    private static long asLong(String key, Object value, long min, long max) {
+        if (!(value instanceof BigDecimal))
+            throw new IllegalArgumentException(key + " must be a number");
+        try {
+            long number = ((BigDecimal) value).longValueExact();
+            if (number < min || number > max)
+                throw new IllegalArgumentException(key + " is out of range");
+            return number;
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(key + " must be an integer");
+        }
+    }
+
+    private static String asString(String key, Object value) {
+        if (!(value instanceof String))
+            throw new IllegalArgumentException(key + " must be a string");
+        return (String) value;
+    }
+
+    private static boolean asBoolean(String key, Object value) {
+        if (!(value instanceof Boolean))
+            throw new IllegalArgumentException(key + " must be true or false");
+        return (Boolean) value;
+    }
+
+    // PARSING methods
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= json.length())
+            throw error("unexpected end of input");
+        char c = json.charAt(position);
+        if (c == '{')
+            return readObject();
+        if (c == '[')
+            return readArray();
+        if (c == '"')
+            return readString();
+        if (json.startsWith("true", position)) {
+            position += 4;
+            return Boolean.TRUE;
+        }
+        if (json.startsWith("false", position)) {
+            position += 5;
+            return Boolean.FALSE;
+        }
+        if (json.startsWith("null", position)) {
+            position += 4;
+            return null;
+        }
+        return readNumber();
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"')
+                throw error("expected key");
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(key, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            array.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String readString() {
+        StringBuilder builder = new StringBuilder();
+        position++;
+        while (true) {
+            char c = next();
+            if (c == '"')
+                return builder.toString();
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            char escaped = next();
+            switch (escaped) {
+                case 'n' -> builder.append('\n');
+                case 't' -> builder.append('\t');
+                case 'r' -> builder.append('\r');
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'u' -> {
+                    if (position + 4 > json.length())
+                        throw error("unexpected end of input");
+                    builder.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                    position += 4;
+                }
+                default -> builder.append(escaped);
+            }
+        }
+    }
+
+    private BigDecimal readNumber() {
+        int start = position;
+        while (position < json.length() && "+-0123456789.eE".indexOf(json.charAt(position)) >= 0)
+            position++;
+        if (start == position)
+            throw error("unexpected character");
+        try {
+            return new BigDecimal(json.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("invalid number");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position)))
+            position++;
+    }
+
+    private char peek() {
+        return position < json.length() ? json.charAt(position) : 0;
+    }
+
+    private char next() {
+        if (position >= json.length())
+            throw error("unexpected end of input");
+        return json.charAt(position++);
+    }
+
+    private void expect(char c) {
+        if (peek() != c)
+            throw error("expected '" + c + "'");
+        position++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
@@ -0,0 +1,172 @@
+package server;
+
+import data.VolumeState;
+import generation.FluidGeneration;
+import parameters.FluidSimulationParameters;
+import simulation.FluidSimulation;
+import simulation.SimulationBackends;
+import simulation.SolverAutotuner;
+import util.CancellationToken;
+import util.ProgramUtils;
+import util.ProgressEvent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * One simulation submitted to the job server: generates the volume, simulates it and saves it to the job's own output
+ * file. Progress is kept as a list of JSON lines, which listeners can wait for.
+ */
+public class SimulationJob implements Runnable {
+
+    public enum Status {
+        QUEUED, RUNNING, FINISHED, FAILED, CANCELLED
+    }
+
+    private final String id;
+    private final FluidSimulationParameters parameters;
+    private final File outputFile;
+    private final List<String> progress = new ArrayList<>();
+    private final CancellationToken cancellationToken = new CancellationToken();
+    private Status status = Status.QUEUED;
+    private String error;
+    // serves slices while the job simulates, null before and after
+    private volatile SliceMonitor sliceMonitor;
+
+    public SimulationJob(String id, FluidSimulationParameters parameters, File outputFile) {
+        this.id = id;
+        this.parameters = parameters.withEndFileName(outputFile.getPath());
+        this.outputFile = outputFile;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            // cancelled while queued
+            if (status == Status.CANCELLED)
+                return;
+            setStatus(Status.RUNNING, null);
+        }
+        VolumeState volumeState = null;
+        SliceMonitor monitor = null;
+        try {
+            long start = System.nanoTime();
+            if (parameters.isAutotune())
+                new SolverAutotuner(parameters.getAutotuneCacheFileName()).tune(parameters);
+            FluidGeneration fluidGeneration = new FluidGeneration(parameters);
+            fluidGeneration.setProgressListener(this::addProgress);
+            fluidGeneration.setCancellationToken(cancellationToken);
+            volumeState = fluidGeneration.createVolume(parameters);
+            addProgress("{\"phase\":\"generation\",\"millis\":" + millisSince(start) + "}");
+            FluidSimulation fluidSimulation = new FluidSimulation(volumeState,
+                    SimulationBackends.create(parameters.getSimulationBackend(), volumeState));
+            fluidSimulation.setCancellationToken(cancellationToken);
+            fluidSimulation.setSurfaceAnimation(fluidGeneration.createSurfaceAnimation(parameters));
+            monitor = new SliceMonitor(volumeState);
+            sliceMonitor = monitor;
+            long simulationStart = System.nanoTime();
+            for (int i = 0; i < parameters.getNumOfSteps(); i++) {
+                long stepStart = System.nanoTime();
+                monitor.beginStep();
+                try {
+                    fluidSimulation.simulateStep();
+                } finally {
+                    monitor.endStep(i + 1);
+                }
+                addProgress("{\"phase\":\"step\",\"step\":" + (i + 1) + ",\"of\":" + parameters.getNumOfSteps()
+                        + ",\"millis\":" + millisSince(stepStart)
+                        + ",\"etaMillis\":" + millisSince(simulationStart) / (i + 1) * (parameters.getNumOfSteps() - i - 1)
+                        + ",\"totalMass\":" + fluidSimulation.getLastStepDiagnostics().getTotalMass()
+                        + ",\"maxVelocity\":" + fluidSimulation.getLastStepDiagnostics().getMaxVelocity() + "}");
+            }
+            // output is written only from a complete simulation
+            cancellationToken.throwIfCancelled();
+            long saveStart = System.nanoTime();
+            ProgramUtils.writeDensitiesToFileAddAirAround(parameters, fluidSimulation.getVolumeState());
+            addProgress("{\"phase\":\"save\",\"millis\":" + millisSince(saveStart) + "}");
+            setStatus(outputFile.isFile() ? Status.FINISHED : Status.FAILED, outputFile.isFile() ? null : "output was not written");
+        } catch (CancellationException e) {
+            setStatus(Status.CANCELLED, null);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            setStatus(Status.FAILED, String.valueOf(e));
+        } finally {
+            sliceMonitor = null;
+            if (monitor != null)
+                monitor.close();
+            if (volumeState != null)
+                volumeState.release();
+        }
+    }
+
+    /**
+     * Stops the job: a queued job will not start, a running one stops at the next z slice of its work.
+     */
+    public void cancel() {
+        cancellationToken.cancel();
+        synchronized (this) {
+            if (status == Status.QUEUED)
+                setStatus(Status.CANCELLED, null);
+        }
+    }
+
+    /**
+     * Waits until there are more than seen progress lines or the job is done.
+     *
+     * @return progress lines after the first seen ones, empty if the job is done and there are no more of them
+     */
+    public synchronized List<String> awaitProgress(int seen) throws InterruptedException {
+        while (progress.size() <= seen && !isDone())
+            wait();
+        return new ArrayList<>(progress.subList(Math.min(seen, progress.size()), progress.size()));
+    }
+
+    public synchronized String toJson() {
+        return "{\"id\":\"" + id + "\",\"status\":\"" + status + "\",\"steps\":" + parameters.getNumOfSteps()
+                + ",\"progress\":" + progress.size()
+                + (error != null ? ",\"error\":\"" + error.replace("\\", "\\\\").replace("\"", "\\\"") + "\"" : "") + "}";
+    }
+
+    private void addProgress(ProgressEvent event) {
+        addProgress("{\"phase\":\"" + event.getStage().name().toLowerCase() + "\",\"done\":" + event.getDone()
+                + ",\"of\":" + event.getTotal() + ",\"millis\":" + event.getElapsedMillis()
+                + ",\"etaMillis\":" + event.getEtaMillis() + "}");
+    }
+
+    private synchronized void addProgress(String line) {
+        progress.add(line);
+        notifyAll();
+    }
+
+    private synchronized void setStatus(Status status, String error) {
+        this.status = status;
+        this.error = error;
+        notifyAll();
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    // GETTER methods
+    public String getId() {
+        return id;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized boolean isDone() {
+        return status == Status.FINISHED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public SliceMonitor getSliceMonitor() {
+        return sliceMonitor;
+    }
+}
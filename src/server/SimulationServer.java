@@ -0,0 +1,242 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import parameters.FluidSimulationParameters;
+import util.BufferPool;
+import util.ProgramUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running job server, so simulations can be submitted to a warm JVM instead of running FluidDynamics each time.
+ * Endpoints:
+ *  POST /jobs                  - body is a JSON object of parameters (see ParametersJson), responds with job status
+ *  GET  /jobs/{id}             - job status
+ *  GET  /jobs/{id}/progress    - streams one JSON line per finished phase (generation slabs, every step, save) until done
+ *  GET  /jobs/{id}/volume      - resulting raw volume, once job is finished
+ *  GET  /jobs/{id}/slice       - slice of fields of a running job, query as in SliceMonitor
+ *  DELETE /jobs/{id}           - cancels the job, running job stops within one z slice of work; a job, which is done
+ *                                already, is removed together with its output file
+ *
+ * Server listens on the loopback interface only. Jobs are limited in volume size and number of steps, and only the
+ * most recent finished jobs are kept, older ones are removed together with their output files.
+ * Jobs run on a fixed number of compute threads with a bounded queue, further submissions are refused. Requests are
+ * handled on virtual threads where the JVM supports them, otherwise on a cached thread pool, since progress streams
+ * hold their thread until the job is done.
+ *
+ * To run, start this class with optional arguments: port, number of compute threads, queue size, output directory and
+ * bytes of released volume arrays kept by BufferPool for later jobs (0 to keep none, -1 for a quarter of maximum heap).
+ */
+public class SimulationServer {
+
+    static final int MAX_SIZE = 512;
+    static final int MAX_STEPS = 1000;
+    // finished, failed or cancelled jobs kept for download, before the oldest of them are removed
+    static final int MAX_DONE_JOBS = 32;
+
+    private final HttpServer httpServer;
+    private final ExecutorService requestExecutor;
+    private final ThreadPoolExecutor computePool;
+    private final File outputDirectory;
+    private final Map<String, SimulationJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong nextJobId = new AtomicLong(1);
+
+    public SimulationServer(int port, int computeThreads, int queueSize, File outputDirectory) throws IOException {
+        this.outputDirectory = outputDirectory;
+        this.computePool = new ThreadPoolExecutor(computeThreads, computeThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize));
+        this.requestExecutor = createRequestExecutor();
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.httpServer.createContext("/jobs", this::handle);
+        this.httpServer.setExecutor(requestExecutor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int computeThreads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int queueSize = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        File outputDirectory = new File(args.length > 3 ? args[3] : "jobs");
+        // pool is shared by all jobs of the process, so it is set up once by the server
+        BufferPool.setRetentionLimitBytes(args.length > 4 ? Long.parseLong(args[4]) : -1);
+        SimulationServer server = new SimulationServer(port, computeThreads, queueSize, outputDirectory);
+        server.start();
+        ProgramUtils.displayMessageWithTimestamp("Job server listening on port " + server.getPort());
+    }
+
+    public void start() throws IOException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+            throw new IOException("Cannot create output directory " + outputDirectory);
+        httpServer.start();
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+        computePool.shutdownNow();
+        requestExecutor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            String method = exchange.getRequestMethod();
+            // path is ["", "jobs", id, action]
+            if (path.length == 2 && method.equals("POST")) {
+                submit(exchange);
+                return;
+            }
+            SimulationJob job = path.length > 2 ? jobs.get(path[2]) : null;
+            if (job != null && path.length == 3 && method.equals("DELETE")) {
+                if (job.isDone())
+                    remove(job);
+                else
+                    job.cancel();
+                respond(exchange, 200, job.toJson());
+            } else if (job == null || !method.equals("GET")) {
+                respond(exchange, job == null ? 404 : 405, "{\"error\":\"not found\"}");
+            } else if (path.length == 3) {
+                respond(exchange, 200, job.toJson());
+            } else if (path.length == 4 && path[3].equals("progress")) {
+                streamProgress(exchange, job);
+            } else if (path.length == 4 && path[3].equals("volume")) {
+                sendVolume(exchange, job);
+            } else if (path.length == 4 && path[3].equals("slice")) {
+                sendSlice(exchange, job);
+            } else {
+                respond(exchange, 404, "{\"error\":\"not found\"}");
+            }
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        FluidSimulationParameters parameters;
+        try (InputStream body = exchange.getRequestBody()) {
+            parameters = ParametersJson.parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "{\"error\":\"" + e.getMessage().replace("\"", "'") + "\"}");
+            return;
+        }
+        if (parameters.getSize() < 1 || parameters.getSize() > MAX_SIZE
+                || parameters.getNumOfSteps() < 0 || parameters.getNumOfSteps() > MAX_STEPS) {
+            respond(exchange, 400, "{\"error\":\"size must be between 1 and " + MAX_SIZE
+                    + ", numOfSteps between 0 and " + MAX_STEPS + "\"}");
+            return;
+        }
+        evictDoneJobs();
+        String id = Long.toString(nextJobId.getAndIncrement());
+        SimulationJob job = new SimulationJob(id, parameters, new File(outputDirectory, "job_" + id + ".raw"));
+        try {
+            computePool.execute(job);
+        } catch (RejectedExecutionException e) {
+            respond(exchange, 503, "{\"error\":\"job queue is full\"}");
+            return;
+        }
+        jobs.put(id, job);
+        ProgramUtils.displayMessageWithTimestamp("Queued job " + id);
+        respond(exchange, 202, job.toJson());
+    }
+
+    /**
+     * Removes the oldest done jobs over MAX_DONE_JOBS, together with their output files.
+     */
+    private void evictDoneJobs() {
+        List<SimulationJob> done = new ArrayList<>();
+        for (SimulationJob job : jobs.values())
+            if (job.isDone())
+                done.add(job);
+        done.sort(Comparator.comparingLong(job -> Long.parseLong(job.getId())));
+        for (int i = 0; i < done.size() - MAX_DONE_JOBS; i++)
+            remove(done.get(i));
+    }
+
+    private void remove(SimulationJob job) {
+        jobs.remove(job.getId());
+        try {
+            Files.deleteIfExists(job.getOutputFile().toPath());
+        } catch (IOException e) {
+            ProgramUtils.displayMessageWithTimestamp("Error during deleting output of job " + job.getId());
+        }
+    }
+
+    private void streamProgress(HttpExchange exchange, SimulationJob job) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        int seen = 0;
+        try {
+            List<String> lines;
+            while (!(lines = job.awaitProgress(seen)).isEmpty()) {
+                for (String line : lines)
+                    out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                seen += lines.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.write((job.toJson() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendSlice(HttpExchange exchange, SimulationJob job) throws IOException {
+        SliceMonitor monitor = job.getSliceMonitor();
+        if (monitor == null)
+            respond(exchange, 409, job.toJson());
+        else
+            monitor.serveSlice(exchange);
+    }
+
+    private void sendVolume(HttpExchange exchange, SimulationJob job) throws IOException {
+        if (job.getStatus() != SimulationJob.Status.FINISHED) {
+            respond(exchange, 409, job.toJson());
+            return;
+        }
+        File file = job.getOutputFile();
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, file.length());
+        try (OutputStream out = exchange.getResponseBody()) {
+            Files.copy(file.toPath(), out);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static ExecutorService createRequestExecutor() {
+        try {
+            // virtual threads are only available from Java 21 on
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // GETTER methods
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+}
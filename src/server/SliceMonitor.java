@@ -0,0 +1,289 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import data.ColumnTerrain;
+import data.VolumeState;
+import data.VoxelType;
+import util.ProgramUtils;
+import util.VolumeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local monitor of a running simulation, serving single 2D slices of its fields over HTTP while it runs, on its own
+ * loopback port or through the job server.
+ * Endpoints:
+ *  GET /slice?field=density|speed&axis=x|y|z&index=i[&format=pgm|raw]   on its own port
+ *  GET /jobs/{id}/slice?...                                            the same query on the job server
+ *
+ * Index is in volume coordinates without the border, slices along x and y axis have the top of the volume at the top.
+ * Response is an 8-bit image: fluid is mapped between 1 and 253 (densities on the range of the last step, or of the
+ * slice before the first one; speed from 0 to the largest speed of the slice), air is 0, object is 254 and floor 255.
+ * Headers X-Step, X-Range-Min and X-Range-Max describe the image.
+ *
+ * Slices are read straight from field arrays of the volume state, only between steps: the simulation holds a lock
+ * during every step, and slices are read one at a time, so a step waits at most for one slice read. Quantization and
+ * sending happen after the lock is released. Once the monitor is closed, requests are refused.
+ */
+public class SliceMonitor implements Closeable {
+
+    private final HttpServer httpServer;
+    private final ExecutorService requestExecutor;
+    private final VolumeState volumeState;
+    // fair, so a request waiting during a step is served before the next step begins
+    private final ReentrantLock stepLock = new ReentrantLock(true);
+    // held by the one request, which waits for the step lock or reads a slice
+    private final Object readLock = new Object();
+    private volatile int finishedSteps;
+    private boolean closed;
+
+    /**
+     * Monitor without a port of its own, requests are passed to serveSlice.
+     */
+    public SliceMonitor(VolumeState volumeState) {
+        this.volumeState = volumeState;
+        this.requestExecutor = null;
+        this.httpServer = null;
+    }
+
+    /**
+     * @param port port on the loopback interface, on which slices are served
+     */
+    public SliceMonitor(int port, VolumeState volumeState) throws IOException {
+        this.volumeState = volumeState;
+        this.requestExecutor = Executors.newSingleThreadExecutor();
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.httpServer.createContext("/slice", this::handle);
+        this.httpServer.setExecutor(requestExecutor);
+        this.httpServer.start();
+    }
+
+    /**
+     * Called before every simulation step, waits for a slice read in progress.
+     */
+    public void beginStep() {
+        stepLock.lock();
+    }
+
+    /**
+     * Called after every simulation step, lets waiting requests read the volume.
+     */
+    public void endStep(int step) {
+        finishedSteps = step;
+        stepLock.unlock();
+    }
+
+    /**
+     * Waits for a slice read in progress and refuses further requests, so the volume state can be released.
+     */
+    @Override
+    public void close() {
+        stepLock.lock();
+        try {
+            closed = true;
+        } finally {
+            stepLock.unlock();
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            requestExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Responds to a request for a slice, exchange is left for the caller to close.
+     */
+    public void serveSlice(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            respond(exchange, 405, "method not allowed");
+            return;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String field = query.getOrDefault("field", "density");
+        String axis = query.getOrDefault("axis", "z");
+        String format = query.getOrDefault("format", "pgm");
+        int index;
+        try {
+            index = Integer.parseInt(query.getOrDefault("index", "-1"));
+        } catch (NumberFormatException e) {
+            index = -1;
+        }
+        if (!field.equals("density") && !field.equals("speed") || !format.equals("pgm") && !format.equals("raw")) {
+            respond(exchange, 400, "unknown field or format");
+            return;
+        }
+        if (!axis.equals("x") && !axis.equals("y") && !axis.equals("z") || index < 0 || index >= extent(axis)) {
+            respond(exchange, 400, "axis must be x, y or z and index between 0 and " + (extent(axis) - 1));
+            return;
+        }
+        Slice slice;
+        synchronized (readLock) {
+            try {
+                stepLock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                slice = closed ? null : readSlice(field.equals("speed"), axis, index);
+            } finally {
+                stepLock.unlock();
+            }
+        }
+        if (slice == null) {
+            respond(exchange, 409, "simulation is not running");
+            return;
+        }
+        sendSlice(exchange, slice, format.equals("pgm"));
+    }
+
+    // PRIVATE methods
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            serveSlice(exchange);
+        }
+    }
+
+    /**
+     * @return number of slices along the axis
+     */
+    private int extent(String axis) {
+        return axis.equals("z") ? volumeState.getDepth() : volumeState.getN();
+    }
+
+    /**
+     * Copies field values of a single slice, marking voxels which are not fluid.
+     */
+    private Slice readSlice(boolean speed, String axis, int index) {
+        int n = volumeState.getN();
+        int depth = volumeState.getDepth();
+        int width = n;
+        int height = axis.equals("z") ? n : depth;
+        Slice slice = new Slice(width, height, speed);
+        ColumnTerrain terrain = volumeState.getTerrain();
+        double[] densities = volumeState.getOldDensities();
+        double[] velocityX = volumeState.getVelocityX();
+        double[] velocityY = volumeState.getVelocityY();
+        double[] velocityZ = volumeState.getVelocityZ();
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                int x, y, z;
+                switch (axis) {
+                    case "x" -> { x = index; y = column; z = depth - 1 - row; }
+                    case "y" -> { x = column; y = index; z = depth - 1 - row; }
+                    default -> { x = column; y = row; z = index; }
+                }
+                int pixel = row * width + column;
+                VoxelType type = terrain.getType(x, y, z);
+                if (type != VoxelType.FLUID) {
+                    slice.pixels[pixel] = type == VoxelType.FLOOR ? (byte) 255 : type == VoxelType.OBJECT ? (byte) 254 : 0;
+                    slice.values[pixel] = Double.NaN;
+                    continue;
+                }
+                int i = VolumeUtils.indexIn3D(volumeState.getSize(), x + 1, y + 1, z + 1);
+                slice.values[pixel] = speed
+                        ? Math.sqrt(velocityX[i] * velocityX[i] + velocityY[i] * velocityY[i] + velocityZ[i] * velocityZ[i])
+                        : densities[i];
+            }
+        }
+        slice.step = finishedSteps;
+        slice.range = speed || volumeState.getDensityMinMax() == null ? null : volumeState.getDensityMinMax().clone();
+        return slice;
+    }
+
+    private void sendSlice(HttpExchange exchange, Slice slice, boolean pgm) throws IOException {
+        double[] range = slice.quantize();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (pgm)
+            body.write(("P5\n" + slice.width + " " + slice.height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+        body.write(slice.pixels);
+        exchange.getResponseHeaders().set("Content-Type", pgm ? "image/x-portable-graymap" : "application/octet-stream");
+        exchange.getResponseHeaders().set("X-Step", Integer.toString(slice.step));
+        exchange.getResponseHeaders().set("X-Range-Min", Double.toString(range[0]));
+        exchange.getResponseHeaders().set("X-Range-Max", Double.toString(range[1]));
+        exchange.sendResponseHeaders(200, body.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            body.writeTo(out);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null)
+            return parameters;
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0)
+                parameters.put(pair.substring(0, separator), pair.substring(separator + 1));
+        }
+        return parameters;
+    }
+
+    /**
+     * Values of one slice, NaN where voxel is not fluid, and its 8-bit pixels.
+     */
+    private static class Slice {
+
+        private final int width;
+        private final int height;
+        private final boolean speed;
+        private final double[] values;
+        private final byte[] pixels;
+        private double[] range;
+        private int step;
+
+        Slice(int width, int height, boolean speed) {
+            this.width = width;
+            this.height = height;
+            this.speed = speed;
+            this.values = new double[width * height];
+            this.pixels = new byte[width * height];
+        }
+
+        /**
+         * Maps fluid values to pixels.
+         *
+         * @return range of mapped values
+         */
+        double[] quantize() {
+            if (range == null) {
+                double min = speed ? 0 : Double.POSITIVE_INFINITY;
+                double max = speed ? 0 : Double.NEGATIVE_INFINITY;
+                for (double value : values) {
+                    if (Double.isNaN(value))
+                        continue;
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                range = new double[]{min, max};
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (!Double.isNaN(values[i]))
+                    pixels[i] = ProgramUtils.byteMap(range[0], range[1], Math.max(range[0], Math.min(range[1], values[i])));
+            }
+            return range;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package simulation;
+
+import data.VolumeState;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * What a simulation backend can work with, used to choose a backend for a volume.
+ */
+public class BackendCapabilities {
+
+    /**
+     * Storage of fields: whole volume padded by one voxel on every side, or a part of it split along z axis, padded
+     * by halo slices.
+     */
+    public enum Layout {
+        PADDED_DENSE, Z_SLABS
+    }
+
+    public enum Precision {
+        DOUBLE
+    }
+
+    private final Set<Layout> layouts;
+    private final Set<Precision> precisions;
+    private final boolean parallel;
+    private final boolean fluidSpans;
+
+    /**
+     * @param parallel   backend uses more than one thread
+     * @param fluidSpans diffusion visits only spans of fluid voxels, so its cost follows the amount of fluid
+     */
+    public BackendCapabilities(Set<Layout> layouts, Set<Precision> precisions, boolean parallel, boolean fluidSpans) {
+        this.layouts = Collections.unmodifiableSet(layouts);
+        this.precisions = Collections.unmodifiableSet(precisions);
+        this.parallel = parallel;
+        this.fluidSpans = fluidSpans;
+    }
+
+    /**
+     * @return true if fields of the volume state are stored in a layout and precision the backend supports
+     */
+    public boolean supports(VolumeState volumeState) {
+        Layout layout = volumeState.isSplit() ? Layout.Z_SLABS : Layout.PADDED_DENSE;
+        // volume state keeps all fields in double precision
+        return layouts.contains(layout) && precisions.contains(Precision.DOUBLE);
+    }
+
+    @Override
+    public String toString() {
+        return "layouts " + layouts + ", precisions " + precisions + (parallel ? ", parallel" : "") + (fluidSpans ? ", fluid spans" : "");
+    }
+
+    // GETTER methods
+    public Set<Layout> getLayouts() {
+        return layouts;
+    }
+
+    public Set<Precision> getPrecisions() {
+        return precisions;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public boolean isFluidSpans() {
+        return fluidSpans;
+    }
+}
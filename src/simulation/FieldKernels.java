@@ -0,0 +1,664 @@
+package simulation;
+
+import data.ColumnTerrain;
+import data.VolumeState;
+import util.CancellationToken;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Single sweeps of simulation phases over padded field arrays. Index of the first voxel of every row is calculated once,
+ * neighbours are reached with strides of 1 (x), size (y) and size * size (z), and inner loops run along x axis over
+ * contiguous memory. Boundary conditions have one method per axis, so no loop branches on the axis.
+ *
+ * Kernels are the "scalar" backend, or the "parallel" one, when z slices of single pass phases and rows of every
+ * hyperplane of a Gauss-Seidel sweep run on a fork-join pool (the common one, unless volume state limits threads).
+ * Both write the same values; the parallel one gathers statistics of single pass phases and sweeps per slice, as they
+ * write, and merges them in order of slices.
+ *
+ * Several sweeps of a block run as a wavefront over z slices, each slice is swept again two slices behind the previous
+ * sweep, while it and its neighbours are still in cache. Slices of one wavefront step do not read each other, so they
+ * run in parallel, or their pressure rows are interleaved voxel by voxel, which overlaps the chains of dependent
+ * voxels along x axis of Gauss-Seidel.
+ */
+final class FieldKernels implements SimulationBackend {
+
+    static final BackendCapabilities SCALAR_CAPABILITIES = new BackendCapabilities(
+            EnumSet.of(BackendCapabilities.Layout.PADDED_DENSE, BackendCapabilities.Layout.Z_SLABS),
+            EnumSet.of(BackendCapabilities.Precision.DOUBLE), false, true);
+    static final BackendCapabilities PARALLEL_CAPABILITIES = new BackendCapabilities(
+            EnumSet.of(BackendCapabilities.Layout.PADDED_DENSE, BackendCapabilities.Layout.Z_SLABS),
+            EnumSet.of(BackendCapabilities.Precision.DOUBLE), true, true);
+
+    private final VolumeState volumeState;
+    // voxels along x and y axis, slices along z axis held by volume state and index of the first of them
+    private final int n;
+    private final int depth;
+    private final int zOffset;
+    // index distance between neighbours along y and z axis
+    private final int strideY;
+    private final int strideZ;
+    // sum of neighbours and divergence is divided by it in pressure sweeps, 4 as originally written or 6 if normalized
+    private final double pressureDivisor;
+    // checked before every slice of a sweep
+    private CancellationToken cancellationToken = new CancellationToken();
+    // slices run in parallel
+    private final boolean parallel;
+    // pool of parallel slices, null for the common pool
+    private final ForkJoinPool pool;
+    // pools with limited number of threads, shared by all kernels
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    FieldKernels(VolumeState volumeState, boolean parallel) {
+        this.volumeState = volumeState;
+        this.parallel = parallel;
+        this.pool = parallel && volumeState.getThreads() > 0
+                ? POOLS.computeIfAbsent(volumeState.getThreads(), ForkJoinPool::new) : null;
+        this.n = volumeState.getN();
+        this.depth = volumeState.getDepth();
+        this.zOffset = volumeState.getZOffset();
+        this.strideY = volumeState.getSize();
+        this.strideZ = volumeState.getSize() * volumeState.getSize();
+        this.pressureDivisor = volumeState.isNormalizedPressureStencil() ? 6 : 4;
+    }
+
+    @Override
+    public String getName() {
+        return parallel ? SimulationBackends.PARALLEL : SimulationBackends.SCALAR;
+    }
+
+    @Override
+    public BackendCapabilities getCapabilities() {
+        return parallel ? PARALLEL_CAPABILITIES : SCALAR_CAPABILITIES;
+    }
+
+    @Override
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    // SOLVER sweeps
+
+    /**
+     * One Gauss-Seidel sweep of diffusion over fluid voxels, only fluid neighbours take part. Voxels outside the volume
+     * and non-fluid voxels are never read.
+     *
+     * @param reduction if not null, gathers values written by the sweep
+     * @return largest change of any voxel
+     */
+    @Override
+    public double diffuseSweep(double[] newValues, double[] oldValues, double a, FieldReduction reduction) {
+        // a hyperplane holds at most one row of every slice and rows of a slice come in order of hyperplanes, so every
+        // slice gathers into its own partial in order of rows, and partials are merged in order of slices
+        FieldReduction[] partials = slicePartials(reduction);
+        double maxChange = sweep((i, j) ->
+                diffuseRow(i, j, newValues, oldValues, a, partials == null ? null : partials[i]));
+        mergePartials(reduction, partials);
+        return maxChange;
+    }
+
+    private double diffuseRow(int i, int j, double[] newValues, double[] oldValues, double a, FieldReduction reduction) {
+        ColumnTerrain terrain = volumeState.getTerrain();
+        double maxChange = 0;
+        int volumeSizeY = j - 1;
+        int volumeSizeZ = i - 1 + zOffset;
+        int row = j * strideY + i * strideZ;
+        // visit only fluid voxels of the row
+        for (int span = terrain.firstSpan(volumeSizeY, volumeSizeZ); span < terrain.lastSpan(volumeSizeY, volumeSizeZ); span++) {
+            int spanStart = terrain.spanStart(span);
+            int spanEnd = terrain.spanEnd(span);
+            for (int volumeSizeX = spanStart; volumeSizeX < spanEnd; volumeSizeX++) {
+                int index = row + volumeSizeX + 1;
+                int neighbouringVoxels = 0;
+                double neighbouringVoxelValues = 0;
+                if (volumeSizeX > spanStart) {
+                    neighbouringVoxelValues += newValues[index - 1];
+                    neighbouringVoxels++;
+                }
+                if (volumeSizeX + 1 < spanEnd) {
+                    neighbouringVoxelValues += newValues[index + 1];
+                    neighbouringVoxels++;
+                }
+                if (terrain.isFluid(volumeSizeX, volumeSizeY - 1, volumeSizeZ)) {
+                    neighbouringVoxelValues += newValues[index - strideY];
+                    neighbouringVoxels++;
+                }
+                if (terrain.isFluid(volumeSizeX, volumeSizeY + 1, volumeSizeZ)) {
+                    neighbouringVoxelValues += newValues[index + strideY];
+                    neighbouringVoxels++;
+                }
+                if (terrain.isFluid(volumeSizeX, volumeSizeY, volumeSizeZ - 1)) {
+                    neighbouringVoxelValues += newValues[index - strideZ];
+                    neighbouringVoxels++;
+                }
+                if (terrain.isFluid(volumeSizeX, volumeSizeY, volumeSizeZ + 1)) {
+                    neighbouringVoxelValues += newValues[index + strideZ];
+                    neighbouringVoxels++;
+                }
+                double value = (oldValues[index] + a * neighbouringVoxelValues) / (1 + neighbouringVoxels * a);
+                maxChange = Math.max(maxChange, Math.abs(value - newValues[index]));
+                newValues[index] = value;
+                if (reduction != null)
+                    reduction.add(value);
+            }
+        }
+        return maxChange;
+    }
+
+    @Override
+    public void diffuseSweeps(double[] newValues, double[] oldValues, double a, int sweeps) {
+        wavefront(sweeps, (slices, count) -> {
+            for (int slice = 0; slice < count; slice++)
+                for (int j = 1; j <= n; j++)
+                    diffuseRow(slices[slice], j, newValues, oldValues, a, null);
+        });
+    }
+
+    /**
+     * Calculates divergence of velocity into div and clears pressure, unless it is null.
+     */
+    @Override
+    public void divergence(double[] velX, double[] velY, double[] velZ, double[] div, double[] p, double h, FieldReduction divergence) {
+        ColumnTerrain terrain = volumeState.getTerrain();
+        FieldReduction[] partials = slicePartials(divergence);
+        forEachSlice(i -> {
+            FieldReduction sliceDivergence = partials == null ? null : partials[i];
+            for (int j = 1; j <= n; j++) {
+                int row = j * strideY + i * strideZ;
+                for (int index = row + 1; index <= row + n; index++) {
+                    div[index] = -0.5 * h * (
+                            velX[index + 1] - velX[index - 1]
+                                    + velY[index + strideY] - velY[index - strideY]
+                                    + velZ[index + strideZ] - velZ[index - strideZ]);
+                    if (p != null)
+                        p[index] = 0;
+                }
+                if (sliceDivergence != null) {
+                    for (int k = 1; k <= n; k++) {
+                        if (terrain.isFluid(k - 1, j - 1, i - 1 + zOffset))
+                            sliceDivergence.add(div[row + k] / (-h * h));
+                    }
+                }
+            }
+        });
+        mergePartials(divergence, partials);
+    }
+
+    /**
+     * One Gauss-Seidel sweep of pressure, over-relaxed unless omega is 1, with the stencil chosen by the volume state.
+     *
+     * @return largest change of any voxel
+     */
+    @Override
+    public double pressureSweep(double[] p, double[] div, double omega) {
+        return sweep((i, j) -> pressureRow(i, j, p, div, omega));
+    }
+
+    /**
+     * Walls of a slice are read only by the slice itself, and the bottom and top wall only by the slice next to them,
+     * so they are set as soon as a sweep is done with the slice.
+     */
+    @Override
+    public void pressureSweeps(double[] p, double[] div, double omega, int sweeps) {
+        wavefront(sweeps, (slices, count) -> {
+            int[] rows = new int[count];
+            for (int j = 1; j <= n; j++) {
+                for (int slice = 0; slice < count; slice++)
+                    rows[slice] = j * strideY + slices[slice] * strideZ;
+                for (int k = 1; k <= n; k++) {
+                    for (int slice = 0; slice < count; slice++) {
+                        int index = rows[slice] + k;
+                        double value = (div[index] + p[index - 1] + p[index + 1]
+                                + p[index - strideY] + p[index + strideY]
+                                + p[index - strideZ] + p[index + strideZ]) / pressureDivisor;
+                        if (omega != 1.0)
+                            value = p[index] + omega * (value - p[index]);
+                        p[index] = value;
+                    }
+                }
+            }
+            for (int slice = 0; slice < count; slice++)
+                setWallsOfSlice(p, slices[slice], 1.0, 1.0, 1.0);
+        });
+    }
+
+    private double pressureRow(int i, int j, double[] p, double[] div, double omega) {
+        double maxChange = 0;
+        int row = j * strideY + i * strideZ;
+        for (int index = row + 1; index <= row + n; index++) {
+            double value = (div[index] + p[index - 1] + p[index + 1]
+                    + p[index - strideY] + p[index + strideY]
+                    + p[index - strideZ] + p[index + strideZ]) / pressureDivisor;
+            if (omega != 1.0)
+                value = p[index] + omega * (value - p[index]);
+            maxChange = Math.max(maxChange, Math.abs(value - p[index]));
+            p[index] = value;
+        }
+        return maxChange;
+    }
+
+    /**
+     * Gauss-Seidel update of row j of slice i.
+     */
+    private interface RowSweep {
+        /**
+         * @return largest change of any voxel of the row
+         */
+        double sweep(int i, int j);
+    }
+
+    /**
+     * Runs a Gauss-Seidel sweep over rows, in order of slices and rows, or on hyperplanes when parallel.
+     *
+     * @return largest change of any voxel
+     */
+    private double sweep(RowSweep row) {
+        if (parallel)
+            return hyperplaneSweep(row);
+        double maxChange = 0;
+        for (int i = 1; i <= depth; i++) {
+            cancellationToken.throwIfCancelled();
+            for (int j = 1; j <= n; j++)
+                maxChange = Math.max(maxChange, row.sweep(i, j));
+        }
+        return maxChange;
+    }
+
+    /**
+     * Runs a Gauss-Seidel sweep over hyperplanes of rows with the same j + i, one after another. A row reads its
+     * neighbours at j - 1 and i - 1 (previous hyperplane) after they are updated and at j + 1 and i + 1 (next
+     * hyperplane) before, just as in a sweep in order of slices and rows, so it writes the same values; rows of one
+     * hyperplane do not read each other, so they are split into a chunk for every thread.
+     *
+     * @return largest change of any voxel
+     */
+    private double hyperplaneSweep(RowSweep row) {
+        int threads = pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        double[] maxChange = new double[1];
+        inPool(() -> {
+            for (int plane = 2; plane <= n + depth; plane++) {
+                cancellationToken.throwIfCancelled();
+                int currentPlane = plane;
+                int fromJ = Math.max(1, plane - depth);
+                int rows = Math.min(n, plane - 1) - fromJ + 1;
+                int chunks = Math.min(rows, threads);
+                double planeChange = IntStream.range(0, chunks).parallel().mapToDouble(chunk -> {
+                    double chunkChange = 0;
+                    for (int j = fromJ + chunk * rows / chunks; j < fromJ + (chunk + 1) * rows / chunks; j++)
+                        chunkChange = Math.max(chunkChange, row.sweep(currentPlane - j, j));
+                    return chunkChange;
+                }).max().orElse(0);
+                maxChange[0] = Math.max(maxChange[0], planeChange);
+            }
+        });
+        return maxChange[0];
+    }
+
+    /**
+     * Runs sweeps over slices as a wavefront: sweep s of slice i runs in step i + 2 s, after sweep s of slice i - 1 and
+     * sweep s - 1 of slice i + 1 and before sweep s of slice i + 1, so every slice reads the same neighbours as in
+     * sweeps run one by one. Slices of one step are two apart and do not read each other, so they are swept together.
+     */
+    private void wavefront(int sweeps, SliceGroupSweep sliceSweep) {
+        int[] slices = new int[sweeps];
+        for (int step = 1; step <= depth + 2 * (sweeps - 1); step++) {
+            cancellationToken.throwIfCancelled();
+            // sweeps with a slice 1 ... depth in this step
+            int fromSweep = Math.max(0, (step - depth + 1) / 2);
+            int toSweep = Math.min(sweeps - 1, (step - 1) / 2);
+            int count = toSweep - fromSweep + 1;
+            for (int sweep = fromSweep; sweep <= toSweep; sweep++)
+                slices[sweep - fromSweep] = step - 2 * sweep;
+            if (parallel && count > 1)
+                inPool(() -> IntStream.range(0, count).parallel()
+                        .forEach(slice -> sliceSweep.sweep(new int[]{slices[slice]}, 1)));
+            else
+                sliceSweep.sweep(slices, count);
+        }
+    }
+
+    /**
+     * Sweep of slices which do not read each other, in any order or interleaved.
+     */
+    private interface SliceGroupSweep {
+        void sweep(int[] slices, int count);
+    }
+
+    @Override
+    public void subtractGradient(double[] velX, double[] velY, double[] velZ, double[] p, double h, FieldReduction speed) {
+        ColumnTerrain terrain = volumeState.getTerrain();
+        FieldReduction[] partials = slicePartials(speed);
+        forEachSlice(i -> {
+            FieldReduction sliceSpeed = partials == null ? null : partials[i];
+            for (int j = 1; j <= n; j++) {
+                int row = j * strideY + i * strideZ;
+                for (int index = row + 1; index <= row + n; index++) {
+                    velX[index] -= 0.5 * (p[index + 1] - p[index - 1]) / h;
+                    velY[index] -= 0.5 * (p[index + strideY] - p[index - strideY]) / h;
+                    velZ[index] -= 0.5 * (p[index + strideZ] - p[index - strideZ]) / h;
+                }
+                if (sliceSpeed != null) {
+                    for (int k = 1; k <= n; k++) {
+                        int index = row + k;
+                        if (terrain.isFluid(k - 1, j - 1, i - 1 + zOffset))
+                            sliceSpeed.add(Math.sqrt(velX[index] * velX[index] + velY[index] * velY[index] + velZ[index] * velZ[index]));
+                    }
+                }
+            }
+        });
+        mergePartials(speed, partials);
+    }
+
+    /**
+     * Semi-Lagrangian advection of the whole volume. Old values are indexed with x and z cell swapped, as they always
+     * have been.
+     *
+     * Kernel stays scalar: with jdk.incubator.vector of Java 17, casts of positions to cells are not vectorized, eight
+     * lane gathers crash the compiler and four lane ones were slower than this loop.
+     */
+    @Override
+    public void advect(double[] newValues, double[] oldValues, double[] velocX, double[] velocY, double[] velocZ) {
+        advect(newValues, oldValues, 0, strideY, strideZ, velocX, velocY, velocZ);
+    }
+
+    /**
+     * Semi-Lagrangian advection of a part of the volume, the same as of the whole volume: back-traced positions are
+     * in the whole volume, and old values are read from columns of it.
+     */
+    @Override
+    public void advectInSlab(double[] newValues, double[] oldColumns, int fromX, int toX, double[] velocX, double[] velocY, double[] velocZ) {
+        int width = toX - fromX + 1;
+        advect(newValues, oldColumns, fromX, width, width * strideY, velocX, velocY, velocZ);
+    }
+
+    /**
+     * @param oldFromX    x cell of the first old value of every row
+     * @param oldStrideY  index distance between old values along y axis
+     * @param oldStrideZ  index distance between old values along z axis
+     */
+    private void advect(double[] newValues, double[] oldValues, int oldFromX, int oldStrideY, int oldStrideZ,
+                        double[] velocX, double[] velocY, double[] velocZ) {
+        double dt0 = volumeState.getDt() * n;
+        forEachSlice(i -> {
+            // slice in the whole volume
+            int volumeI = i + zOffset;
+            for (int j = 1; j <= n; j++) {
+                int row = j * strideY + i * strideZ;
+                for (int k = 1; k <= n; k++) {
+                    int index = row + k;
+                    double x = k - dt0 * velocX[index];
+                    double y = j - dt0 * velocY[index];
+                    double z = volumeI - dt0 * velocZ[index];
+                    if (x < 0.5)
+                        x = 0.5;
+                    if (x > n + 0.5)
+                        x = n + 0.5;
+                    int i0 = (int) x;
+                    if (y < 0.5)
+                        y = 0.5;
+                    if (y > n + 0.5)
+                        y = n + 0.5;
+                    int j0 = (int) y;
+                    if (z < 0.5)
+                        z = 0.5;
+                    if (z > n + 0.5)
+                        z = n + 0.5;
+                    int k0 = (int) z;
+
+                    double s1 = x - i0;
+                    double s0 = 1 - s1;
+                    double t1 = y - j0;
+                    double t0 = 1 - t1;
+                    double u0 = z - k0;
+                    double u1 = 1 - u0;
+
+                    // corner (k0, j0, i0), further corners are one stride away along each axis
+                    int corner = k0 - oldFromX + j0 * oldStrideY + i0 * oldStrideZ;
+                    newValues[index] = s0 * (
+                            t0 * (u0 * oldValues[corner] + u1 * oldValues[corner + oldStrideZ]) +
+                                    t1 * (u0 * oldValues[corner + oldStrideY] + u1 * oldValues[corner + oldStrideY + oldStrideZ])) +
+                            s1 * (
+                                    t0 * (u0 * oldValues[corner + 1] + u1 * oldValues[corner + 1 + oldStrideZ]) +
+                                            t1 * (u0 * oldValues[corner + 1 + oldStrideY] + u1 * oldValues[corner + 1 + oldStrideY + oldStrideZ]));
+                }
+            }
+        });
+    }
+
+    // BOUNDARY methods
+
+    @Override
+    public void setBnd(int b, double[] x) {
+        if (b == 1)
+            setBndX(x);
+        else if (b == 2)
+            setBndY(x);
+        else if (b == 3)
+            setBndZ(x);
+        else
+            setBndScalar(x);
+    }
+
+    /**
+     * Boundary of a scalar field: walls of the volume copy their neighbour.
+     */
+    private void setBndScalar(double[] x) {
+        setWalls(x, 1.0, 1.0, 1.0);
+        setCorners(x);
+    }
+
+    /**
+     * Boundary of velocity along x axis: it is negated on walls perpendicular to x axis and on terrain walls along x axis.
+     */
+    private void setBndX(double[] x) {
+        setWalls(x, -1.0, 1.0, 1.0);
+        reflectOnColumnWalls(x, 1, 0);
+        setCorners(x);
+    }
+
+    private void setBndY(double[] x) {
+        setWalls(x, 1.0, -1.0, 1.0);
+        reflectOnColumnWalls(x, 0, 1);
+        setCorners(x);
+    }
+
+    private void setBndZ(double[] x) {
+        setWalls(x, 1.0, 1.0, -1.0);
+        reflectOnFloorAndSurface(x);
+        setCorners(x);
+    }
+
+    // PRIVATE methods
+
+    /**
+     * Runs slice for every z slice 1 ... depth, checking cancellation before each.
+     */
+    private void forEachSlice(IntConsumer slice) {
+        if (parallel) {
+            inPool(() -> IntStream.rangeClosed(1, depth).parallel().forEach(i -> {
+                cancellationToken.throwIfCancelled();
+                slice.accept(i);
+            }));
+            return;
+        }
+        for (int i = 1; i <= depth; i++) {
+            cancellationToken.throwIfCancelled();
+            slice.accept(i);
+        }
+    }
+
+    /**
+     * Runs parallel stream of the task in the pool of kernels, streams started inside a pool stay in it.
+     */
+    private void inPool(Runnable task) {
+        if (pool == null)
+            task.run();
+        else
+            pool.submit(task).join();
+    }
+
+    /**
+     * @return reduction of every slice, indexed by slice - the reduction itself when slices run one after another,
+     * null when nothing is gathered
+     */
+    private FieldReduction[] slicePartials(FieldReduction reduction) {
+        if (reduction == null)
+            return null;
+        FieldReduction[] partials = new FieldReduction[depth + 1];
+        for (int i = 1; i <= depth; i++)
+            partials[i] = parallel ? reduction.emptyCopy() : reduction;
+        return partials;
+    }
+
+    private void mergePartials(FieldReduction reduction, FieldReduction[] partials) {
+        if (reduction == null || !parallel)
+            return;
+        for (int i = 1; i <= depth; i++)
+            reduction.merge(partials[i]);
+    }
+
+    /**
+     * Sets voxels outside the volume to value of their neighbour inside, multiplied by sign of the wall's axis.
+     * Top and bottom walls only belong to the part of the volume, which contains them.
+     */
+    private void setWalls(double[] x, double signX, double signY, double signZ) {
+        // walls only read voxels inside the volume, so slices can be set one after another
+        for (int k = 1; k <= depth; k++)
+            setWallsOfSlice(x, k, signX, signY, signZ);
+    }
+
+    /**
+     * Sets walls along x and y axis of slice k, and the bottom or top wall next to it.
+     */
+    private void setWallsOfSlice(double[] x, int k, double signX, double signY, double signZ) {
+        if (k == 1 && volumeState.containsBottom()) {
+            for (int j = 1; j <= n; j++) {
+                int row = j * strideY;
+                for (int index = row + 1; index <= row + n; index++)
+                    x[index] = signZ * x[index + strideZ];
+            }
+        }
+        if (k == depth && volumeState.containsTop()) {
+            for (int j = 1; j <= n; j++) {
+                int row = j * strideY + (depth + 1) * strideZ;
+                for (int index = row + 1; index <= row + n; index++)
+                    x[index] = signZ * x[index - strideZ];
+            }
+        }
+        int front = k * strideZ;
+        int back = (n + 1) * strideY + k * strideZ;
+        for (int i = 1; i <= n; i++) {
+            x[front + i] = signY * x[front + i + strideY];
+            x[back + i] = signY * x[back + i - strideY];
+        }
+        for (int j = 1; j <= n; j++) {
+            int row = j * strideY + k * strideZ;
+            x[row] = signX * x[row + 1];
+            x[row + n + 1] = signX * x[row + n];
+        }
+    }
+
+    private void setCorners(double[] x) {
+        if (volumeState.containsBottom())
+            setCornersOfSlice(x, 0, strideZ);
+        if (volumeState.containsTop())
+            setCornersOfSlice(x, (depth + 1) * strideZ, -strideZ);
+    }
+
+    /**
+     * Corners of slice starting at given index are set to average of their neighbours in the slice and the slice
+     * towards the inside of the volume.
+     */
+    private void setCornersOfSlice(double[] x, int slice, int inside) {
+        int last = n + 1;
+        int corner = slice;
+        x[corner] = 0.33f * (x[corner + 1] + x[corner + strideY] + x[corner + inside]);
+        corner = slice + last * strideY;
+        x[corner] = 0.33f * (x[corner + 1] + x[corner - strideY] + x[corner + inside]);
+        corner = slice + last;
+        x[corner] = 0.33f * (x[corner - 1] + x[corner + strideY] + x[corner + inside]);
+        corner = slice + last + last * strideY;
+        x[corner] = 0.33f * (x[corner - 1] + x[corner - strideY] + x[corner + inside]);
+    }
+
+    /**
+     * Non-fluid voxels next to fluid along x or y axis get negated value of that fluid neighbour
+     * (the one in negative direction has priority). Only heights of non-fluid parts of every column are visited.
+     */
+    private void reflectOnColumnWalls(double[] x, int dx, int dy) {
+        ColumnTerrain terrain = volumeState.getTerrain();
+        int stride = dx + dy * strideY;
+        for (int volumeSizeY = 0; volumeSizeY < n; volumeSizeY++) {
+            for (int volumeSizeX = 0; volumeSizeX < n; volumeSizeX++) {
+                int previousX = volumeSizeX - dx;
+                int previousY = volumeSizeY - dy;
+                int nextX = volumeSizeX + dx;
+                int nextY = volumeSizeY + dy;
+                // heights at which any of the neighbouring columns is fluid, limited to the part of the volume held
+                int fromZ = n;
+                int toZ = 0;
+                if (previousX >= 0 && previousY >= 0) {
+                    fromZ = Math.min(fromZ, terrain.getFluidStart(previousX, previousY));
+                    toZ = Math.max(toZ, terrain.getAirStart(previousX, previousY));
+                }
+                if (nextX < n && nextY < n) {
+                    fromZ = Math.min(fromZ, terrain.getFluidStart(nextX, nextY));
+                    toZ = Math.max(toZ, terrain.getAirStart(nextX, nextY));
+                }
+                int fluidStart = terrain.getFluidStart(volumeSizeX, volumeSizeY);
+                int airStart = terrain.getAirStart(volumeSizeX, volumeSizeY);
+                if (fluidStart >= airStart) {
+                    // whole column is non-fluid
+                    fluidStart = n;
+                    airStart = n;
+                }
+                fromZ = Math.max(fromZ, zOffset);
+                toZ = Math.min(toZ, zOffset + depth);
+                for (int volumeSizeZ = fromZ; volumeSizeZ < Math.min(toZ, fluidStart); volumeSizeZ++)
+                    reflectOnColumnWall(x, stride, volumeSizeX, volumeSizeY, volumeSizeZ, previousX, previousY, nextX, nextY);
+                for (int volumeSizeZ = Math.max(fromZ, airStart); volumeSizeZ < toZ; volumeSizeZ++)
+                    reflectOnColumnWall(x, stride, volumeSizeX, volumeSizeY, volumeSizeZ, previousX, previousY, nextX, nextY);
+            }
+        }
+    }
+
+    private void reflectOnColumnWall(double[] x, int stride, int volumeSizeX, int volumeSizeY, int volumeSizeZ, int previousX, int previousY, int nextX, int nextY) {
+        ColumnTerrain terrain = volumeState.getTerrain();
+        int index = (volumeSizeX + 1) + (volumeSizeY + 1) * strideY + (volumeSizeZ + 1 - zOffset) * strideZ;
+        if (terrain.isFluid(previousX, previousY, volumeSizeZ))
+            x[index] = -x[index - stride];
+        else if (terrain.isFluid(nextX, nextY, volumeSizeZ))
+            x[index] = -x[index + stride];
+    }
+
+    /**
+     * Non-fluid voxels directly below or above fluid part of a column get negated value of that fluid neighbour.
+     */
+    private void reflectOnFloorAndSurface(double[] x) {
+        ColumnTerrain terrain = volumeState.getTerrain();
+        int fromZ = zOffset;
+        int toZ = zOffset + depth;
+        for (int volumeSizeY = 0; volumeSizeY < n; volumeSizeY++) {
+            for (int volumeSizeX = 0; volumeSizeX < n; volumeSizeX++) {
+                int fluidStart = terrain.getFluidStart(volumeSizeX, volumeSizeY);
+                int airStart = terrain.getAirStart(volumeSizeX, volumeSizeY);
+                if (fluidStart >= airStart)
+                    continue;
+                int column = (volumeSizeX + 1) + (volumeSizeY + 1) * strideY;
+                if (fluidStart > 0 && fluidStart - 1 >= fromZ && fluidStart - 1 < toZ) {
+                    int index = column + (fluidStart - fromZ) * strideZ;
+                    x[index] = -x[index + strideZ];
+                }
+                if (airStart < n && airStart >= fromZ && airStart < toZ) {
+                    int index = column + (airStart + 1 - fromZ) * strideZ;
+                    x[index] = -x[index - strideZ];
+                }
+            }
+        }
+    }
+}
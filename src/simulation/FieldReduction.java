@@ -0,0 +1,137 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Accumulates statistics (count, min, max, sum, sum of squares and a coarse histogram) of values, as kernels write them.
+ * Every thread or slab gets its own partial reduction, partials are merged once the kernel is done.
+ */
+public class FieldReduction {
+
+    private long count;
+    private double min;
+    private double max;
+    private double sum;
+    private double sumOfSquares;
+    // histogram bins are spread over [histogramLow, histogramLow + bins * histogramWidth), outliers go to edge bins
+    private final long[] histogram;
+    private double histogramLow;
+    private double histogramWidth;
+
+    public FieldReduction(int numOfBins) {
+        this.histogram = new long[numOfBins];
+        reset();
+    }
+
+    public void setHistogramRange(double low, double high) {
+        this.histogramLow = low;
+        this.histogramWidth = high > low ? (high - low) / this.histogram.length : 0;
+    }
+
+    public void reset() {
+        this.count = 0;
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+        this.sum = 0;
+        this.sumOfSquares = 0;
+        Arrays.fill(this.histogram, 0);
+    }
+
+    public void add(double value) {
+        this.count++;
+        if (value < this.min)
+            this.min = value;
+        if (value > this.max)
+            this.max = value;
+        this.sum += value;
+        this.sumOfSquares += value * value;
+        if (this.histogramWidth > 0) {
+            int bin = (int) ((value - this.histogramLow) / this.histogramWidth);
+            this.histogram[Math.max(0, Math.min(this.histogram.length - 1, bin))]++;
+        }
+    }
+
+    /**
+     * @return new empty reduction with the same histogram bins, e.g. a partial of another thread
+     */
+    public FieldReduction emptyCopy() {
+        FieldReduction copy = new FieldReduction(this.histogram.length);
+        copy.histogramLow = this.histogramLow;
+        copy.histogramWidth = this.histogramWidth;
+        return copy;
+    }
+
+    public void merge(FieldReduction other) {
+        this.count += other.count;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        this.sum += other.sum;
+        this.sumOfSquares += other.sumOfSquares;
+        for (int i = 0; i < this.histogram.length; i++)
+            this.histogram[i] += other.histogram[i];
+    }
+
+    /**
+     * @return new reduction, containing all values of given partial reductions
+     */
+    public static FieldReduction merge(List<FieldReduction> partials, int numOfBins) {
+        FieldReduction result = new FieldReduction(numOfBins);
+        for (FieldReduction partial : partials)
+            result.merge(partial);
+        if (!partials.isEmpty()) {
+            result.histogramLow = partials.get(0).histogramLow;
+            result.histogramWidth = partials.get(0).histogramWidth;
+        }
+        return result;
+    }
+
+    // GETTER methods
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public double getL2Norm() {
+        return Math.sqrt(sumOfSquares);
+    }
+
+    public double getRootMeanSquare() {
+        return count == 0 ? 0 : Math.sqrt(sumOfSquares / count);
+    }
+
+    /**
+     * @return number of values in every bin (empty if histogram range was not set)
+     */
+    public long[] getHistogram() {
+        return histogram;
+    }
+
+    public double getHistogramLow() {
+        return histogramLow;
+    }
+
+    public double getHistogramWidth() {
+        return histogramWidth;
+    }
+
+}
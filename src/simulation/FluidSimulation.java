@@ -1,258 +1,384 @@
 package simulation;
 
+import data.ColumnTerrain;
 import data.VolumeState;
 import data.VoxelType;
+import generation.SurfaceAnimation;
+import util.CancellationToken;
 import util.ProgramUtils;
+import util.ProgressEvent;
+import util.ProgressListener;
+import util.ProgressTracker;
 import util.VolumeUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class FluidSimulation {
 
     private final VolumeState volumeState;
+    private final SimulationBackend backend;
 
     private static final List<VoxelType> nonFluidVoxelTypes = List.of(VoxelType.AIR, VoxelType.OBJECT, VoxelType.FLOOR);
 
+    // number of iterations every solve of the last step needed
+    private final List<Integer> diffusionIterations = new ArrayList<>();
+    private final List<Integer> pressureIterations = new ArrayList<>();
+    // reductions of the last step, gathered by kernels
+    private StepDiagnostics lastStepDiagnostics;
+    // exchanges boundary layers with neighbouring parts, when volume is split between processes
+    private HaloExchange haloExchange = HaloExchange.NONE;
+    // columns of old values gathered from all parts for advection of a split volume, as many as the last one needed
+    private double[] oldColumns = new double[0];
+    // moves the surface before every step, null when it stands still
+    private SurfaceAnimation surfaceAnimation;
+    // reports simulated steps, when somebody follows them
+    private ProgressTracker stepProgress = new ProgressTracker(ProgressListener.NONE, ProgressEvent.Stage.STEP, 0);
+    private int simulatedSteps;
+    // receives volume state after every phase, e.g. for comparison with the reference implementation
+    private PhaseObserver phaseObserver = PhaseObserver.NONE;
+
     public FluidSimulation(VolumeState volumeState) {
+        this(volumeState, SimulationBackends.create(SimulationBackends.SCALAR, volumeState));
+    }
+
+    /**
+     * @param backend runs single phases of the solver, created for this volume state
+     */
+    public FluidSimulation(VolumeState volumeState, SimulationBackend backend) {
         this.volumeState = volumeState;
+        this.backend = backend;
     }
 
     public void simulateStep() {
+        StepDiagnostics diagnostics = startStep(true);
+        solveVelocities(diagnostics);
+        solveDensities(diagnostics);
+    }
+
+    /**
+     * Simulates densities only, moved by velocities already in the volume state (e.g. replayed from a velocity cache).
+     * Velocities and pressure are left as they are, so diagnostics have no speed or divergence.
+     */
+    public void simulateDensityStep() {
+        solveDensities(startStep(false));
+    }
+
+    private StepDiagnostics startStep(boolean withVelocities) {
+        diffusionIterations.clear();
+        pressureIterations.clear();
+        if (surfaceAnimation != null)
+            moveSurface(withVelocities);
+        return new StepDiagnostics(volumeState.getDensityMinMax());
+    }
+
+    private void solveVelocities(StepDiagnostics diagnostics) {
         ProgramUtils.displayMessageWithTimestamp("velocity solver - diffusion");
         volumeState.swapVelocityX();
-        diffuse(1, volumeState.getVelocityX(), volumeState.getOldVelocityX(), volumeState.getViscosityRate());
+        diffuse(1, volumeState.getVelocityX(), volumeState.getOldVelocityX(), volumeState.getViscosityRate(), null);
+        phaseObserver.afterPhase(SolverPhase.DIFFUSE_VELOCITY_X, volumeState);
         volumeState.swapVelocityY();
-        diffuse(2, volumeState.getVelocityY(), volumeState.getOldVelocityY(), volumeState.getViscosityRate());
+        diffuse(2, volumeState.getVelocityY(), volumeState.getOldVelocityY(), volumeState.getViscosityRate(), null);
+        phaseObserver.afterPhase(SolverPhase.DIFFUSE_VELOCITY_Y, volumeState);
         volumeState.swapVelocityZ();
-        diffuse(3, volumeState.getVelocityZ(), volumeState.getOldVelocityZ(), volumeState.getViscosityRate());
-        project(volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY());
+        diffuse(3, volumeState.getVelocityZ(), volumeState.getOldVelocityZ(), volumeState.getViscosityRate(), null);
+        phaseObserver.afterPhase(SolverPhase.DIFFUSE_VELOCITY_Z, volumeState);
+        project(volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ(), pressureArray(), volumeState.getOldVelocityY(), null, null);
+        phaseObserver.afterPhase(SolverPhase.PROJECT_DIFFUSED, volumeState);
         volumeState.swapVelocityX();
         volumeState.swapVelocityY();
         volumeState.swapVelocityZ();
         ProgramUtils.displayMessageWithTimestamp("velocity solver - advection");
         advect(1, volumeState.getVelocityX(), volumeState.getOldVelocityX(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY(), volumeState.getOldVelocityZ());
+        phaseObserver.afterPhase(SolverPhase.ADVECT_VELOCITY_X, volumeState);
         advect(2, volumeState.getVelocityY(), volumeState.getOldVelocityY(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY(), volumeState.getOldVelocityZ());
+        phaseObserver.afterPhase(SolverPhase.ADVECT_VELOCITY_Y, volumeState);
         advect(3, volumeState.getVelocityZ(), volumeState.getOldVelocityZ(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY(), volumeState.getOldVelocityZ());
-        project(volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY());
+        phaseObserver.afterPhase(SolverPhase.ADVECT_VELOCITY_Z, volumeState);
+        project(volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ(), pressureArray(), volumeState.getOldVelocityY(), diagnostics.speedPartial(), diagnostics.divergencePartial());
+        phaseObserver.afterPhase(SolverPhase.PROJECT_ADVECTED, volumeState);
+    }
 
+    private void solveDensities(StepDiagnostics diagnostics) {
         ProgramUtils.displayMessageWithTimestamp("density solver");
 //        volumeState.swapDensity();
-        diffuse(0, volumeState.getNewDensities(), volumeState.getOldDensities(), volumeState.getDiffusionRate());
+        // diffused densities are the ones saved to output, so their statistics are gathered
+        diffuse(0, volumeState.getNewDensities(), volumeState.getOldDensities(), volumeState.getDiffusionRate(), diagnostics.densityPartial());
+        phaseObserver.afterPhase(SolverPhase.DIFFUSE_DENSITY, volumeState);
         volumeState.swapDensity();
         advect(0, volumeState.getNewDensities(), volumeState.getOldDensities(), volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ());
+        phaseObserver.afterPhase(SolverPhase.ADVECT_DENSITY, volumeState);
 //        volumeState.swapDensity();
+        diagnostics.finish();
+        lastStepDiagnostics = diagnostics;
+        if (diagnostics.getDensity().getCount() > 0)
+            volumeState.setDensityMinMax(new double[]{diagnostics.getDensity().getMin(), diagnostics.getDensity().getMax()});
+        ProgramUtils.displayMessageWithTimestamp("solver iterations - diffusion: " + diffusionIterations + ", pressure: " + pressureIterations);
+        ProgramUtils.displayMessageWithTimestamp("diagnostics - " + diagnostics);
+        stepProgress.done(++simulatedSteps);
     }
 
-    private void diffuse(int b, double[] newValues, double[] oldValues, double diff) {
-        double a = volumeState.getDt() * diff * volumeState.getN() * volumeState.getN();
-        for (int it = 0; it < volumeState.getIter(); it++) {
-            for (int i = 1; i <= volumeState.getN(); i++) {
-                for (int j = 1; j <= volumeState.getN(); j++) {
-                    for (int k = 1; k <= volumeState.getN(); k++) {
-                        int volumeSizeX = k - 1;
-                        int volumeSizeY = j - 1;
-                        int volumeSizeZ = i - 1;
-                        if (!volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY, volumeSizeZ)].equals(VoxelType.FLUID))
-                            continue;
-                        int neighbouringVoxels = 0;
-                        double neighbouringVoxelValues = 0;
-                        if (volumeSizeX - 1 >= 0 && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX - 1, volumeSizeY, volumeSizeZ)].equals(VoxelType.FLUID)) {
-                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(volumeState.getSize(), k - 1, j, i)];
-                            neighbouringVoxels++;
-                        }
-                        if (volumeSizeX + 1 < volumeState.getN() && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX + 1, volumeSizeY, volumeSizeZ)].equals(VoxelType.FLUID)) {
-                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(volumeState.getSize(), k + 1, j, i)];
-                            neighbouringVoxels++;
-                        }
-                        if (volumeSizeY - 1 >= 0 && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY - 1, volumeSizeZ)].equals(VoxelType.FLUID)) {
-                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(volumeState.getSize(), k, j - 1, i)];
-                            neighbouringVoxels++;
-                        }
-                        if (volumeSizeY + 1 < volumeState.getN() && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY + 1, volumeSizeZ)].equals(VoxelType.FLUID)) {
-                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(volumeState.getSize(), k, j + 1, i)];
-                            neighbouringVoxels++;
-                        }
-                        if (volumeSizeZ - 1 >= 0 && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY, volumeSizeZ - 1)].equals(VoxelType.FLUID)) {
-                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i - 1)];
-                            neighbouringVoxels++;
+    /**
+     * Moves terrain to the surface of the next step. Voxels which become fluid get values of the highest fluid voxel of
+     * their column below them; in columns without fluid, they get values of a neighbouring column with fluid at the
+     * same height (or its nearest fluid voxel), or base density and no velocity if no neighbour has fluid. Voxels which
+     * become air keep their values, which are never read as fluid.
+     *
+     * @param withVelocities false to copy densities only, when velocities of the step are already given
+     */
+    private void moveSurface(boolean withVelocities) {
+        ColumnTerrain terrain = volumeState.getTerrain();
+        ColumnTerrain moved = surfaceAnimation.advance(terrain, volumeState.getDt());
+        if (moved == terrain)
+            return;
+        double[][] fields = withVelocities
+                ? new double[][]{volumeState.getOldDensities(), volumeState.getNewDensities(),
+                volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ(),
+                volumeState.getOldVelocityX(), volumeState.getOldVelocityY(), volumeState.getOldVelocityZ()}
+                : new double[][]{volumeState.getOldDensities(), volumeState.getNewDensities()};
+        int n = volumeState.getN();
+        int size = volumeState.getSize();
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                int oldAirStart = terrain.getAirStart(x, y);
+                int newAirStart = moved.getAirStart(x, y);
+                int fluidStart = terrain.getFluidStart(x, y);
+                // only rising surface above floor and object creates new fluid voxels
+                if (newAirStart <= oldAirStart || newAirStart <= fluidStart)
+                    continue;
+                // new voxels only read fluid voxels of the old terrain, so columns can be filled in any order
+                int sourceX = x;
+                int sourceY = y;
+                if (oldAirStart <= fluidStart) {
+                    int neighbour = wetNeighbour(terrain, x, y);
+                    if (neighbour < 0) {
+                        for (int z = fluidStart; z < newAirStart; z++) {
+                            int index = VolumeUtils.indexIn3D(size, x + 1, y + 1, z + 1);
+                            for (int field = 0; field < fields.length; field++)
+                                fields[field][index] = field < 2 ? volumeState.getDensityBase() : 0;
                         }
-                        if (volumeSizeZ + 1 <= volumeState.getN() && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY, volumeSizeZ + 1)].equals(VoxelType.FLUID)) {
-                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i + 1)];
-                            neighbouringVoxels++;
-                        }
-                        newValues[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = (oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] + a * neighbouringVoxelValues) / (1 + neighbouringVoxels * a);
+                        continue;
                     }
+                    sourceX = neighbour % n;
+                    sourceY = neighbour / n;
+                }
+                int sourceFluidStart = terrain.getFluidStart(sourceX, sourceY);
+                int sourceAirStart = terrain.getAirStart(sourceX, sourceY);
+                for (int z = Math.max(oldAirStart, fluidStart); z < newAirStart; z++) {
+                    int sourceZ = Math.max(sourceFluidStart, Math.min(z, sourceAirStart - 1));
+                    int source = VolumeUtils.indexIn3D(size, sourceX + 1, sourceY + 1, sourceZ + 1);
+                    int index = VolumeUtils.indexIn3D(size, x + 1, y + 1, z + 1);
+                    for (double[] field : fields)
+                        field[index] = field[source];
                 }
             }
-            setBnd(b, newValues);
         }
+        volumeState.setTerrain(moved);
     }
 
-    private void advect(int b, double[] newValues, double[] oldValues, double[] velocX, double[] velocY, double[] velocZ) {
-        int i0, j0, k0, i1, j1, k1;
-        double x, y, z, s0, t0, u0, s1, t1, u1, dt0;
-
-        dt0 = volumeState.getDt() * volumeState.getN();
-        for (int i = 1; i <= volumeState.getN(); i++) {
-            for (int j = 1; j <= volumeState.getN(); j++) {
-                for (int k = 1; k <= volumeState.getN(); k++) {
-                    x = k - dt0 * velocX[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)];
-                    y = j - dt0 * velocY[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)];
-                    z = i - dt0 * velocZ[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)];
-                    if (x < 0.5)
-                        x = 0.5;
-                    if (x > volumeState.getN() + 0.5)
-                        x = volumeState.getN() + 0.5;
-                    i0 = (int) x;
-                    i1 = i0 + 1;
-                    if (y < 0.5)
-                        y = 0.5;
-                    if (y > volumeState.getN() + 0.5)
-                        y = volumeState.getN() + 0.5;
-                    j0 = (int) y;
-                    j1 = j0 + 1;
-                    if (z < 0.5)
-                        z = 0.5;
-                    if (z > volumeState.getN() + 0.5)
-                        z = volumeState.getN() + 0.5;
-                    k0 = (int) z;
-                    k1 = k0 + 1;
-
-                    s1 = x - i0;
-                    s0 = 1 - s1;
-                    t1 = y - j0;
-                    t0 = 1 - t1;
-                    u0 = z - k0;
-                    u1 = 1 - u0;
-
-                    newValues[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = s0 * (
-                            t0 * (u0 * oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k0, j0, i0)] + u1 * oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k0, j0, i1)]) +
-                                    t1 * (u0 * oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k0, j1, i0)] + u1 * oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k0, j1, i1)])) +
-                            s1 * (
-                                    t0 * (u0 * oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k1, j0, i0)] + u1 * oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k1, j0, i1)]) +
-                                            t1 * (u0 * oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k1, j1, i0)] + u1 * oldValues[VolumeUtils.indexIn3D(volumeState.getSize(), k1, j1, i1)]));
-                }
-            }
+    /**
+     * @return column (VolumeUtils.indexIn2D) next to the given one, which has fluid, or -1 if there is none
+     */
+    private int wetNeighbour(ColumnTerrain terrain, int x, int y) {
+        int n = volumeState.getN();
+        int[][] offsets = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+        for (int[] offset : offsets) {
+            int neighbourX = x + offset[0];
+            int neighbourY = y + offset[1];
+            if (neighbourX >= 0 && neighbourX < n && neighbourY >= 0 && neighbourY < n
+                    && terrain.getAirStart(neighbourX, neighbourY) > terrain.getFluidStart(neighbourX, neighbourY))
+                return VolumeUtils.indexIn2D(n, neighbourX, neighbourY);
         }
-        setBnd(b, newValues);
+        return -1;
     }
 
-    private void setBnd(int b, double[] x) {
-        for (int j = 1; j <= volumeState.getN(); j++) {
-            for (int i = 1; i <= volumeState.getN(); i++) {
-                x[VolumeUtils.indexIn3D(volumeState.getSize(), i, j, 0)] = b == 3 ? -x[VolumeUtils.indexIn3D(volumeState.getSize(), i, j, 1)] : x[VolumeUtils.indexIn3D(volumeState.getSize(), i, j, 1)];
-                x[VolumeUtils.indexIn3D(volumeState.getSize(), i, j, volumeState.getN() + 1)] = b == 3 ? -x[VolumeUtils.indexIn3D(volumeState.getSize(), i, j, volumeState.getN())] : x[VolumeUtils.indexIn3D(volumeState.getSize(), i, j, volumeState.getN())];
+    /**
+     * @param reduction if not null, gathers values of fluid voxels written in the last iteration
+     */
+    private void diffuse(int b, double[] newValues, double[] oldValues, double diff, FieldReduction reduction) {
+        double a = volumeState.getDt() * diff * volumeState.getN() * volumeState.getN();
+        int it = 0;
+        if (isBlocked()) {
+            // the last iteration runs alone, so it gathers statistics and walls reflect values of the one before it,
+            // as they would after iterations one by one
+            while (it < volumeState.getIter() - 1) {
+                int sweeps = Math.min(volumeState.getSweepsPerBlock(), volumeState.getIter() - 1 - it);
+                backend.diffuseSweeps(newValues, oldValues, a, sweeps);
+                it += sweeps;
             }
+            setBnd(b, newValues);
         }
-        for (int k = 1; k <= volumeState.getN(); k++) {
-            for (int i = 1; i <= volumeState.getN(); i++) {
-                x[VolumeUtils.indexIn3D(volumeState.getSize(), i, 0, k)] = b == 2 ? -x[VolumeUtils.indexIn3D(volumeState.getSize(), i, 1, k)] : x[VolumeUtils.indexIn3D(volumeState.getSize(), i, 1, k)];
-                x[VolumeUtils.indexIn3D(volumeState.getSize(), i, volumeState.getN() + 1, k)] = b == 2 ? -x[VolumeUtils.indexIn3D(volumeState.getSize(), i, volumeState.getN(), k)] : x[VolumeUtils.indexIn3D(volumeState.getSize(), i, volumeState.getN(), k)];
-            }
+        while (it < volumeState.getIter()) {
+            if (reduction != null)
+                reduction.reset();
+            // largest change of any voxel in this iteration
+            double maxChange = backend.diffuseSweep(newValues, oldValues, a, reduction);
+            setBnd(b, newValues);
+            haloExchange.exchange(newValues);
+            it++;
+            if (maxChange < volumeState.getTolerance())
+                break;
         }
-        for (int k = 1; k <= volumeState.getN(); k++) {
-            for (int j = 1; j <= volumeState.getN(); j++) {
-                x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, j, k)] = b == 1 ? -x[VolumeUtils.indexIn3D(volumeState.getSize(), 1, j, k)] : x[VolumeUtils.indexIn3D(volumeState.getSize(), 1, j, k)];
-                x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, j, k)] = b == 1 ? -x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN(), j, k)] : x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN(), j, k)];
-            }
+        diffusionIterations.add(it);
+    }
+
+    /**
+     * @return true if sweeps run in blocks - only with a fixed number of iterations, since convergence is known only
+     * after a whole block, and in whole volumes, since halos are exchanged after every sweep
+     */
+    private boolean isBlocked() {
+        return volumeState.getSweepsPerBlock() > 1 && volumeState.getTolerance() == 0 && !volumeState.isSplit();
+    }
+
+    private void advect(int b, double[] newValues, double[] oldValues, double[] velocX, double[] velocY, double[] velocZ) {
+        if (volumeState.isSplit()) {
+            // advection indexes old values with x and z cell swapped, so a part of the volume reads x cells near its
+            // own slices, but from any slice of the volume - those columns are gathered from all parts
+            int[] columns = advectedColumns(velocZ);
+            int length = (columns[1] - columns[0] + 1) * volumeState.getSize() * volumeState.getSize();
+            if (oldColumns.length < length)
+                oldColumns = new double[length];
+            haloExchange.gatherColumns(oldValues, volumeState.getSize(), columns[0], columns[1], oldColumns);
+            backend.advectInSlab(newValues, oldColumns, columns[0], columns[1], velocX, velocY, velocZ);
+        } else {
+            backend.advect(newValues, oldValues, velocX, velocY, velocZ);
         }
+        setBnd(b, newValues);
+        haloExchange.exchange(newValues);
+    }
 
-        // handle terrain inside fluid
-        for (int i = 1; i <= volumeState.getN(); i++) {
-            for (int j = 1; j <= volumeState.getN(); j++) {
-                for (int k = 1; k <= volumeState.getN(); k++) {
-                    int volumeSizeX = k - 1;
-                    int volumeSizeY = j - 1;
-                    int volumeSizeZ = i - 1;
-                    if (!volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY, volumeSizeZ)].equals(VoxelType.FLUID)) {
-                        if (b == 1) {
-                            // handling x axis walls
-//                            if (volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), k - 1, j - 1, i - 1)].equals(VoxelType.FLOOR) ||
-//                                    volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), k - 1, j - 1, i - 1)].equals(VoxelType.OBJECT)) {
-                            if (volumeSizeX - 1 >= 0 && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX - 1, volumeSizeY, volumeSizeZ)].equals(VoxelType.FLUID))
-                                x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = -x[VolumeUtils.indexIn3D(volumeState.getSize(), k - 1, j, i)];
-                            else if (volumeSizeX + 1 < volumeState.getN() && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX + 1, volumeSizeY, volumeSizeZ)].equals(VoxelType.FLUID))
-                                x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = -x[VolumeUtils.indexIn3D(volumeState.getSize(), k + 1, j, i)];
-//                            }
-                        } else if (b == 2) {
-                            // handling y axis walls
-//                            if (volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), k - 1, j - 1, i - 1)].equals(VoxelType.FLOOR) ||
-//                                    volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), k - 1, j - 1, i - 1)].equals(VoxelType.OBJECT)) {
-                            if (volumeSizeY - 1 >= 0 && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY - 1, volumeSizeZ)].equals(VoxelType.FLUID))
-                                x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = -x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j - 1, i)];
-                            else if (volumeSizeY + 1 < volumeState.getN() && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY + 1, volumeSizeZ)].equals(VoxelType.FLUID))
-                                x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = -x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j + 1, i)];
-//                            }
-                        } else if (b == 3) {
-                            // handling z axis walls
-//                            if (volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), k - 1, j - 1, i - 1)].equals(VoxelType.FLOOR) ||
-//                                    volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), k - 1, j - 1, i - 1)].equals(VoxelType.OBJECT)) {
-                            if (volumeSizeZ - 1 >= 0 && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY, volumeSizeZ - 1)].equals(VoxelType.FLUID))
-                                x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = -x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i - 1)];
-                            else if (volumeSizeZ + 1 < volumeState.getN() && volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), volumeSizeX, volumeSizeY, volumeSizeZ + 1)].equals(VoxelType.FLUID))
-                                x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = -x[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i + 1)];
-//                            }
-                        }
-                    }
+    /**
+     * @return lowest and highest x cell of old values read by advection of the part of the volume, from positions
+     * back-traced along z axis with the same arithmetic as the kernels use
+     */
+    private int[] advectedColumns(double[] velocZ) {
+        int n = volumeState.getN();
+        int size = volumeState.getSize();
+        double dt0 = volumeState.getDt() * n;
+        int fromX = n + 1;
+        int toX = 0;
+        for (int i = 1; i <= volumeState.getDepth(); i++) {
+            for (int j = 1; j <= n; j++) {
+                int row = j * size + i * size * size;
+                for (int k = 1; k <= n; k++) {
+                    double z = i + volumeState.getZOffset() - dt0 * velocZ[row + k];
+                    if (z < 0.5)
+                        z = 0.5;
+                    if (z > n + 0.5)
+                        z = n + 0.5;
+                    fromX = Math.min(fromX, (int) z);
+                    toX = Math.max(toX, (int) z + 1);
                 }
             }
         }
+        return new int[]{fromX, toX};
+    }
 
-        x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, 0, 0)] = 0.33f * (x[VolumeUtils.indexIn3D(volumeState.getSize(), 1, 0, 0)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, 1, 0)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, 0, 1)]);
-        x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, volumeState.getN() + 1, 0)] = 0.33f * (x[VolumeUtils.indexIn3D(volumeState.getSize(), 1, volumeState.getN() + 1, 0)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, volumeState.getN(), 0)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, volumeState.getN() + 1, 1)]);
-        x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, 0, volumeState.getN() + 1)] = 0.33f * (x[VolumeUtils.indexIn3D(volumeState.getSize(), 1, 0, volumeState.getN() + 1)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, 1, volumeState.getN() + 1)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, 0, volumeState.getN())]);
-        x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, volumeState.getN() + 1, volumeState.getN() + 1)] = 0.33f * (x[VolumeUtils.indexIn3D(volumeState.getSize(), 1, volumeState.getN() + 1, volumeState.getN() + 1)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, volumeState.getN(), volumeState.getN() + 1)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), 0, volumeState.getN() + 1, volumeState.getN())]);
-        x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, 0, 0)] = 0.33f * (x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN(), 0, 0)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, 1, 0)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, 0, 1)]);
-        x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, volumeState.getN() + 1, 0)] = 0.33f * (x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN(), volumeState.getN() + 1, 0)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, volumeState.getN(), 0)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, volumeState.getN() + 1, 1)]);
-        x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, 0, volumeState.getN() + 1)] = 0.33f * (x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN(), 0, volumeState.getN() + 1)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, 1, volumeState.getN() + 1)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, 0, volumeState.getN())]);
-        x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, volumeState.getN() + 1, volumeState.getN() + 1)] = 0.33f * (x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN(), volumeState.getN() + 1, volumeState.getN() + 1)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, volumeState.getN(), volumeState.getN() + 1)] + x[VolumeUtils.indexIn3D(volumeState.getSize(), volumeState.getN() + 1, volumeState.getN() + 1, volumeState.getN())]);
+    private void setBnd(int b, double[] x) {
+        backend.setBnd(b, x);
     }
 
-    private void project(double[] velX, double[] velY, double[] velZ, double[] p, double[] div) {
+    /**
+     * @param speed      if not null, gathers velocity magnitude of fluid voxels after projection
+     * @param divergence if not null, gathers divergence of fluid voxels before projection
+     */
+    private void project(double[] velX, double[] velY, double[] velZ, double[] p, double[] div, FieldReduction speed, FieldReduction divergence) {
         double h = 1.0 / volumeState.getN();
-        for (int i = 1; i <= volumeState.getN(); i++) {
-            for (int j = 1; j <= volumeState.getN(); j++) {
-                for (int k = 1; k <= volumeState.getN(); k++) {
-                    div[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = -0.5 * h * (
-                            velX[VolumeUtils.indexIn3D(volumeState.getSize(), k + 1, j, i)] - velX[VolumeUtils.indexIn3D(volumeState.getSize(), k - 1, j, i)]
-                                    + velY[VolumeUtils.indexIn3D(volumeState.getSize(), k, j + 1, i)] - velY[VolumeUtils.indexIn3D(volumeState.getSize(), k, j - 1, i)]
-                                    + velZ[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i + 1)] - velZ[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i - 1)]);
-                    p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = 0;
-                }
-            }
-        }
+        backend.divergence(velX, velY, velZ, div, volumeState.getPressure() == null ? p : null, h, divergence);
         setBnd(0, div);
         setBnd(0, p);
+        haloExchange.exchange(div);
+        haloExchange.exchange(p);
 
-        for (int it = 0; it <= volumeState.getIter(); it++) {
-            for (int i = 1; i <= volumeState.getN(); i++) {
-                for (int j = 1; j <= volumeState.getN(); j++) {
-                    for (int k = 1; k <= volumeState.getN(); k++) {
-                        p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = (div[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] + p[VolumeUtils.indexIn3D(volumeState.getSize(), k - 1, j, i)] + p[VolumeUtils.indexIn3D(volumeState.getSize(), k + 1, j, i)]
-                                + p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j - 1, i)] + p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j + 1, i)]
-                                + p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i - 1)] + p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i + 1)]) / 4;
-                    }
-                }
+        double omega = volumeState.getOverRelaxation();
+        // pressure has always been solved with one sweep more than the maximum number of iterations
+        int it = 0;
+        if (isBlocked()) {
+            while (it <= volumeState.getIter()) {
+                int sweeps = Math.min(volumeState.getSweepsPerBlock(), volumeState.getIter() + 1 - it);
+                backend.pressureSweeps(p, div, omega, sweeps);
+                it += sweeps;
             }
             setBnd(0, p);
         }
-
-        for (int i = 1; i <= volumeState.getN(); i++) {
-            for (int j = 1; j <= volumeState.getN(); j++) {
-                for (int k = 1; k <= volumeState.getN(); k++) {
-                    velX[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] -= 0.5 * (p[VolumeUtils.indexIn3D(volumeState.getSize(), k + 1, j, i)] - p[VolumeUtils.indexIn3D(volumeState.getSize(), k - 1, j, i)]) / h;
-                    velY[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] -= 0.5 * (p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j + 1, i)] - p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j - 1, i)]) / h;
-                    velZ[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] -= 0.5 * (p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i + 1)] - p[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i - 1)]) / h;
-                }
-            }
+        while (it <= volumeState.getIter()) {
+            // largest change of any voxel in this iteration
+            double maxChange = backend.pressureSweep(p, div, omega);
+            setBnd(0, p);
+            haloExchange.exchange(p);
+            it++;
+            if (maxChange < volumeState.getTolerance())
+                break;
         }
+        pressureIterations.add(it);
+
+        backend.subtractGradient(velX, velY, velZ, p, h, speed);
         setBnd(1, velX);
         setBnd(2, velY);
         setBnd(3, velZ);
+        haloExchange.exchange(velX);
+        haloExchange.exchange(velY);
+        haloExchange.exchange(velZ);
+    }
+
+    /**
+     * @return array for pressure solve - pressure is kept between projections when warm-starting, otherwise old
+     * velocity in x axis is used as scratch space
+     */
+    private double[] pressureArray() {
+        return volumeState.getPressure() != null ? volumeState.getPressure() : volumeState.getOldVelocityX();
+    }
+
+    /**
+     * @param numOfSteps steps planned from now on, remaining time is estimated for them
+     */
+    public void setProgressListener(ProgressListener progressListener, int numOfSteps) {
+        this.stepProgress = new ProgressTracker(progressListener, ProgressEvent.Stage.STEP, numOfSteps);
+        this.simulatedSteps = 0;
+    }
+
+    /**
+     * Token is checked before every z slice of every phase, a cancelled step leaves fields partially updated.
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        backend.setCancellationToken(cancellationToken);
+    }
+
+    /**
+     * @param surfaceAnimation moves the surface before every step, null keeps it still; split volumes cannot move it
+     */
+    public void setSurfaceAnimation(SurfaceAnimation surfaceAnimation) {
+        if (surfaceAnimation != null && volumeState.isSplit())
+            throw new IllegalStateException("Surface of a split volume cannot move");
+        this.surfaceAnimation = surfaceAnimation;
+    }
+
+    public void setPhaseObserver(PhaseObserver phaseObserver) {
+        this.phaseObserver = phaseObserver;
+    }
+
+    public void setHaloExchange(HaloExchange haloExchange) {
+        this.haloExchange = haloExchange;
     }
 
     // GETTER methods
     public VolumeState getVolumeState() {
         return volumeState;
     }
+
+    public SimulationBackend getBackend() {
+        return backend;
+    }
+
+    public StepDiagnostics getLastStepDiagnostics() {
+        return lastStepDiagnostics;
+    }
+
+    public List<Integer> getDiffusionIterations() {
+        return diffusionIterations;
+    }
+
+    public List<Integer> getPressureIterations() {
+        return pressureIterations;
+    }
 }
@@ -0,0 +1,28 @@
+package simulation;
+
+/**
+ * Exchanges boundary layers of a field between neighbouring parts of a volume, which is split along z axis.
+ * After the call, the lowest and the highest slice of the field hold values from the neighbouring parts.
+ */
+public interface HaloExchange {
+
+    // used when whole volume is simulated in a single process
+    HaloExchange NONE = values -> {
+    };
+
+    void exchange(double[] values);
+
+    /**
+     * Gathers columns fromX to toX of every row of the whole field, walls included, from all parts. Value of voxel
+     * (x, y, z) of the whole field is put at x - fromX + (y + z * size) * (toX - fromX + 1) of columns. By default
+     * values hold the whole field, so the columns are copied from them.
+     *
+     * @param size number of values of the whole field along every axis, walls included
+     */
+    default void gatherColumns(double[] values, int size, int fromX, int toX, double[] columns) {
+        int width = toX - fromX + 1;
+        for (int row = 0; row < size * size; row++)
+            System.arraycopy(values, row * size + fromX, columns, row * width, width);
+    }
+
+}
@@ -0,0 +1,17 @@
+package simulation;
+
+import data.VolumeState;
+
+/**
+ * Receives volume state after every phase of a simulation step, e.g. to compare it with another implementation.
+ * Observer must not change the volume state.
+ */
+public interface PhaseObserver {
+
+    // used when nobody observes phases
+    PhaseObserver NONE = (phase, volumeState) -> {
+    };
+
+    void afterPhase(SolverPhase phase, VolumeState volumeState);
+
+}
@@ -0,0 +1,86 @@
+package simulation;
+
+import util.CancellationToken;
+
+/**
+ * Operations of the solver over padded field arrays of a volume state. FluidSimulation decides the order of phases,
+ * number of iterations, convergence and halo exchange, backend runs single phases. Backends are created for a volume
+ * state by SimulationBackends and may run phases in any way, as long as they write the same values.
+ */
+public interface SimulationBackend {
+
+    String getName();
+
+    BackendCapabilities getCapabilities();
+
+    /**
+     * Token is checked before every z slice of every phase.
+     */
+    void setCancellationToken(CancellationToken cancellationToken);
+
+    /**
+     * One Gauss-Seidel sweep of diffusion over fluid voxels, only fluid neighbours take part.
+     *
+     * @param reduction if not null, gathers values written by the sweep
+     * @return largest change of any voxel
+     */
+    double diffuseSweep(double[] newValues, double[] oldValues, double a, FieldReduction reduction);
+
+    /**
+     * Gauss-Seidel sweeps of diffusion one after another, with the same values as single sweeps. Only fluid voxels
+     * are read, so walls do not need to be set between sweeps. Backends which keep fields in cache longer, e.g. by
+     * running sweeps as a wavefront over slices, override it; by default sweeps run one by one.
+     */
+    default void diffuseSweeps(double[] newValues, double[] oldValues, double a, int sweeps) {
+        for (int sweep = 0; sweep < sweeps; sweep++)
+            diffuseSweep(newValues, oldValues, a, null);
+    }
+
+    /**
+     * Calculates divergence of velocity into div and clears pressure, unless it is null.
+     *
+     * @param divergence if not null, gathers divergence of fluid voxels
+     */
+    void divergence(double[] velX, double[] velY, double[] velZ, double[] div, double[] p, double h, FieldReduction divergence);
+
+    /**
+     * One Gauss-Seidel sweep of pressure, over-relaxed unless omega is 1.
+     *
+     * @return largest change of any voxel
+     */
+    double pressureSweep(double[] p, double[] div, double omega);
+
+    /**
+     * Gauss-Seidel sweeps of pressure one after another, with walls set as setBnd(0, p) sets them after every sweep,
+     * so values are the same as those of single sweeps; corners are left to setBnd after the last sweep. Backends
+     * which keep fields in cache longer override it; by default sweeps run one by one.
+     */
+    default void pressureSweeps(double[] p, double[] div, double omega, int sweeps) {
+        for (int sweep = 0; sweep < sweeps; sweep++) {
+            pressureSweep(p, div, omega);
+            setBnd(0, p);
+        }
+    }
+
+    /**
+     * @param speed if not null, gathers velocity magnitude of fluid voxels
+     */
+    void subtractGradient(double[] velX, double[] velY, double[] velZ, double[] p, double h, FieldReduction speed);
+
+    /**
+     * Semi-Lagrangian advection of the whole volume.
+     */
+    void advect(double[] newValues, double[] oldValues, double[] velocX, double[] velocY, double[] velocZ);
+
+    /**
+     * Semi-Lagrangian advection of a part of the volume, writing the same values as advection of the whole volume.
+     * Old values are columns fromX to toX of the whole volume, gathered by HaloExchange.gatherColumns.
+     */
+    void advectInSlab(double[] newValues, double[] oldColumns, int fromX, int toX, double[] velocX, double[] velocY, double[] velocZ);
+
+    /**
+     * Sets boundary of a field: b is 0 for scalar fields, 1, 2 or 3 for velocity along x, y or z axis.
+     */
+    void setBnd(int b, double[] x);
+
+}
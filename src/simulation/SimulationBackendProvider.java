@@ -0,0 +1,17 @@
+package simulation;
+
+import data.VolumeState;
+
+/**
+ * Creates backends of one kind. Providers outside this package are found through java.util.ServiceLoader, when listed
+ * in META-INF/services/simulation.SimulationBackendProvider.
+ */
+public interface SimulationBackendProvider {
+
+    String getName();
+
+    BackendCapabilities getCapabilities();
+
+    SimulationBackend create(VolumeState volumeState);
+
+}
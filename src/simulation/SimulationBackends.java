@@ -0,0 +1,106 @@
+package simulation;
+
+import data.VolumeState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Backends known at runtime: the built-in scalar and parallel kernels and any provider found by ServiceLoader.
+ * Backend is chosen by name, or with "auto" by capabilities, machine and volume.
+ */
+public final class SimulationBackends {
+
+    public static final String SCALAR = "scalar";
+    public static final String PARALLEL = "parallel";
+    public static final String AUTO = "auto";
+    // parallel slices pay off only with a few slices for every processor
+    private static final int MIN_SLICES_PER_PROCESSOR = 4;
+
+    private SimulationBackends() {
+    }
+
+    /**
+     * @return built-in providers first, then the ones found by ServiceLoader
+     */
+    public static List<SimulationBackendProvider> getProviders() {
+        List<SimulationBackendProvider> providers = new ArrayList<>();
+        providers.add(new BuiltInProvider(SCALAR, false));
+        providers.add(new BuiltInProvider(PARALLEL, true));
+        ServiceLoader.load(SimulationBackendProvider.class).forEach(providers::add);
+        return providers;
+    }
+
+    /**
+     * @param name name of a provider, or "auto"
+     * @throws IllegalArgumentException if no provider has that name, or it does not support the volume state
+     */
+    public static SimulationBackend create(String name, VolumeState volumeState) {
+        List<SimulationBackendProvider> providers = getProviders();
+        if (AUTO.equals(name))
+            return choose(providers, volumeState).create(volumeState);
+        List<String> names = new ArrayList<>();
+        for (SimulationBackendProvider provider : providers) {
+            if (provider.getName().equals(name)) {
+                if (!provider.getCapabilities().supports(volumeState))
+                    throw new IllegalArgumentException("Simulation backend " + name + " (" + provider.getCapabilities()
+                            + ") does not support the volume");
+                return provider.create(volumeState);
+            }
+            names.add(provider.getName());
+        }
+        throw new IllegalArgumentException("Unknown simulation backend " + name + ", available: " + names + " and " + AUTO);
+    }
+
+    /**
+     * Prefers a parallel backend when there are enough slices for the processors, otherwise a single threaded one,
+     * and among those a backend which visits only fluid spans.
+     */
+    private static SimulationBackendProvider choose(List<SimulationBackendProvider> providers, VolumeState volumeState) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        boolean parallel = processors > 1 && volumeState.getDepth() >= processors * MIN_SLICES_PER_PROCESSOR;
+        SimulationBackendProvider best = null;
+        int bestScore = -1;
+        for (SimulationBackendProvider provider : providers) {
+            BackendCapabilities capabilities = provider.getCapabilities();
+            if (!capabilities.supports(volumeState))
+                continue;
+            int score = (capabilities.isParallel() == parallel ? 2 : 0) + (capabilities.isFluidSpans() ? 1 : 0);
+            // on equal score the earlier provider wins, so built-in backends are chosen unless others are better
+            if (score > bestScore) {
+                best = provider;
+                bestScore = score;
+            }
+        }
+        if (best == null)
+            throw new IllegalArgumentException("No simulation backend supports the volume");
+        return best;
+    }
+
+    private static class BuiltInProvider implements SimulationBackendProvider {
+
+        private final String name;
+        private final boolean parallel;
+
+        BuiltInProvider(String name, boolean parallel) {
+            this.name = name;
+            this.parallel = parallel;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public BackendCapabilities getCapabilities() {
+            return parallel ? FieldKernels.PARALLEL_CAPABILITIES : FieldKernels.SCALAR_CAPABILITIES;
+        }
+
+        @Override
+        public SimulationBackend create(VolumeState volumeState) {
+            return new FieldKernels(volumeState, parallel);
+        }
+    }
+}
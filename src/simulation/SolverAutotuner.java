@@ -0,0 +1,258 @@
+package simulation;
+
+import data.ColumnTerrain;
+import data.VolumeState;
+import parameters.FluidSimulationParameters;
+import util.ProgramUtils;
+import util.VolumeUtils;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Chooses solver backend and its number of threads for this machine and volume size, by timing short calibration
+ * steps on a synthetic slab with the cross-section of the real volume, so sweeps over rows touch as much memory as
+ * they will in the simulation. Chosen settings are saved in a properties file under a key of hardware fingerprint,
+ * volume size and solver settings, so later runs reuse them without calibration.
+ *
+ * All candidates write the same values.
+ */
+public class SolverAutotuner {
+
+    // version of calibration, keys of other versions in the cache file are ignored
+    private static final int CACHE_VERSION = 2;
+    // sample slab is at least this deep, and deep enough to give every processor as many slices as the simulation does
+    private static final int MIN_SAMPLE_DEPTH = 16;
+    private static final int SAMPLE_SLICES_PER_PROCESSOR = 4;
+    // steps timed for every candidate, the median one counts
+    private static final int MEASURED_STEPS = 7;
+    // steps run before calibration, so that kernels are compiled
+    private static final int WARM_UP_STEPS = 4;
+
+    private final String cacheFileName;
+
+    /**
+     * @param cacheFileName properties file with settings of earlier calibrations, created if it does not exist
+     */
+    public SolverAutotuner(String cacheFileName) {
+        this.cacheFileName = cacheFileName;
+    }
+
+    /**
+     * Sets simulation backend and threads of parameters to the fastest ones for this machine, from earlier
+     * calibration if there is one.
+     */
+    public FluidSimulationParameters tune(FluidSimulationParameters parameters) {
+        String key = cacheKey(parameters);
+        Properties cache = loadCache();
+        String settings = cache.getProperty(key);
+        if (settings != null) {
+            ProgramUtils.displayMessageWithTimestamp("Using tuned solver settings " + settings);
+        } else {
+            ProgramUtils.displayMessageWithTimestamp("Calibrating solver settings for " + key);
+            settings = calibrate(parameters).toString();
+            cache.setProperty(key, settings);
+            saveCache(cache);
+            ProgramUtils.displayMessageWithTimestamp("Tuned solver settings " + settings);
+        }
+        Candidate.parse(settings).applyTo(parameters);
+        return parameters;
+    }
+
+    /**
+     * @return fastest candidate for the volume of parameters
+     */
+    public Candidate calibrate(FluidSimulationParameters parameters) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int sampleDepth = Math.min(parameters.getSize(),
+                Math.max(MIN_SAMPLE_DEPTH, processors * SAMPLE_SLICES_PER_PROCESSOR));
+        // first steps run before compilation and would be unfair to the first candidate
+        Candidate best = new Candidate(SimulationBackends.SCALAR, 0);
+        measure(parameters, sampleDepth, best, WARM_UP_STEPS);
+        best.millis = measure(parameters, sampleDepth, best, MEASURED_STEPS);
+
+        List<Candidate> parallel = new ArrayList<>();
+        for (int threads = 2; threads < processors; threads *= 2)
+            parallel.add(new Candidate(SimulationBackends.PARALLEL, threads));
+        if (processors > 1)
+            parallel.add(new Candidate(SimulationBackends.PARALLEL, processors));
+        return fastest(parameters, sampleDepth, best, parallel);
+    }
+
+    // PRIVATE methods
+
+    private Candidate fastest(FluidSimulationParameters parameters, int sampleDepth, Candidate best, List<Candidate> candidates) {
+        for (Candidate candidate : candidates) {
+            candidate.millis = measure(parameters, sampleDepth, candidate, MEASURED_STEPS);
+            ProgramUtils.displayMessageWithTimestamp("Calibration " + candidate + ": " + candidate.millis + " ms per step");
+            if (candidate.millis < best.millis)
+                best = candidate;
+        }
+        return best;
+    }
+
+    /**
+     * @return median time of a step of the candidate on the sample slab, in milliseconds
+     */
+    private double measure(FluidSimulationParameters parameters, int sampleDepth, Candidate candidate, int steps) {
+        FluidSimulationParameters sampleParameters = new FluidSimulationParameters()
+                .withSize(parameters.getSize())
+                .withTimeStep(parameters.getTimeStep())
+                .withDiffusionRate(parameters.getDiffusionRate())
+                .withViscosityRate(parameters.getViscosityRate())
+                .withMaxSolverIterations(parameters.getMaxSolverIterations())
+                .withSolverTolerance(parameters.getSolverTolerance())
+                .withPressureOverRelaxation(parameters.getPressureOverRelaxation())
+                .withPressureWarmStart(parameters.isPressureWarmStart())
+                .withNormalizedPressureStencil(parameters.isNormalizedPressureStencil());
+        candidate.applyTo(sampleParameters);
+        VolumeState volumeState = sampleVolume(sampleParameters, sampleDepth);
+        try {
+            FluidSimulation fluidSimulation = new FluidSimulation(volumeState,
+                    SimulationBackends.create(candidate.backend, volumeState));
+            double[] millis = new double[steps];
+            for (int step = 0; step < steps; step++) {
+                long start = System.nanoTime();
+                fluidSimulation.simulateStep();
+                millis[step] = (System.nanoTime() - start) / 1e6;
+            }
+            Arrays.sort(millis);
+            return millis[steps / 2];
+        } finally {
+            volumeState.release();
+        }
+    }
+
+    /**
+     * @return bottom slab of the volume with floor, fluid up to 60 % of slab depth, an object in the middle and random
+     * fields
+     */
+    private static VolumeState sampleVolume(FluidSimulationParameters parameters, int depth) {
+        int size = parameters.getSize();
+        int floorEnd = Math.max(1, depth / 10);
+        int[] fluidStart = new int[size * size];
+        int[] airStart = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                boolean object = x >= size / 3 && x < size * 2 / 3 && y >= size / 3 && y < size * 2 / 3;
+                fluidStart[VolumeUtils.indexIn2D(size, x, y)] = object ? depth / 3 : floorEnd;
+                airStart[VolumeUtils.indexIn2D(size, x, y)] = depth * 6 / 10;
+            }
+        }
+        VolumeState volumeState = new VolumeState(parameters, 0, depth);
+        volumeState.setTerrain(new ColumnTerrain(size, floorEnd, fluidStart, airStart));
+        Random random = new Random(1);
+        double[][] fields = {volumeState.getOldDensities(), volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ()};
+        for (int i = 0; i < fields[0].length; i++) {
+            fields[0][i] = 1000 + 30 * random.nextDouble();
+            for (int field = 1; field < fields.length; field++)
+                fields[field][i] = 0.1 * (random.nextDouble() - 0.5);
+        }
+        return volumeState;
+    }
+
+    private static String cacheKey(FluidSimulationParameters parameters) {
+        return "v" + CACHE_VERSION + "." + Integer.toHexString(hardwareFingerprint().hashCode()) + ".size" + parameters.getSize()
+                + ".iterations" + parameters.getMaxSolverIterations()
+                + (parameters.getSolverTolerance() == 0 ? "" : ".tolerance")
+                + (parameters.isPressureWarmStart() ? ".warm" : "")
+                + (parameters.isNormalizedPressureStencil() ? ".normalized" : "");
+    }
+
+    /**
+     * @return description of processor, its caches and memory available to this JVM
+     */
+    static String hardwareFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(System.getProperty("os.arch")).append(',')
+                .append(Runtime.getRuntime().availableProcessors()).append(',')
+                .append(Runtime.getRuntime().maxMemory() >> 30);
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/cpuinfo"))) {
+                if (line.startsWith("model name")) {
+                    fingerprint.append(',').append(line.substring(line.indexOf(':') + 1).trim());
+                    break;
+                }
+            }
+            for (int index = 0; Files.exists(Path.of("/sys/devices/system/cpu/cpu0/cache/index" + index)); index++)
+                fingerprint.append(',').append(Files.readString(Path.of("/sys/devices/system/cpu/cpu0/cache/index" + index + "/size")).trim());
+        } catch (IOException e) {
+            // not on Linux, architecture and processors have to do
+        }
+        return fingerprint.toString();
+    }
+
+    private Properties loadCache() {
+        Properties cache = new Properties();
+        if (!new File(cacheFileName).exists())
+            return cache;
+        try (Reader reader = new FileReader(cacheFileName)) {
+            cache.load(reader);
+        } catch (IOException e) {
+            ProgramUtils.displayMessageWithTimestamp("Error during reading autotune cache file");
+        }
+        return cache;
+    }
+
+    private void saveCache(Properties cache) {
+        try (Writer writer = new FileWriter(cacheFileName)) {
+            cache.store(writer, "Solver settings tuned per hardware fingerprint, volume size and solver settings");
+        } catch (IOException e) {
+            ProgramUtils.displayMessageWithTimestamp("Error during writing autotune cache file");
+        }
+    }
+
+    /**
+     * Solver settings which are tuned, saved as "backend,threads".
+     */
+    public static class Candidate {
+
+        private final String backend;
+        private final int threads;
+        private double millis;
+
+        Candidate(String backend, int threads) {
+            this.backend = backend;
+            this.threads = threads;
+        }
+
+        static Candidate parse(String settings) {
+            String[] values = settings.split(",");
+            return new Candidate(values[0], Integer.parseInt(values[1]));
+        }
+
+        void applyTo(FluidSimulationParameters parameters) {
+            parameters.withSimulationBackend(backend)
+                    .withSimulationThreads(threads);
+        }
+
+        @Override
+        public String toString() {
+            return backend + "," + threads;
+        }
+
+        // GETTER methods
+        public String getBackend() {
+            return backend;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public double getMillis() {
+            return millis;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package simulation;
+
+/**
+ * Phases of a simulation step, in the order in which they are run.
+ */
+public enum SolverPhase {
+    // swaps velocity in x axis and diffuses it
+    DIFFUSE_VELOCITY_X,
+    DIFFUSE_VELOCITY_Y,
+    DIFFUSE_VELOCITY_Z,
+    // makes diffused velocities divergence free
+    PROJECT_DIFFUSED,
+    // swaps all velocities and advects velocity in x axis
+    ADVECT_VELOCITY_X,
+    ADVECT_VELOCITY_Y,
+    ADVECT_VELOCITY_Z,
+    // makes advected velocities divergence free
+    PROJECT_ADVECTED,
+    DIFFUSE_DENSITY,
+    // swaps densities and advects them
+    ADVECT_DENSITY
+}
@@ -0,0 +1,96 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Diagnostics of a single simulation step, gathered by kernels while they write the fields:
+ *  - density of fluid voxels, as it is saved to output (total mass, min and max, histogram)
+ *  - velocity magnitude after the final projection (kinetic energy, max velocity)
+ *  - divergence of velocity before the final projection
+ */
+public class StepDiagnostics {
+
+    public static final int HISTOGRAM_BINS = 32;
+
+    private final List<FieldReduction> densityPartials = new ArrayList<>();
+    private final List<FieldReduction> speedPartials = new ArrayList<>();
+    private final List<FieldReduction> divergencePartials = new ArrayList<>();
+    private final double[] densityHistogramRange;
+    private FieldReduction density;
+    private FieldReduction speed;
+    private FieldReduction divergence;
+
+    /**
+     * @param densityHistogramRange min and max density, over which density histogram is spread (null for no histogram)
+     */
+    public StepDiagnostics(double[] densityHistogramRange) {
+        this.densityHistogramRange = densityHistogramRange;
+    }
+
+    // PARTIAL methods - every thread (or slab) of a kernel asks for its own partial reduction
+    public synchronized FieldReduction densityPartial() {
+        FieldReduction partial = new FieldReduction(HISTOGRAM_BINS);
+        if (this.densityHistogramRange != null)
+            partial.setHistogramRange(this.densityHistogramRange[0], this.densityHistogramRange[1]);
+        this.densityPartials.add(partial);
+        return partial;
+    }
+
+    public synchronized FieldReduction speedPartial() {
+        FieldReduction partial = new FieldReduction(HISTOGRAM_BINS);
+        this.speedPartials.add(partial);
+        return partial;
+    }
+
+    public synchronized FieldReduction divergencePartial() {
+        FieldReduction partial = new FieldReduction(HISTOGRAM_BINS);
+        this.divergencePartials.add(partial);
+        return partial;
+    }
+
+    /**
+     * Merges partial reductions, must be called after all kernels of the step are done.
+     */
+    public void finish() {
+        this.density = FieldReduction.merge(this.densityPartials, HISTOGRAM_BINS);
+        this.speed = FieldReduction.merge(this.speedPartials, HISTOGRAM_BINS);
+        this.divergence = FieldReduction.merge(this.divergencePartials, HISTOGRAM_BINS);
+    }
+
+    // GETTER methods
+    public FieldReduction getDensity() {
+        return density;
+    }
+
+    public FieldReduction getSpeed() {
+        return speed;
+    }
+
+    public FieldReduction getDivergence() {
+        return divergence;
+    }
+
+    public double getTotalMass() {
+        return density.getSum();
+    }
+
+    public double getKineticEnergy() {
+        return 0.5 * speed.getSumOfSquares();
+    }
+
+    public double getMaxVelocity() {
+        return speed.getCount() == 0 ? 0 : speed.getMax();
+    }
+
+    public double getDivergenceNorm() {
+        return divergence.getL2Norm();
+    }
+
+    @Override
+    public String toString() {
+        return "mass: " + getTotalMass() + ", kinetic energy: " + getKineticEnergy() + ", max velocity: " + getMaxVelocity()
+                + ", divergence norm: " + getDivergenceNorm() + ", density range: [" + density.getMin() + ", " + density.getMax() + "]";
+    }
+
+}
@@ -0,0 +1,73 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of double arrays, keyed by their length. Volume arrays are large enough to be allocated directly in old
+ * generation, so runs executed one after another in the same process reuse them instead of allocating new ones.
+ * Released arrays are kept only up to the retention limit, the rest are left to the garbage collector.
+ */
+public class BufferPool {
+
+    private static final Map<Integer, ArrayDeque<double[]>> buffers = new HashMap<>();
+    // bytes of arrays currently kept in the pool and the most that may be kept
+    private static long retainedBytes = 0;
+    private static final long DEFAULT_RETENTION_LIMIT_BYTES = Runtime.getRuntime().maxMemory() / 4;
+    private static long retentionLimitBytes = DEFAULT_RETENTION_LIMIT_BYTES;
+
+    /**
+     * @return zeroed array of the given length, reused from the pool if one was released before
+     */
+    public static double[] borrow(int length) {
+        double[] buffer;
+        synchronized (BufferPool.class) {
+            ArrayDeque<double[]> available = buffers.get(length);
+            buffer = available != null ? available.poll() : null;
+            if (buffer != null)
+                retainedBytes -= bytes(buffer);
+        }
+        if (buffer == null)
+            return new double[length];
+        Arrays.fill(buffer, 0.0);
+        return buffer;
+    }
+
+    /**
+     * Returns array to the pool. Caller must not use it afterwards.
+     */
+    public static synchronized void release(double[] buffer) {
+        if (buffer == null || retainedBytes + bytes(buffer) > retentionLimitBytes)
+            return;
+        buffers.computeIfAbsent(buffer.length, length -> new ArrayDeque<>()).push(buffer);
+        retainedBytes += bytes(buffer);
+    }
+
+    /**
+     * Sets how many bytes of released arrays may be kept, dropping arrays over the new limit.
+     *
+     * @param limit bytes to keep, negative for the default of a quarter of maximum heap
+     */
+    public static synchronized void setRetentionLimitBytes(long limit) {
+        retentionLimitBytes = limit < 0 ? DEFAULT_RETENTION_LIMIT_BYTES : limit;
+        for (ArrayDeque<double[]> available : buffers.values()) {
+            while (retainedBytes > retentionLimitBytes && !available.isEmpty())
+                retainedBytes -= bytes(available.pop());
+        }
+    }
+
+    public static synchronized void clear() {
+        buffers.clear();
+        retainedBytes = 0;
+    }
+
+    public static synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    private static long bytes(double[] buffer) {
+        return (long) buffer.length * Double.BYTES;
+    }
+}
@@ -0,0 +1,25 @@
+package util;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets another thread stop generation or simulation. Work checks the token between z slabs and stops with
+ * CancellationException, before any output is written.
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() {
+        if (cancelled)
+            throw new CancellationException("cancelled");
+    }
+}
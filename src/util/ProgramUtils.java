@@ -1,9 +1,17 @@
 package util;
 
+import data.ColumnTerrain;
 import data.VolumeState;
 import data.VoxelType;
+import output.DensityTimeSeriesWriter;
+import output.ProjectionPreview;
+import output.VelocityCacheReader;
+import output.LodPyramidWriter;
+import output.VelocityCacheWriter;
+import server.SliceMonitor;
 import parameters.FluidSimulationParameters;
 
+import java.io.Closeable;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.Timestamp;
@@ -16,30 +24,7 @@ public class ProgramUtils {
     }
 
     public static void writeDensitiesToFileAddAirAround(FluidSimulationParameters parameters, VolumeState volumeState) {
-        int totalSize = (int) Math.pow(volumeState.getSize(), 3);
-        double[] minMax = getMaxMinDensity(volumeState, parameters.getDensityFloor());
-        byte[] array = new byte[totalSize];
-        for (int i = 0; i < volumeState.getSize(); i++) {
-            for (int j = 0; j < volumeState.getSize(); j++) {
-                for (int k = 0; k < volumeState.getSize(); k++) {
-                    if (i == 0 || j == 0 || k == 0 || i == volumeState.getSize() - 1 || j == volumeState.getSize() - 1 || k == volumeState.getSize() - 1) {
-                        array[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = (byte) 0;
-                        continue;
-                    }
-                    VoxelType t = volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), k - 1, j - 1, i - 1)];
-                    if (t.equals(VoxelType.OBJECT))
-                        array[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = (byte) 254;
-                    else if (t.equals(VoxelType.FLOOR))
-                        array[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = (byte) 255;
-                    else if (t.equals(VoxelType.AIR))
-                        array[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = (byte) 0;
-                    else {
-                        double d = volumeState.getOldDensities()[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)];
-                        array[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)] = byteMap(minMax[0], minMax[1], d);
-                    }
-                }
-            }
-        }
+        byte[] array = quantizeDensitiesAddAirAround(volumeState, parameters.getDensityFloor());
         try {
             FileOutputStream fo = new FileOutputStream(parameters.getEndFileName());
             fo.write(array);
@@ -47,26 +32,253 @@ public class ProgramUtils {
         } catch (IOException e) {
             displayMessageWithTimestamp("Error during writing to file");
         }
+        writeLodPyramid(parameters, array, volumeState.getSize());
+    }
+
+    /**
+     * Saves downsampled levels of the quantized volume, if parameters specify a pyramid file.
+     */
+    public static void writeLodPyramid(FluidSimulationParameters parameters, byte[] volume, int size) {
+        if (parameters.getLodPyramidFileName() == null)
+            return;
+        try {
+            new LodPyramidWriter(parameters.getLodPyramidFileName(), parameters.getLodLevels(),
+                    LodPyramidWriter.Reduction.fromName(parameters.getLodReduction())).write(volume, size);
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during writing pyramid file");
+        }
+    }
+
+    /**
+     * @return pyramid writer started for a volume of size^3 voxels, or null if parameters do not specify a pyramid file
+     */
+    public static LodPyramidWriter openLodPyramid(FluidSimulationParameters parameters, int size) {
+        if (parameters.getLodPyramidFileName() == null)
+            return null;
+        LodPyramidWriter writer = new LodPyramidWriter(parameters.getLodPyramidFileName(), parameters.getLodLevels(),
+                LodPyramidWriter.Reduction.fromName(parameters.getLodReduction()));
+        try {
+            writer.begin(size);
+            return writer;
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during writing pyramid file");
+            return null;
+        }
+    }
+
+    /**
+     * @return writer of time series archive, or null if parameters do not specify one
+     */
+    public static DensityTimeSeriesWriter openTimeSeries(FluidSimulationParameters parameters, VolumeState volumeState) {
+        if (parameters.getTimeSeriesFileName() == null)
+            return null;
+        try {
+            return new DensityTimeSeriesWriter(parameters.getTimeSeriesFileName(), volumeState.getSize(), parameters.getKeyframeInterval());
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during opening time series file");
+            return null;
+        }
+    }
+
+    public static void writeDensitiesToTimeSeries(DensityTimeSeriesWriter writer, FluidSimulationParameters parameters, VolumeState volumeState) {
+        if (writer == null)
+            return;
+        try {
+            double[] range = writer.quantizationRange(densityRange(volumeState, parameters.getDensityFloor()));
+            writer.writeFrame(quantizeDensitiesAddAirAround(volumeState, range), range);
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during writing to time series file");
+        }
+    }
+
+    public static void closeTimeSeries(DensityTimeSeriesWriter writer) {
+        if (writer == null)
+            return;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during closing time series file");
+        }
+    }
+
+    public static VelocityCacheWriter openVelocityRecord(FluidSimulationParameters parameters, VolumeState volumeState) {
+        if (parameters.getVelocityRecordFileName() == null)
+            return null;
+        try {
+            return new VelocityCacheWriter(parameters.getVelocityRecordFileName(), volumeState,
+                    VelocityCacheWriter.Precision.fromName(parameters.getVelocityCachePrecision()));
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during opening velocity record file");
+            return null;
+        }
+    }
+
+    public static void writeVelocitiesToRecord(VelocityCacheWriter writer, VolumeState volumeState) {
+        if (writer == null)
+            return;
+        try {
+            writer.writeStep(volumeState);
+        } catch (IOException | IllegalArgumentException e) {
+            displayMessageWithTimestamp("Error during writing to velocity record file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return cache of recorded velocities with at least numOfSteps steps, null if parameters do not specify one or it
+     * cannot be used
+     */
+    public static VelocityCacheReader openVelocityReplay(FluidSimulationParameters parameters, VolumeState volumeState) {
+        if (parameters.getVelocityReplayFileName() == null)
+            return null;
+        try {
+            VelocityCacheReader reader = new VelocityCacheReader(parameters.getVelocityReplayFileName(), volumeState);
+            if (reader.getNumOfSteps() >= parameters.getNumOfSteps())
+                return reader;
+            displayMessageWithTimestamp("Velocity cache has only " + reader.getNumOfSteps() + " steps, velocities will be solved");
+            reader.close();
+        } catch (IOException | IllegalArgumentException e) {
+            displayMessageWithTimestamp("Error during opening velocity replay file: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @return false if velocities of the step could not be read, densities cannot be simulated further then
+     */
+    public static boolean readVelocitiesFromReplay(VelocityCacheReader reader, int step, VolumeState volumeState) {
+        try {
+            reader.readStep(step, volumeState);
+            return true;
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during reading from velocity replay file");
+            return false;
+        }
+    }
+
+    /**
+     * Closes recorded or replayed velocity cache, if it is open.
+     */
+    public static void closeVelocityCache(Closeable cache) {
+        if (cache == null)
+            return;
+        try {
+            cache.close();
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during closing velocity cache file");
+        }
+    }
+
+    /**
+     * @return monitor serving slices of the volume state, or null if parameters do not specify a monitor port
+     */
+    public static SliceMonitor openMonitor(FluidSimulationParameters parameters, VolumeState volumeState) {
+        if (parameters.getMonitorPort() == 0)
+            return null;
+        try {
+            SliceMonitor monitor = new SliceMonitor(parameters.getMonitorPort(), volumeState);
+            displayMessageWithTimestamp("Serving slices on http://localhost:" + parameters.getMonitorPort() + "/slice");
+            return monitor;
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during starting slice monitor");
+            return null;
+        }
+    }
+
+    /**
+     * Saves projection images of densities after given step, if parameters specify a preview directory.
+     */
+    public static void writePreview(FluidSimulationParameters parameters, VolumeState volumeState, int step) {
+        if (parameters.getPreviewDirectory() == null)
+            return;
+        try {
+            new ProjectionPreview(parameters.getPreviewDirectory(), parameters.getPreviewFormat()).write(volumeState, step);
+        } catch (IOException e) {
+            displayMessageWithTimestamp("Error during writing preview images");
+        }
+    }
+
+    /**
+     * Maps densities to 8-bit values the same way as they are saved to the output file: air is 0, fluid is between 1
+     * and 253, object is 254 and floor is 255. A layer of air voxels is added all around the volume.
+     */
+    public static byte[] quantizeDensitiesAddAirAround(VolumeState volumeState, double floorDensity) {
+        return quantizeDensitiesAddAirAround(volumeState, densityRange(volumeState, floorDensity));
+    }
+
+    /**
+     * @param minMax range of densities mapped between 1 and 253, it must contain all fluid densities of the volume
+     */
+    public static byte[] quantizeDensitiesAddAirAround(VolumeState volumeState, double[] minMax) {
+        int totalSize = (int) Math.pow(volumeState.getSize(), 3);
+        byte[] array = new byte[totalSize];
+        // slices of air around stay 0
+        for (int i = 1; i <= volumeState.getN(); i++)
+            quantizeSliceAddAirAround(volumeState, minMax, i, array, VolumeUtils.indexIn3D(volumeState.getSize(), 0, 0, i));
+        return array;
+    }
+
+    /**
+     * Maps densities of a single z slice of field arrays, with a layer of air around its rows and columns, the same
+     * way as quantizeDensitiesAddAirAround. Works on states holding only a part of the volume as well.
+     *
+     * @param z     index of the slice in field arrays of the volume state, between 1 and depth
+     * @param array target of size^2 values of the slice, starting at from
+     */
+    public static void quantizeSliceAddAirAround(VolumeState volumeState, double[] minMax, int z, byte[] array, int from) {
+        int size = volumeState.getSize();
+        int terrainZ = volumeState.getZOffset() + z - 1;
+        for (int j = 0; j < size; j++) {
+            for (int k = 0; k < size; k++) {
+                int target = from + VolumeUtils.indexIn2D(size, k, j);
+                if (j == 0 || k == 0 || j == size - 1 || k == size - 1) {
+                    array[target] = (byte) 0;
+                    continue;
+                }
+                VoxelType t = volumeState.getTerrain().getType(k - 1, j - 1, terrainZ);
+                if (t.equals(VoxelType.OBJECT))
+                    array[target] = (byte) 254;
+                else if (t.equals(VoxelType.FLOOR))
+                    array[target] = (byte) 255;
+                else if (t.equals(VoxelType.AIR))
+                    array[target] = (byte) 0;
+                else {
+                    double d = volumeState.getOldDensities()[VolumeUtils.indexIn3D(size, k, j, z)];
+                    array[target] = byteMap(minMax[0], minMax[1], d);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return min and max density of fluid voxels of the volume state, which may hold only a part of the volume
+     */
+    public static double[] densityRange(VolumeState volumeState, double floorDensity) {
+        // use range gathered by the last simulation step, if there is one, instead of a separate pass over the volume
+        return volumeState.getDensityMinMax() != null ? volumeState.getDensityMinMax() : getMaxMinDensity(volumeState, floorDensity);
     }
 
     private static double[] getMaxMinDensity(VolumeState volumeState, double floorDensity) {
         double[] minMax = new double[2];
-        double min = -1.0;
-        double max = -1.0;
-        for (int i = 1; i <= volumeState.getN(); i++) {
+        // stay infinite for a part of the volume without fluid, so ranges of parts can be merged
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        ColumnTerrain terrain = volumeState.getTerrain();
+        for (int i = 1; i <= volumeState.getDepth(); i++) {
+            int terrainZ = volumeState.getZOffset() + i - 1;
             for (int j = 1; j <= volumeState.getN(); j++) {
-                for (int k = 1; k <= volumeState.getN(); k++) {
-                    if (!volumeState.getTerrain()[VolumeUtils.indexIn3D(volumeState.getN(), k - 1, j - 1, i - 1)].equals(VoxelType.FLUID))
-                        continue;
-                    double density = volumeState.getOldDensities()[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)];
-//                    if (density >= floorDensity)
-//                        continue;
-//                    if (density <= 1)
-//                        continue;
-                    if (density < min || min == -1.0)
-                        min = density;
-                    else if (density > max || max == -1.0)
-                        max = density;
+                // visit only fluid voxels of the row
+                for (int span = terrain.firstSpan(j - 1, terrainZ); span < terrain.lastSpan(j - 1, terrainZ); span++) {
+                    for (int k = terrain.spanStart(span) + 1; k <= terrain.spanEnd(span); k++) {
+                        double density = volumeState.getOldDensities()[VolumeUtils.indexIn3D(volumeState.getSize(), k, j, i)];
+//                        if (density >= floorDensity)
+//                            continue;
+//                        if (density <= 1)
+//                            continue;
+                        if (density < min)
+                            min = density;
+                        if (density > max)
+                            max = density;
+                    }
                 }
             }
         }
@@ -77,7 +289,10 @@ public class ProgramUtils {
         return minMax;
     }
 
-    private static byte byteMap(double min, double max, double value) {
+    /**
+     * @return density mapped from range between min and max to fluid values of the output file, between 1 and 253
+     */
+    public static byte byteMap(double min, double max, double value) {
         double interval = max - min;
         double percentage = (value - min) / interval;
         int mappedValue = (int) (percentage * 252);
@@ -0,0 +1,54 @@
+package util;
+
+/**
+ * Progress of one stage of work: how many of its units (z slabs of generation, simulation steps) are done, time spent
+ * on the stage so far and estimated time to finish it.
+ */
+public class ProgressEvent {
+
+    public enum Stage {
+        SURFACE, DENSITIES, POTENTIALS, STEP
+    }
+
+    private final Stage stage;
+    private final int done;
+    private final int total;
+    private final long elapsedMillis;
+    // -1 until the first unit is done
+    private final long etaMillis;
+
+    public ProgressEvent(Stage stage, int done, int total, long elapsedMillis, long etaMillis) {
+        this.stage = stage;
+        this.done = done;
+        this.total = total;
+        this.elapsedMillis = elapsedMillis;
+        this.etaMillis = etaMillis;
+    }
+
+    @Override
+    public String toString() {
+        return stage.name().toLowerCase() + " " + done + " of " + total + ", elapsed " + elapsedMillis + " ms"
+                + (etaMillis >= 0 ? ", remaining " + etaMillis + " ms" : "");
+    }
+
+    // GETTER methods
+    public Stage getStage() {
+        return stage;
+    }
+
+    public int getDone() {
+        return done;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public long getEtaMillis() {
+        return etaMillis;
+    }
+}
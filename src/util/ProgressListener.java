@@ -0,0 +1,18 @@
+package util;
+
+/**
+ * Receives progress of volume generation and simulation. Events are delivered on the thread doing the work, so
+ * listeners should return quickly.
+ */
+public interface ProgressListener {
+
+    // used when nobody follows progress
+    ProgressListener NONE = event -> {
+    };
+
+    // prints events with timestamp, as other progress messages of the program
+    ProgressListener CONSOLE = event -> ProgramUtils.displayMessageWithTimestamp(event.toString());
+
+    void onProgress(ProgressEvent event);
+
+}
@@ -0,0 +1,24 @@
+package util;
+
+/**
+ * Reports units of one stage as they are done, with remaining time estimated from the average time of done units.
+ */
+public class ProgressTracker {
+
+    private final ProgressListener listener;
+    private final ProgressEvent.Stage stage;
+    private final int total;
+    private final long start = System.nanoTime();
+
+    public ProgressTracker(ProgressListener listener, ProgressEvent.Stage stage, int total) {
+        this.listener = listener;
+        this.stage = stage;
+        this.total = total;
+    }
+
+    public void done(int done) {
+        long elapsed = System.nanoTime() - start;
+        long eta = done > 0 ? elapsed / done * (total - done) : -1;
+        listener.onProgress(new ProgressEvent(stage, done, total, elapsed / 1000000, eta < 0 ? -1 : eta / 1000000));
+    }
+}
@@ -2,12 +2,21 @@ package util;
 
 import data.VoxelType;
 
+import java.util.function.LongFunction;
+
 public class VolumeUtils {
 
     public static double[] initializeArray3D(int size) {
         return new double[size * size * size];
     }
 
+    /**
+     * @return array of size x size x depth values
+     */
+    public static double[] initializeArray3D(int size, int depth) {
+        return new double[size * size * depth];
+    }
+
     public static double[] initializeArray2D(int size) {
         return new double[size * size];
     }
@@ -35,48 +44,43 @@ public class VolumeUtils {
         return (double) tmp / factor;
     }
 
-    public static double calculateDistance(double currentDistance, VoxelType[] terrain, boolean[] visited, int size, int currentX, int currentY, int currentZ, double maxDistance) {
-        if (!terrain[indexIn3D(size, currentX, currentY, currentZ)].equals(VoxelType.FLUID) || currentDistance == maxDistance)
+    /**
+     * Distance to the nearest non-fluid voxel, same search as the recursion over a whole voxel type array of
+     * ReferenceGeneration, for a voxel of a volume whose terrain is not kept as a whole: terrain is looked
+     * up by index, and voxels are marked visited by their offset from the starting voxel, so only a window of
+     * (2 * maxDistance + 1)^3 flags is allocated instead of a flag for every voxel of the volume. Offsets of different
+     * steps reach different voxels only when size is larger than 2 * maxDistance; smaller volumes are marked by index.
+     */
+    public static double calculateDistance(LongFunction<VoxelType> terrain, int size, long index, double maxDistance) {
+        int reach = (int) maxDistance;
+        // neighbours in the same order as calculateDistance: x + 1, x - 1, y - 1, y + 1, z - 1, z + 1
+        long[] steps = {1, -1, -size, size, -(long) size * size, (long) size * size};
+        long length = (long) size * size * size;
+        if (size <= 2 * reach) {
+            int[] indexSteps = {1, -1, -size, size, -size * size, size * size};
+            return calculateDistance(0, terrain, new boolean[(int) length], length, index, (int) index, steps,
+                    indexSteps, maxDistance);
+        }
+        int width = 2 * reach + 1;
+        int[] offsetSteps = {1, -1, -width, width, -width * width, width * width};
+        return calculateDistance(0, terrain, new boolean[width * width * width], length, index,
+                reach + reach * width + reach * width * width, steps, offsetSteps, maxDistance);
+    }
+
+    private static double calculateDistance(double currentDistance, LongFunction<VoxelType> terrain, boolean[] visited, long length,
+                                            long index, int offset, long[] steps, int[] offsetSteps, double maxDistance) {
+        if (!terrain.apply(index).equals(VoxelType.FLUID) || currentDistance == maxDistance)
             return currentDistance;
         double minDistance = -1;
-        // x + 1
-        if (indexIn3D(size, currentX + 1, currentY, currentZ) < visited.length && !visited[indexIn3D(size, currentX + 1, currentY, currentZ)]) {
-            visited[indexIn3D(size, currentX + 1, currentY, currentZ)] = true;
-            minDistance = calculateDistance(currentDistance + 1, terrain, visited, size, currentX + 1, currentY, currentZ, maxDistance);
-        }
-        // x - 1
-        if (indexIn3D(size, currentX - 1, currentY, currentZ) >= 0 && !visited[indexIn3D(size, currentX - 1, currentY, currentZ)]) {
-            visited[indexIn3D(size, currentX - 1, currentY, currentZ)] = true;
-            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX - 1, currentY, currentZ, maxDistance);
-            if (min < minDistance)
-                minDistance = min;
-        }
-        // y - 1
-        if (indexIn3D(size, currentX, currentY - 1, currentZ) >= 0 && !visited[indexIn3D(size, currentX, currentY - 1, currentZ)]) {
-            visited[indexIn3D(size, currentX, currentY - 1, currentZ)] = true;
-            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX, currentY - 1, currentZ, maxDistance);
-            if (min < minDistance)
-                minDistance = min;
-        }
-        // y + 1
-        if (indexIn3D(size, currentX, currentY + 1, currentZ) < visited.length && !visited[indexIn3D(size, currentX, currentY + 1, currentZ)]) {
-            visited[indexIn3D(size, currentX, currentY + 1, currentZ)] = true;
-            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX, currentY + 1, currentZ, maxDistance);
-            if (min < minDistance)
-                minDistance = min;
-        }
-        // z - 1
-        if (indexIn3D(size, currentX, currentY, currentZ - 1) >= 0 && !visited[indexIn3D(size, currentX, currentY, currentZ - 1)]) {
-            visited[indexIn3D(size, currentX, currentY, currentZ - 1)] = true;
-            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX, currentY, currentZ - 1, maxDistance);
-            if (min < minDistance)
-                minDistance = min;
-        }
-        // z + 1
-        if (indexIn3D(size, currentX, currentY, currentZ + 1) < visited.length && !visited[indexIn3D(size, currentX, currentY, currentZ + 1)]) {
-            visited[indexIn3D(size, currentX, currentY, currentZ + 1)] = true;
-            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX, currentY, currentZ + 1, maxDistance);
-            if (min < minDistance)
+        for (int n = 0; n < steps.length; n++) {
+            long neighbour = index + steps[n];
+            int neighbourOffset = offset + offsetSteps[n];
+            if (neighbour < 0 || neighbour >= length || visited[neighbourOffset])
+                continue;
+            visited[neighbourOffset] = true;
+            double min = calculateDistance(currentDistance + 1, terrain, visited, length, neighbour, neighbourOffset, steps, offsetSteps, maxDistance);
+            // the first neighbour sets the distance, later ones only lower it
+            if (n == 0 || min < minDistance)
                 minDistance = min;
         }
         return minDistance;
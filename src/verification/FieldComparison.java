@@ -0,0 +1,100 @@
+package verification;
+
+/**
+ * Difference between an expected and an actual field. Voxels agree when they are at most maxUlps representable
+ * doubles apart, or when their difference is within relative or absolute tolerance.
+ */
+public class FieldComparison {
+
+    private final String field;
+    private final int numOfVoxels;
+    private int mismatches;
+    private long maxUlps;
+    private double maxAbsoluteError;
+    private double maxRelativeError;
+    private int firstMismatch = -1;
+    private double firstExpected;
+    private double firstActual;
+
+    private FieldComparison(String field, int numOfVoxels) {
+        this.field = field;
+        this.numOfVoxels = numOfVoxels;
+    }
+
+    public static FieldComparison compare(String field, double[] expected, double[] actual, long maxUlps, double relativeTolerance, double absoluteTolerance) {
+        if (expected.length != actual.length)
+            throw new IllegalArgumentException("Field " + field + " has " + actual.length + " voxels, expected " + expected.length);
+        FieldComparison comparison = new FieldComparison(field, expected.length);
+        for (int i = 0; i < expected.length; i++) {
+            long ulps = ulpDistance(expected[i], actual[i]);
+            if (ulps == 0)
+                continue;
+            double absoluteError = Math.abs(expected[i] - actual[i]);
+            double relativeError = absoluteError / Math.max(Math.abs(expected[i]), Math.abs(actual[i]));
+            comparison.maxUlps = Math.max(comparison.maxUlps, ulps);
+            // NaN errors (one of the values is NaN) are kept as they are
+            if (!(absoluteError <= comparison.maxAbsoluteError))
+                comparison.maxAbsoluteError = absoluteError;
+            if (!(relativeError <= comparison.maxRelativeError))
+                comparison.maxRelativeError = relativeError;
+            if (ulps <= maxUlps || relativeError <= relativeTolerance || absoluteError <= absoluteTolerance)
+                continue;
+            if (comparison.mismatches++ == 0) {
+                comparison.firstMismatch = i;
+                comparison.firstExpected = expected[i];
+                comparison.firstActual = actual[i];
+            }
+        }
+        return comparison;
+    }
+
+    /**
+     * @return number of representable doubles between the values, Long.MAX_VALUE when only one is NaN
+     */
+    public static long ulpDistance(double a, double b) {
+        if (Double.isNaN(a) || Double.isNaN(b))
+            return Double.isNaN(a) && Double.isNaN(b) ? 0 : Long.MAX_VALUE;
+        long distance = ordered(a) - ordered(b);
+        // difference of values with opposite signs can overflow
+        if (((ordered(a) ^ ordered(b)) & (ordered(a) ^ distance)) < 0 || distance == Long.MIN_VALUE)
+            return Long.MAX_VALUE;
+        return Math.abs(distance);
+    }
+
+    // maps doubles to longs, which are ordered the same as the doubles, with both zeros mapped to 0
+    private static long ordered(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits < 0 ? Long.MIN_VALUE - bits : bits;
+    }
+
+    public boolean matches() {
+        return mismatches == 0;
+    }
+
+    /**
+     * @param size number of voxels of the padded field in every dimension, used to locate the first mismatch
+     */
+    public String describe(int size) {
+        String errors = String.format("max %d ulps, max absolute error %.3e, max relative error %.3e", maxUlps, maxAbsoluteError, maxRelativeError);
+        if (matches())
+            return field + ": " + errors;
+        int x = firstMismatch % size;
+        int y = firstMismatch / size % size;
+        int z = firstMismatch / (size * size);
+        return String.format("%s: %d of %d voxels differ, %s, first at (%d, %d, %d): expected %s, actual %s",
+                field, mismatches, numOfVoxels, errors, x, y, z, firstExpected, firstActual);
+    }
+
+    // GETTER methods
+    public String getField() {
+        return field;
+    }
+
+    public int getMismatches() {
+        return mismatches;
+    }
+
+    public long getMaxUlps() {
+        return maxUlps;
+    }
+}
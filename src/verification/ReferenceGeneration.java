@@ -0,0 +1,329 @@
+package verification;
+
+import data.Vector;
+import data.VoxelType;
+import data.Wave;
+import parameters.FluidSimulationParameters;
+import util.VolumeUtils;
+
+import java.util.Random;
+
+/**
+ * Frozen reference implementation of volume generation: plain loops over the whole volume, as generation was first
+ * written, with a voxel type array and Perlin noise evaluated point by point. It is kept unchanged, so that optimized
+ * generation of FluidGeneration can be compared with it (see SolverVerification); heights, terrain, densities and
+ * potentials should match bit for bit. Waves which decay are not supported.
+ */
+public class ReferenceGeneration {
+
+    // offset of noise samples for derivatives of potentials
+    private static final double DISPLACEMENT = 0.01;
+    private static final double MAX_RECURSION_DISTANCE = 5;
+
+    private final FluidSimulationParameters parameters;
+    private final int size;
+    private final double dimensionStep;
+    private double[] heights;
+    private VoxelType[] terrain;
+    private double[] densities;
+    private Vector[] potentials;
+
+    public ReferenceGeneration(FluidSimulationParameters parameters) {
+        for (Wave wave : parameters.getWaves())
+            if (wave.getDecayLength() != Double.POSITIVE_INFINITY)
+                throw new IllegalArgumentException("Reference generation does not support decaying waves");
+        this.parameters = parameters;
+        this.size = parameters.getSize();
+        this.dimensionStep = parameters.getDimensionDiscretizationStep();
+    }
+
+    /**
+     * Generates heights, terrain, densities and potentials of the whole volume.
+     */
+    public ReferenceGeneration generate() {
+        this.heights = calculateHeights();
+        this.terrain = createTerrain();
+        this.densities = generateDensities();
+        this.potentials = calculatePotentialField();
+        return this;
+    }
+
+    // PRIVATE methods
+
+    private double[] calculateHeights() {
+        double[] waves = new double[size * size];
+        for (Wave wave : parameters.getWaves()) {
+            double phaseShift = 0;
+            if (wave.getStartX() != 0)
+                phaseShift = (double) wave.getStartY() / wave.getStartX();
+            for (int i = 0; i < size; i++)
+                for (int j = 0; j < size; j++)
+                    waves[VolumeUtils.indexIn2D(size, j, i)] += wave.getAmplitude() * Math.sin(wave.getFrequency() * Math.sqrt(Math.pow((double) j - wave.getStartX(), 2) + Math.pow((double) i - wave.getStartY(), 2)) + phaseShift);
+        }
+        double[] heights = new double[size * size];
+        for (int i = 0; i < size; i++)
+            for (int j = 0; j < size; j++)
+                heights[VolumeUtils.indexIn2D(size, j, i)] = parameters.getHeightBase() + (VolumeUtils.boundValue(waves[VolumeUtils.indexIn2D(size, j, i)]) * parameters.getHeightSpan());
+        return heights;
+    }
+
+    private VoxelType[] createTerrain() {
+        VoxelType[] terrain = new VoxelType[size * size * size];
+        for (int k = 0; k < size; k++) {
+            for (int j = 0; j < size; j++) {
+                for (int i = 0; i < size; i++) {
+                    if (k < parameters.getHeightFloor() / dimensionStep)
+                        terrain[VolumeUtils.indexIn3D(size, i, j, k)] = VoxelType.FLOOR;
+                    else if (cube(i, j, k))
+                        terrain[VolumeUtils.indexIn3D(size, i, j, k)] = VoxelType.OBJECT;
+                    else
+                        terrain[VolumeUtils.indexIn3D(size, i, j, k)] = VoxelType.FLUID;
+                    if (k * dimensionStep > heights[VolumeUtils.indexIn2D(size, i, j)])
+                        terrain[VolumeUtils.indexIn3D(size, i, j, k)] = VoxelType.AIR;
+                }
+            }
+        }
+        return terrain;
+    }
+
+    private boolean cube(int positionX, int positionY, int positionZ) {
+        boolean correctX = positionX >= (int) (parameters.getCubePositionX() / dimensionStep) &&
+                positionX < (int) ((parameters.getCubePositionX() + parameters.getCubeSize()) / dimensionStep);
+        boolean correctY = positionY >= (int) (parameters.getCubePositionY() / dimensionStep) &&
+                positionY < (int) ((parameters.getCubePositionY() + parameters.getCubeSize()) / dimensionStep);
+        boolean correctZ = positionZ < (int) ((parameters.getCubeSize() + parameters.getHeightFloor()) / dimensionStep);
+        return correctX && correctY && correctZ;
+    }
+
+    private double[] generateDensities() {
+        Noise noise = new Noise(parameters.getGenerationSeed());
+        double[] densities = new double[size * size * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                for (int k = 0; k < size; k++) {
+                    int index = VolumeUtils.indexIn3D(size, k, j, i);
+                    if (terrain[index].equals(VoxelType.AIR))
+                        densities[index] = 1.0;
+                    else if (terrain[index].equals(VoxelType.OBJECT) || terrain[index].equals(VoxelType.FLOOR))
+                        densities[index] = parameters.getDensityFloor();
+                    else {
+                        double perlinNoise = noise.perlin(k * dimensionStep, j * dimensionStep, i * dimensionStep, false);
+                        densities[index] = VolumeUtils.round(parameters.getDensityBase() + (perlinNoise * parameters.getDensityRange()), 6);
+                    }
+                }
+            }
+        }
+        return densities;
+    }
+
+    private Vector[] calculatePotentialField() {
+        Noise noise = new Noise(parameters.getGenerationSeed());
+        Vector[] vectors = new Vector[size * size * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                for (int k = 0; k < size; k++) {
+                    if (!terrain[VolumeUtils.indexIn3D(size, k, j, i)].equals(VoxelType.FLUID)) {
+                        vectors[VolumeUtils.indexIn3D(size, k, j, i)] = new Vector(0, 0, 0);
+                    } else {
+                        Vector velocity = curl(noise, k * dimensionStep, j * dimensionStep, i * dimensionStep);
+                        double distanceToNearestNonFluidVoxelWeighted = calculateDistance(0, terrain, new boolean[size * size * size], size, k, j, i, MAX_RECURSION_DISTANCE) / MAX_RECURSION_DISTANCE;
+                        vectors[VolumeUtils.indexIn3D(size, k, j, i)] = velocity.setToSpecificLengthBasedOnSmoothFactor(distanceToNearestNonFluidVoxelWeighted);
+                    }
+                }
+            }
+        }
+        return vectors;
+    }
+
+    private static Vector curl(Noise p, double x, double y, double z) {
+        Vector potential1 = p.perlin(x, y, z);
+        Vector potential2 = p.perlin(x + 36000, y + 36000, z + 36000);
+        Vector potential3 = p.perlin(x + 12497, y + 12497, z + 12497);
+
+        // calculate partial derivative
+        Vector potential3Offset2 = p.perlin(x + 12497, y + 12497 + DISPLACEMENT, z + 12497);
+        double p32 = (potential3Offset2.getY() - potential3.getY()) / DISPLACEMENT;
+        Vector potential2Offset3 = p.perlin(x + 36000, y + 36000, z + 36000 + DISPLACEMENT);
+        double p23 = (potential2Offset3.getZ() - potential2.getZ()) / DISPLACEMENT;
+        Vector potential1Offset3 = p.perlin(x, y, z + DISPLACEMENT);
+        double p13 = (potential1Offset3.getZ() - potential1.getZ()) / DISPLACEMENT;
+        Vector potential3Offset1 = p.perlin(x + 12497 + DISPLACEMENT, y + 12497, z + 12497);
+        double p31 = (potential3Offset1.getX() - potential3.getX()) / DISPLACEMENT;
+        Vector potential2Offset1 = p.perlin(x + 36000 + DISPLACEMENT, y + 36000, z + 36000);
+        double p21 = (potential2Offset1.getX() - potential2.getX()) / DISPLACEMENT;
+        Vector potential1Offset2 = p.perlin(x, y + DISPLACEMENT, z);
+        double p12 = (potential1Offset2.getY() - potential1.getY()) / DISPLACEMENT;
+
+        return new Vector(p32 - p23, p13 - p31, p21 - p12).normalize();
+    }
+
+    /**
+     * @return distance to the nearest non-fluid voxel, by recursion over the whole voxel type array as first written
+     */
+    private static double calculateDistance(double currentDistance, VoxelType[] terrain, boolean[] visited, int size, int currentX, int currentY, int currentZ, double maxDistance) {
+        if (!terrain[VolumeUtils.indexIn3D(size, currentX, currentY, currentZ)].equals(VoxelType.FLUID) || currentDistance == maxDistance)
+            return currentDistance;
+        double minDistance = -1;
+        // x + 1
+        if (VolumeUtils.indexIn3D(size, currentX + 1, currentY, currentZ) < visited.length && !visited[VolumeUtils.indexIn3D(size, currentX + 1, currentY, currentZ)]) {
+            visited[VolumeUtils.indexIn3D(size, currentX + 1, currentY, currentZ)] = true;
+            minDistance = calculateDistance(currentDistance + 1, terrain, visited, size, currentX + 1, currentY, currentZ, maxDistance);
+        }
+        // x - 1
+        if (VolumeUtils.indexIn3D(size, currentX - 1, currentY, currentZ) >= 0 && !visited[VolumeUtils.indexIn3D(size, currentX - 1, currentY, currentZ)]) {
+            visited[VolumeUtils.indexIn3D(size, currentX - 1, currentY, currentZ)] = true;
+            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX - 1, currentY, currentZ, maxDistance);
+            if (min < minDistance)
+                minDistance = min;
+        }
+        // y - 1
+        if (VolumeUtils.indexIn3D(size, currentX, currentY - 1, currentZ) >= 0 && !visited[VolumeUtils.indexIn3D(size, currentX, currentY - 1, currentZ)]) {
+            visited[VolumeUtils.indexIn3D(size, currentX, currentY - 1, currentZ)] = true;
+            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX, currentY - 1, currentZ, maxDistance);
+            if (min < minDistance)
+                minDistance = min;
+        }
+        // y + 1
+        if (VolumeUtils.indexIn3D(size, currentX, currentY + 1, currentZ) < visited.length && !visited[VolumeUtils.indexIn3D(size, currentX, currentY + 1, currentZ)]) {
+            visited[VolumeUtils.indexIn3D(size, currentX, currentY + 1, currentZ)] = true;
+            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX, currentY + 1, currentZ, maxDistance);
+            if (min < minDistance)
+                minDistance = min;
+        }
+        // z - 1
+        if (VolumeUtils.indexIn3D(size, currentX, currentY, currentZ - 1) >= 0 && !visited[VolumeUtils.indexIn3D(size, currentX, currentY, currentZ - 1)]) {
+            visited[VolumeUtils.indexIn3D(size, currentX, currentY, currentZ - 1)] = true;
+            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX, currentY, currentZ - 1, maxDistance);
+            if (min < minDistance)
+                minDistance = min;
+        }
+        // z + 1
+        if (VolumeUtils.indexIn3D(size, currentX, currentY, currentZ + 1) < visited.length && !visited[VolumeUtils.indexIn3D(size, currentX, currentY, currentZ + 1)]) {
+            visited[VolumeUtils.indexIn3D(size, currentX, currentY, currentZ + 1)] = true;
+            double min = calculateDistance(currentDistance + 1, terrain, visited, size, currentX, currentY, currentZ + 1, maxDistance);
+            if (min < minDistance)
+                minDistance = min;
+        }
+        return minDistance;
+    }
+
+    /**
+     * Perlin noise evaluated from scratch at every point.
+     */
+    private static class Noise {
+
+        private static final int[] P = {151, 160, 137, 91, 90, 15,
+                131, 13, 201, 95, 96, 53, 194, 233, 7, 225, 140, 36, 103, 30, 69, 142, 8, 99, 37, 240, 21, 10, 23,
+                190, 6, 148, 247, 120, 234, 75, 0, 26, 197, 62, 94, 252, 219, 203, 117, 35, 11, 32, 57, 177, 33,
+                88, 237, 149, 56, 87, 174, 20, 125, 136, 171, 168, 68, 175, 74, 165, 71, 134, 139, 48, 27, 166,
+                77, 146, 158, 231, 83, 111, 229, 122, 60, 211, 133, 230, 220, 105, 92, 41, 55, 46, 245, 40, 244,
+                102, 143, 54, 65, 25, 63, 161, 1, 216, 80, 73, 209, 76, 132, 187, 208, 89, 18, 169, 200, 196,
+                135, 130, 116, 188, 159, 86, 164, 100, 109, 198, 173, 186, 3, 64, 52, 217, 226, 250, 124, 123,
+                5, 202, 38, 147, 118, 126, 255, 82, 85, 212, 207, 206, 59, 227, 47, 16, 58, 17, 182, 189, 28, 42,
+                223, 183, 170, 213, 119, 248, 152, 2, 44, 154, 163, 70, 221, 153, 101, 155, 167, 43, 172, 9,
+                129, 22, 39, 253, 19, 98, 108, 110, 79, 113, 224, 232, 178, 185, 112, 104, 218, 246, 97, 228,
+                251, 34, 242, 193, 238, 210, 144, 12, 191, 179, 162, 241, 81, 51, 145, 235, 249, 14, 239, 107,
+                49, 192, 214, 31, 181, 199, 106, 157, 184, 84, 204, 176, 115, 121, 50, 45, 127, 4, 150, 254,
+                138, 236, 205, 93, 222, 114, 67, 29, 24, 72, 243, 141, 128, 195, 78, 66, 215, 61, 156, 180
+        };
+
+        private final int[] permutation = new int[512];
+
+        Noise(long seed) {
+            if (seed != -1) {
+                Random r = new Random(seed);
+                for (int i = 0; i < permutation.length; i++)
+                    permutation[i] = r.nextInt(256);
+            } else {
+                for (int i = 0; i < 256; i++)
+                    permutation[256 + i] = permutation[i] = P[i];
+            }
+        }
+
+        double perlin(double x, double y, double z, boolean fromZeroToOne) {
+            double[] lerps = corners(x, y, z);
+            double y1 = lerp(lerps[0], lerps[1], VolumeUtils.fade(y - (int) y));
+            double y2 = lerp(lerps[2], lerps[3], VolumeUtils.fade(y - (int) y));
+            if (fromZeroToOne)
+                return (lerp(y1, y2, VolumeUtils.fade(z - (int) z)) + 1) / 2;
+            return lerp(y1, y2, VolumeUtils.fade(z - (int) z));
+        }
+
+        Vector perlin(double x, double y, double z) {
+            double[] lerps = corners(x, y, z);
+            double y1 = lerp(lerps[0], lerps[1], VolumeUtils.fade(y - (int) y));
+            return new Vector(lerps[2], lerps[3], y1).normalize();
+        }
+
+        /**
+         * @return gradients interpolated along x on the four edges of the lattice cell: y and z low, y high, z high,
+         * both high
+         */
+        private double[] corners(double x, double y, double z) {
+            int xi = (int) x & 255;
+            int yi = (int) y & 255;
+            int zi = (int) z & 255;
+            double xf = x - (int) x;
+            double yf = y - (int) y;
+            double zf = z - (int) z;
+            double u = VolumeUtils.fade(xf);
+
+            int aaa = permutation[permutation[permutation[xi] + yi] + zi];
+            int aba = permutation[permutation[permutation[xi] + yi + 1] + zi];
+            int aab = permutation[permutation[permutation[xi] + yi] + zi + 1];
+            int abb = permutation[permutation[permutation[xi] + yi + 1] + zi + 1];
+            int baa = permutation[permutation[permutation[xi + 1] + yi] + zi];
+            int bba = permutation[permutation[permutation[xi + 1] + yi + 1] + zi];
+            int bab = permutation[permutation[permutation[xi + 1] + yi] + zi + 1];
+            int bbb = permutation[permutation[permutation[xi + 1] + yi + 1] + zi + 1];
+
+            return new double[]{
+                    lerp(grad(aaa, xf, yf, zf), grad(baa, xf - 1, yf, zf), u),
+                    lerp(grad(aba, xf, yf - 1, zf), grad(bba, xf - 1, yf - 1, zf), u),
+                    lerp(grad(aab, xf, yf, zf - 1), grad(bab, xf - 1, yf, zf - 1), u),
+                    lerp(grad(abb, xf, yf - 1, zf - 1), grad(bbb, xf - 1, yf - 1, zf - 1), u)};
+        }
+
+        private static double grad(int hash, double x, double y, double z) {
+            return switch (hash & 0xF) {
+                case 0x0 -> x + y;
+                case 0x1 -> -x + y;
+                case 0x2 -> x - y;
+                case 0x3 -> -x - y;
+                case 0x4 -> x + z;
+                case 0x5 -> -x + z;
+                case 0x6 -> x - z;
+                case 0x7 -> -x - z;
+                case 0x8 -> y + z;
+                case 0x9 -> -y + z;
+                case 0xA -> y - z;
+                case 0xB -> -y - z;
+                case 0xC -> y + x;
+                case 0xD -> -y + z;
+                case 0xE -> y - x;
+                default -> -y - z;
+            };
+        }
+
+        private static double lerp(double a, double b, double x) {
+            return a + x * (b - a);
+        }
+    }
+
+    // GETTER methods
+    public double[] getHeights() {
+        return heights;
+    }
+
+    public VoxelType[] getTerrain() {
+        return terrain;
+    }
+
+    public double[] getDensities() {
+        return densities;
+    }
+
+    public Vector[] getPotentials() {
+        return potentials;
+    }
+}
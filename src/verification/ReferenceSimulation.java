@@ -0,0 +1,277 @@
+package verification;
+
+import data.VolumeState;
+import data.VoxelType;
+import simulation.SolverPhase;
+import util.VolumeUtils;
+
+/**
+ * Frozen reference implementation of the solver: plain scalar loops over the whole volume, as the simulation was
+ * first written, with a voxel type array instead of column terrain. It is kept unchanged, so that optimized kernels
+ * of FluidSimulation can be compared with it (see SolverVerification). Default solver settings of FluidSimulation
+ * should match it bit for bit; only full, unsplit volumes with still surface are supported.
+ */
+public class ReferenceSimulation {
+
+    private final VolumeState volumeState;
+    private final VoxelType[] terrain;
+
+    public ReferenceSimulation(VolumeState volumeState) {
+        if (volumeState.isSplit())
+            throw new IllegalArgumentException("Reference simulation needs the whole volume");
+        this.volumeState = volumeState;
+        this.terrain = volumeState.getTerrain().toArray();
+    }
+
+    public void simulateStep() {
+        for (SolverPhase phase : SolverPhase.values())
+            run(phase);
+    }
+
+    /**
+     * Runs a single phase of the step, phases must be run in their order.
+     */
+    public void run(SolverPhase phase) {
+        switch (phase) {
+            case DIFFUSE_VELOCITY_X -> {
+                volumeState.swapVelocityX();
+                diffuse(1, volumeState.getVelocityX(), volumeState.getOldVelocityX(), volumeState.getViscosityRate());
+            }
+            case DIFFUSE_VELOCITY_Y -> {
+                volumeState.swapVelocityY();
+                diffuse(2, volumeState.getVelocityY(), volumeState.getOldVelocityY(), volumeState.getViscosityRate());
+            }
+            case DIFFUSE_VELOCITY_Z -> {
+                volumeState.swapVelocityZ();
+                diffuse(3, volumeState.getVelocityZ(), volumeState.getOldVelocityZ(), volumeState.getViscosityRate());
+            }
+            case PROJECT_DIFFUSED, PROJECT_ADVECTED ->
+                    project(volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY());
+            case ADVECT_VELOCITY_X -> {
+                volumeState.swapVelocityX();
+                volumeState.swapVelocityY();
+                volumeState.swapVelocityZ();
+                advect(1, volumeState.getVelocityX(), volumeState.getOldVelocityX(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY(), volumeState.getOldVelocityZ());
+            }
+            case ADVECT_VELOCITY_Y ->
+                    advect(2, volumeState.getVelocityY(), volumeState.getOldVelocityY(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY(), volumeState.getOldVelocityZ());
+            case ADVECT_VELOCITY_Z ->
+                    advect(3, volumeState.getVelocityZ(), volumeState.getOldVelocityZ(), volumeState.getOldVelocityX(), volumeState.getOldVelocityY(), volumeState.getOldVelocityZ());
+            case DIFFUSE_DENSITY ->
+                    diffuse(0, volumeState.getNewDensities(), volumeState.getOldDensities(), volumeState.getDiffusionRate());
+            case ADVECT_DENSITY -> {
+                volumeState.swapDensity();
+                advect(0, volumeState.getNewDensities(), volumeState.getOldDensities(), volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ());
+            }
+        }
+    }
+
+    // PRIVATE methods
+
+    private boolean isFluid(int x, int y, int z) {
+        return terrain[VolumeUtils.indexIn3D(volumeState.getN(), x, y, z)].equals(VoxelType.FLUID);
+    }
+
+    private void diffuse(int b, double[] newValues, double[] oldValues, double diff) {
+        int n = volumeState.getN();
+        int size = volumeState.getSize();
+        double a = volumeState.getDt() * diff * n * n;
+        for (int it = 0; it < volumeState.getIter(); it++) {
+            for (int i = 1; i <= n; i++) {
+                for (int j = 1; j <= n; j++) {
+                    for (int k = 1; k <= n; k++) {
+                        int volumeX = k - 1;
+                        int volumeY = j - 1;
+                        int volumeZ = i - 1;
+                        if (!isFluid(volumeX, volumeY, volumeZ))
+                            continue;
+                        int neighbouringVoxels = 0;
+                        double neighbouringVoxelValues = 0;
+                        if (volumeX - 1 >= 0 && isFluid(volumeX - 1, volumeY, volumeZ)) {
+                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(size, k - 1, j, i)];
+                            neighbouringVoxels++;
+                        }
+                        if (volumeX + 1 < n && isFluid(volumeX + 1, volumeY, volumeZ)) {
+                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(size, k + 1, j, i)];
+                            neighbouringVoxels++;
+                        }
+                        if (volumeY - 1 >= 0 && isFluid(volumeX, volumeY - 1, volumeZ)) {
+                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(size, k, j - 1, i)];
+                            neighbouringVoxels++;
+                        }
+                        if (volumeY + 1 < n && isFluid(volumeX, volumeY + 1, volumeZ)) {
+                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(size, k, j + 1, i)];
+                            neighbouringVoxels++;
+                        }
+                        if (volumeZ - 1 >= 0 && isFluid(volumeX, volumeY, volumeZ - 1)) {
+                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(size, k, j, i - 1)];
+                            neighbouringVoxels++;
+                        }
+                        if (volumeZ + 1 < n && isFluid(volumeX, volumeY, volumeZ + 1)) {
+                            neighbouringVoxelValues += newValues[VolumeUtils.indexIn3D(size, k, j, i + 1)];
+                            neighbouringVoxels++;
+                        }
+                        int index = VolumeUtils.indexIn3D(size, k, j, i);
+                        newValues[index] = (oldValues[index] + a * neighbouringVoxelValues) / (1 + neighbouringVoxels * a);
+                    }
+                }
+            }
+            setBnd(b, newValues);
+        }
+    }
+
+    private void advect(int b, double[] newValues, double[] oldValues, double[] velocX, double[] velocY, double[] velocZ) {
+        int n = volumeState.getN();
+        int size = volumeState.getSize();
+        double dt0 = volumeState.getDt() * n;
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= n; j++) {
+                for (int k = 1; k <= n; k++) {
+                    int index = VolumeUtils.indexIn3D(size, k, j, i);
+                    double x = k - dt0 * velocX[index];
+                    double y = j - dt0 * velocY[index];
+                    double z = i - dt0 * velocZ[index];
+                    x = Math.min(Math.max(x, 0.5), n + 0.5);
+                    y = Math.min(Math.max(y, 0.5), n + 0.5);
+                    z = Math.min(Math.max(z, 0.5), n + 0.5);
+                    int i0 = (int) x;
+                    int i1 = i0 + 1;
+                    int j0 = (int) y;
+                    int j1 = j0 + 1;
+                    int k0 = (int) z;
+                    int k1 = k0 + 1;
+
+                    double s1 = x - i0;
+                    double s0 = 1 - s1;
+                    double t1 = y - j0;
+                    double t0 = 1 - t1;
+                    double u0 = z - k0;
+                    double u1 = 1 - u0;
+
+                    newValues[index] = s0 * (
+                            t0 * (u0 * oldValues[VolumeUtils.indexIn3D(size, k0, j0, i0)] + u1 * oldValues[VolumeUtils.indexIn3D(size, k0, j0, i1)]) +
+                                    t1 * (u0 * oldValues[VolumeUtils.indexIn3D(size, k0, j1, i0)] + u1 * oldValues[VolumeUtils.indexIn3D(size, k0, j1, i1)])) +
+                            s1 * (
+                                    t0 * (u0 * oldValues[VolumeUtils.indexIn3D(size, k1, j0, i0)] + u1 * oldValues[VolumeUtils.indexIn3D(size, k1, j0, i1)]) +
+                                            t1 * (u0 * oldValues[VolumeUtils.indexIn3D(size, k1, j1, i0)] + u1 * oldValues[VolumeUtils.indexIn3D(size, k1, j1, i1)]));
+                }
+            }
+        }
+        setBnd(b, newValues);
+    }
+
+    private void setBnd(int b, double[] x) {
+        int n = volumeState.getN();
+        int size = volumeState.getSize();
+        for (int j = 1; j <= n; j++) {
+            for (int i = 1; i <= n; i++) {
+                x[VolumeUtils.indexIn3D(size, i, j, 0)] = b == 3 ? -x[VolumeUtils.indexIn3D(size, i, j, 1)] : x[VolumeUtils.indexIn3D(size, i, j, 1)];
+                x[VolumeUtils.indexIn3D(size, i, j, n + 1)] = b == 3 ? -x[VolumeUtils.indexIn3D(size, i, j, n)] : x[VolumeUtils.indexIn3D(size, i, j, n)];
+            }
+        }
+        for (int k = 1; k <= n; k++) {
+            for (int i = 1; i <= n; i++) {
+                x[VolumeUtils.indexIn3D(size, i, 0, k)] = b == 2 ? -x[VolumeUtils.indexIn3D(size, i, 1, k)] : x[VolumeUtils.indexIn3D(size, i, 1, k)];
+                x[VolumeUtils.indexIn3D(size, i, n + 1, k)] = b == 2 ? -x[VolumeUtils.indexIn3D(size, i, n, k)] : x[VolumeUtils.indexIn3D(size, i, n, k)];
+            }
+        }
+        for (int k = 1; k <= n; k++) {
+            for (int j = 1; j <= n; j++) {
+                x[VolumeUtils.indexIn3D(size, 0, j, k)] = b == 1 ? -x[VolumeUtils.indexIn3D(size, 1, j, k)] : x[VolumeUtils.indexIn3D(size, 1, j, k)];
+                x[VolumeUtils.indexIn3D(size, n + 1, j, k)] = b == 1 ? -x[VolumeUtils.indexIn3D(size, n, j, k)] : x[VolumeUtils.indexIn3D(size, n, j, k)];
+            }
+        }
+
+        // handle terrain inside fluid, non-fluid voxels mirror their fluid neighbour along the axis of the component
+        if (b >= 1) {
+            for (int i = 1; i <= n; i++) {
+                for (int j = 1; j <= n; j++) {
+                    for (int k = 1; k <= n; k++) {
+                        int volumeX = k - 1;
+                        int volumeY = j - 1;
+                        int volumeZ = i - 1;
+                        if (isFluid(volumeX, volumeY, volumeZ))
+                            continue;
+                        int index = VolumeUtils.indexIn3D(size, k, j, i);
+                        if (b == 1) {
+                            if (volumeX - 1 >= 0 && isFluid(volumeX - 1, volumeY, volumeZ))
+                                x[index] = -x[VolumeUtils.indexIn3D(size, k - 1, j, i)];
+                            else if (volumeX + 1 < n && isFluid(volumeX + 1, volumeY, volumeZ))
+                                x[index] = -x[VolumeUtils.indexIn3D(size, k + 1, j, i)];
+                        } else if (b == 2) {
+                            if (volumeY - 1 >= 0 && isFluid(volumeX, volumeY - 1, volumeZ))
+                                x[index] = -x[VolumeUtils.indexIn3D(size, k, j - 1, i)];
+                            else if (volumeY + 1 < n && isFluid(volumeX, volumeY + 1, volumeZ))
+                                x[index] = -x[VolumeUtils.indexIn3D(size, k, j + 1, i)];
+                        } else {
+                            if (volumeZ - 1 >= 0 && isFluid(volumeX, volumeY, volumeZ - 1))
+                                x[index] = -x[VolumeUtils.indexIn3D(size, k, j, i - 1)];
+                            else if (volumeZ + 1 < n && isFluid(volumeX, volumeY, volumeZ + 1))
+                                x[index] = -x[VolumeUtils.indexIn3D(size, k, j, i + 1)];
+                        }
+                    }
+                }
+            }
+        }
+
+        int m = n + 1;
+        x[VolumeUtils.indexIn3D(size, 0, 0, 0)] = 0.33f * (x[VolumeUtils.indexIn3D(size, 1, 0, 0)] + x[VolumeUtils.indexIn3D(size, 0, 1, 0)] + x[VolumeUtils.indexIn3D(size, 0, 0, 1)]);
+        x[VolumeUtils.indexIn3D(size, 0, m, 0)] = 0.33f * (x[VolumeUtils.indexIn3D(size, 1, m, 0)] + x[VolumeUtils.indexIn3D(size, 0, n, 0)] + x[VolumeUtils.indexIn3D(size, 0, m, 1)]);
+        x[VolumeUtils.indexIn3D(size, 0, 0, m)] = 0.33f * (x[VolumeUtils.indexIn3D(size, 1, 0, m)] + x[VolumeUtils.indexIn3D(size, 0, 1, m)] + x[VolumeUtils.indexIn3D(size, 0, 0, n)]);
+        x[VolumeUtils.indexIn3D(size, 0, m, m)] = 0.33f * (x[VolumeUtils.indexIn3D(size, 1, m, m)] + x[VolumeUtils.indexIn3D(size, 0, n, m)] + x[VolumeUtils.indexIn3D(size, 0, m, n)]);
+        x[VolumeUtils.indexIn3D(size, m, 0, 0)] = 0.33f * (x[VolumeUtils.indexIn3D(size, n, 0, 0)] + x[VolumeUtils.indexIn3D(size, m, 1, 0)] + x[VolumeUtils.indexIn3D(size, m, 0, 1)]);
+        x[VolumeUtils.indexIn3D(size, m, m, 0)] = 0.33f * (x[VolumeUtils.indexIn3D(size, n, m, 0)] + x[VolumeUtils.indexIn3D(size, m, n, 0)] + x[VolumeUtils.indexIn3D(size, m, m, 1)]);
+        x[VolumeUtils.indexIn3D(size, m, 0, m)] = 0.33f * (x[VolumeUtils.indexIn3D(size, n, 0, m)] + x[VolumeUtils.indexIn3D(size, m, 1, m)] + x[VolumeUtils.indexIn3D(size, m, 0, n)]);
+        x[VolumeUtils.indexIn3D(size, m, m, m)] = 0.33f * (x[VolumeUtils.indexIn3D(size, n, m, m)] + x[VolumeUtils.indexIn3D(size, m, n, m)] + x[VolumeUtils.indexIn3D(size, m, m, n)]);
+    }
+
+    private void project(double[] velX, double[] velY, double[] velZ, double[] p, double[] div) {
+        int n = volumeState.getN();
+        int size = volumeState.getSize();
+        double h = 1.0 / n;
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= n; j++) {
+                for (int k = 1; k <= n; k++) {
+                    div[VolumeUtils.indexIn3D(size, k, j, i)] = -0.5 * h * (
+                            velX[VolumeUtils.indexIn3D(size, k + 1, j, i)] - velX[VolumeUtils.indexIn3D(size, k - 1, j, i)]
+                                    + velY[VolumeUtils.indexIn3D(size, k, j + 1, i)] - velY[VolumeUtils.indexIn3D(size, k, j - 1, i)]
+                                    + velZ[VolumeUtils.indexIn3D(size, k, j, i + 1)] - velZ[VolumeUtils.indexIn3D(size, k, j, i - 1)]);
+                    p[VolumeUtils.indexIn3D(size, k, j, i)] = 0;
+                }
+            }
+        }
+        setBnd(0, div);
+        setBnd(0, p);
+
+        for (int it = 0; it <= volumeState.getIter(); it++) {
+            for (int i = 1; i <= n; i++) {
+                for (int j = 1; j <= n; j++) {
+                    for (int k = 1; k <= n; k++) {
+                        p[VolumeUtils.indexIn3D(size, k, j, i)] = (div[VolumeUtils.indexIn3D(size, k, j, i)] + p[VolumeUtils.indexIn3D(size, k - 1, j, i)] + p[VolumeUtils.indexIn3D(size, k + 1, j, i)]
+                                + p[VolumeUtils.indexIn3D(size, k, j - 1, i)] + p[VolumeUtils.indexIn3D(size, k, j + 1, i)]
+                                + p[VolumeUtils.indexIn3D(size, k, j, i - 1)] + p[VolumeUtils.indexIn3D(size, k, j, i + 1)]) / 4;
+                    }
+                }
+            }
+            setBnd(0, p);
+        }
+
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= n; j++) {
+                for (int k = 1; k <= n; k++) {
+                    velX[VolumeUtils.indexIn3D(size, k, j, i)] -= 0.5 * (p[VolumeUtils.indexIn3D(size, k + 1, j, i)] - p[VolumeUtils.indexIn3D(size, k - 1, j, i)]) / h;
+                    velY[VolumeUtils.indexIn3D(size, k, j, i)] -= 0.5 * (p[VolumeUtils.indexIn3D(size, k, j + 1, i)] - p[VolumeUtils.indexIn3D(size, k, j - 1, i)]) / h;
+                    velZ[VolumeUtils.indexIn3D(size, k, j, i)] -= 0.5 * (p[VolumeUtils.indexIn3D(size, k, j, i + 1)] - p[VolumeUtils.indexIn3D(size, k, j, i - 1)]) / h;
+                }
+            }
+        }
+        setBnd(1, velX);
+        setBnd(2, velY);
+        setBnd(3, velZ);
+    }
+
+    // GETTER methods
+    public VolumeState getVolumeState() {
+        return volumeState;
+    }
+}
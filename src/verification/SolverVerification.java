@@ -0,0 +1,282 @@
+package verification;
+
+import benchmark.ScalingBenchmark;
+import data.Vector;
+import data.VolumeState;
+import data.VoxelType;
+import distributed.SlabCoordinator;
+import generation.FluidGeneration;
+import generation.GeneratedVolume;
+import parameters.FluidSimulationParameters;
+import simulation.FluidSimulation;
+import simulation.SimulationBackends;
+import simulation.SolverPhase;
+import util.ProgramUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Differential verification of generation and the solver: heights, terrain, densities and potentials of small seeded
+ * volumes generated by FluidGeneration, and of the same volumes regenerated from a surface without waves, are compared
+ * with ReferenceGeneration, then volumes are simulated by
+ * ReferenceSimulation and by FluidSimulation side by side, and all fields are compared after every phase of every step.
+ * Divergent phases are reported with the field, number of differing voxels, the largest errors and the first differing
+ * voxel.
+ *
+ * With --workers, every volume is also simulated by worker processes and by a single worker, and the quantized output
+ * files are compared. Advection of workers writes the same values, but their solver sweeps see neighbouring slabs from
+ * the previous sweep, so outputs agree only within the largest and the mean difference of output levels. The default
+ * tolerance holds for the default sizes and steps; with few solver iterations the difference grows with size, since it
+ * also moves the density range of quantization.
+ *
+ * Arguments (all optional):
+ *  --sizes 16,24,40            volume sizes
+ *  --seeds 1,2,3               generation seeds
+ *  --steps 2                   simulated steps
+ *  --solvers default           solver settings of FluidSimulation, as in ScalingBenchmark
+ *  --ulps 0                    allowed distance in representable doubles
+ *  --relative 0                allowed relative error
+ *  --absolute 0                allowed absolute error
+ *  --report 10                 maximum number of reported divergent phases per case
+ *  --workers 2,3               numbers of worker processes compared with a single worker (none by default)
+ *  --maxLevels 2               allowed largest difference of output levels between workers and a single worker
+ *  --meanLevels 0.1            allowed mean difference of output levels
+ *
+ * Exits with 1 when any case diverges beyond tolerance.
+ */
+public class SolverVerification {
+
+    private static final String[] FIELDS = {"velocityX", "velocityY", "velocityZ", "oldDensities", "newDensities"};
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        int failedCases = 0;
+        int cases = 0;
+        for (String size : options.get("sizes").split(","))
+            for (String seed : options.get("seeds").split(",")) {
+                for (String solver : options.get("solvers").split(",")) {
+                    cases++;
+                    if (!verify(Integer.parseInt(size), Long.parseLong(seed), solver, options))
+                        failedCases++;
+                }
+                for (String workers : options.get("workers").split(",")) {
+                    if (workers.isEmpty())
+                        continue;
+                    cases++;
+                    if (!verifyWorkers(Integer.parseInt(size), Long.parseLong(seed), Integer.parseInt(workers), options))
+                        failedCases++;
+                }
+            }
+        ProgramUtils.displayMessageWithTimestamp(failedCases + " of " + cases + " cases diverge from the reference");
+        if (failedCases > 0)
+            System.exit(1);
+    }
+
+    /**
+     * @return true if candidate matches the reference within tolerance in every phase of every step
+     */
+    public static boolean verify(int size, long seed, String solver, Map<String, String> options) {
+        FluidSimulationParameters referenceParameters = ScalingBenchmark.parametersForSize(size).withGenerationSeed(seed);
+        FluidSimulationParameters candidateParameters = ScalingBenchmark.applySolver(
+                ScalingBenchmark.parametersForSize(size).withGenerationSeed(seed), solver);
+        VolumeState referenceState = new FluidGeneration(referenceParameters).createVolume(referenceParameters);
+        GeneratedVolume generatedVolume = new FluidGeneration(candidateParameters).generate(candidateParameters);
+        VolumeState candidateState = generatedVolume.toVolumeState(candidateParameters);
+        ReferenceSimulation reference = new ReferenceSimulation(referenceState);
+        FluidSimulation candidate = new FluidSimulation(candidateState,
+                SimulationBackends.create(candidateParameters.getSimulationBackend(), candidateState));
+
+        String name = "size " + size + ", seed " + seed + ", " + solver + " solver";
+        long maxUlps = Long.parseLong(options.get("ulps"));
+        double relative = Double.parseDouble(options.get("relative"));
+        double absolute = Double.parseDouble(options.get("absolute"));
+        int maxReports = Integer.parseInt(options.get("report"));
+        List<String> reports = new ArrayList<>();
+        int[] divergentPhases = new int[1];
+        long[] largestUlps = new long[1];
+        int[] step = new int[1];
+
+        // generated volumes are compared first, so divergence in generation is not blamed on the solver
+        ReferenceGeneration referenceGeneration = new ReferenceGeneration(referenceParameters).generate();
+        List<FieldComparison> generation = compareGeneration(referenceGeneration, generatedVolume, maxUlps, relative, absolute);
+        generatedVolume.release();
+        collect(generation, "generation", size, reports, divergentPhases, largestUlps);
+        GeneratedVolume regeneratedVolume = regenerateFromFlatSurface(size, seed, solver);
+        List<FieldComparison> regeneration = compareGeneration(referenceGeneration, regeneratedVolume, maxUlps, relative, absolute);
+        regeneratedVolume.release();
+        collect(regeneration, "regeneration", size, reports, divergentPhases, largestUlps);
+        List<FieldComparison> generated = compare(referenceState, candidateState, maxUlps, relative, absolute);
+        collect(generated, "generated volume", referenceState.getSize(), reports, divergentPhases, largestUlps);
+        candidate.setPhaseObserver((phase, volumeState) -> {
+            reference.run(phase);
+            List<FieldComparison> comparisons = compare(referenceState, volumeState, maxUlps, relative, absolute);
+            collect(comparisons, "step " + step[0] + " " + phase, volumeState.getSize(), reports, divergentPhases, largestUlps);
+        });
+        int numOfSteps = Integer.parseInt(options.get("steps"));
+        for (step[0] = 1; step[0] <= numOfSteps; step[0]++)
+            candidate.simulateStep();
+        referenceState.release();
+        candidateState.release();
+
+        for (String report : reports.subList(0, Math.min(maxReports, reports.size())))
+            ProgramUtils.displayMessageWithTimestamp(name + " - " + report);
+        if (divergentPhases[0] == 0) {
+            ProgramUtils.displayMessageWithTimestamp(name + ": matches reference in " + numOfSteps * SolverPhase.values().length
+                    + " phases, max " + largestUlps[0] + " ulps");
+            return true;
+        }
+        ProgramUtils.displayMessageWithTimestamp(name + ": DIVERGES in " + divergentPhases[0] + " phases");
+        return false;
+    }
+
+    /**
+     * @return true if output of the volume simulated by worker processes is within tolerance of the output simulated by
+     * a single worker
+     */
+    public static boolean verifyWorkers(int size, long seed, int workers, Map<String, String> options) {
+        String name = "size " + size + ", seed " + seed + ", " + workers + " workers";
+        byte[] single = simulateWithWorkers(size, seed, 1, options);
+        byte[] split = simulateWithWorkers(size, seed, workers, options);
+        if (single == null || split == null || single.length != split.length) {
+            ProgramUtils.displayMessageWithTimestamp(name + ": output was not written");
+            return false;
+        }
+        int differing = 0;
+        int maxLevels = 0;
+        long sumLevels = 0;
+        for (int i = 0; i < single.length; i++) {
+            int levels = Math.abs((single[i] & 0xFF) - (split[i] & 0xFF));
+            if (levels > 0)
+                differing++;
+            maxLevels = Math.max(maxLevels, levels);
+            sumLevels += levels;
+        }
+        double meanLevels = (double) sumLevels / single.length;
+        boolean matches = maxLevels <= Integer.parseInt(options.get("maxLevels"))
+                && meanLevels <= Double.parseDouble(options.get("meanLevels"));
+        ProgramUtils.displayMessageWithTimestamp(name + ": " + (matches ? "agrees with" : "DIVERGES from") + " 1 worker, "
+                + differing + " of " + single.length + " voxels differ, max " + maxLevels + " levels, mean "
+                + String.format(Locale.ROOT, "%.4f", meanLevels) + " levels");
+        return matches;
+    }
+
+    /**
+     * @return quantized output of the volume simulated by the given number of worker processes, null if not written
+     */
+    private static byte[] simulateWithWorkers(int size, long seed, int workers, Map<String, String> options) {
+        try {
+            Path output = Files.createTempFile("verification", ".raw");
+            try {
+                FluidSimulationParameters parameters = ScalingBenchmark.parametersForSize(size).withGenerationSeed(seed)
+                        .withNumOfSteps(Integer.parseInt(options.get("steps")))
+                        .withNumOfWorkers(workers)
+                        .withSlabApproximation(true)
+                        .withEndFileName(output.toString());
+                new SlabCoordinator(parameters).simulateAndSave();
+                return Files.size(output) > 0 ? Files.readAllBytes(output) : null;
+            } finally {
+                Files.deleteIfExists(output);
+            }
+        } catch (IOException e) {
+            ProgramUtils.displayMessageWithTimestamp("Error during simulation with workers: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return volume generated without waves, then regenerated with the waves of the case
+     */
+    private static GeneratedVolume regenerateFromFlatSurface(int size, long seed, String solver) {
+        FluidSimulationParameters parameters = ScalingBenchmark.applySolver(
+                ScalingBenchmark.parametersForSize(size).withGenerationSeed(seed), solver);
+        FluidSimulationParameters flatParameters = ScalingBenchmark.applySolver(
+                ScalingBenchmark.parametersForSize(size).withGenerationSeed(seed), solver).withWaves(List.of());
+        FluidGeneration generation = new FluidGeneration(parameters);
+        return generation.regenerate(generation.generate(flatParameters), parameters);
+    }
+
+    private static List<FieldComparison> compare(VolumeState expected, VolumeState actual, long maxUlps, double relative, double absolute) {
+        double[][] expectedFields = fields(expected);
+        double[][] actualFields = fields(actual);
+        List<FieldComparison> comparisons = new ArrayList<>();
+        for (int i = 0; i < FIELDS.length; i++)
+            comparisons.add(FieldComparison.compare(FIELDS[i], expectedFields[i], actualFields[i], maxUlps, relative, absolute));
+        return comparisons;
+    }
+
+    /**
+     * @return comparisons of heights, terrain (by type ordinal), densities and potentials of every axis
+     */
+    private static List<FieldComparison> compareGeneration(ReferenceGeneration expected, GeneratedVolume actual, long maxUlps, double relative, double absolute) {
+        VoxelType[] actualTerrain = actual.getTerrain().toArray();
+        List<FieldComparison> comparisons = new ArrayList<>();
+        comparisons.add(FieldComparison.compare("heights", expected.getHeights(), actual.getHeights(), maxUlps, relative, absolute));
+        comparisons.add(FieldComparison.compare("terrain", ordinals(expected.getTerrain()), ordinals(actualTerrain), 0, 0, 0));
+        comparisons.add(FieldComparison.compare("densities", expected.getDensities(), actual.getDensities(), maxUlps, relative, absolute));
+        String[] axes = {"X", "Y", "Z"};
+        for (int axis = 0; axis < axes.length; axis++)
+            comparisons.add(FieldComparison.compare("potential" + axes[axis], component(expected.getPotentials(), axis),
+                    component(actual.getPotentials(), axis), maxUlps, relative, absolute));
+        return comparisons;
+    }
+
+    private static double[] ordinals(VoxelType[] terrain) {
+        double[] ordinals = new double[terrain.length];
+        for (int i = 0; i < terrain.length; i++)
+            ordinals[i] = terrain[i].ordinal();
+        return ordinals;
+    }
+
+    private static double[] component(Vector[] vectors, int axis) {
+        double[] values = new double[vectors.length];
+        for (int i = 0; i < vectors.length; i++)
+            values[i] = axis == 0 ? vectors[i].getX() : axis == 1 ? vectors[i].getY() : vectors[i].getZ();
+        return values;
+    }
+
+    private static double[][] fields(VolumeState volumeState) {
+        return new double[][]{volumeState.getVelocityX(), volumeState.getVelocityY(), volumeState.getVelocityZ(),
+                volumeState.getOldDensities(), volumeState.getNewDensities()};
+    }
+
+    private static void collect(List<FieldComparison> comparisons, String phase, int size, List<String> reports, int[] divergentPhases, long[] largestUlps) {
+        boolean divergent = false;
+        for (FieldComparison comparison : comparisons) {
+            largestUlps[0] = Math.max(largestUlps[0], comparison.getMaxUlps());
+            if (!comparison.matches()) {
+                divergent = true;
+                reports.add(phase + " " + comparison.describe(size));
+            }
+        }
+        if (divergent)
+            divergentPhases[0]++;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        options.put("sizes", "16,24,40");
+        options.put("seeds", "1,2,3");
+        options.put("steps", "2");
+        options.put("solvers", "default");
+        options.put("ulps", "0");
+        options.put("relative", "0");
+        options.put("absolute", "0");
+        options.put("report", "10");
+        options.put("workers", "");
+        options.put("maxLevels", "2");
+        options.put("meanLevels", "0.1");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}